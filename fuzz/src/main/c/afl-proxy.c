@@ -32,6 +32,8 @@
 #include <stdlib.h>
 #include <unistd.h>
 #include <stdarg.h>
+#include <string.h>
+#include <sys/mman.h>
 #include <sys/shm.h>
 #include <sys/stat.h>
 #include <sys/types.h>
@@ -50,6 +52,23 @@
 * This proxy is general and can be used to exchange information
 * from any external utility writing in the command-line pipes.
 *
+* If the env var JQF_SHARED_MAP names a file, then the proxy and
+* Java both memory-map that file. Java writes the trace bits (and perf
+* bits) directly into it and only sends the 4-byte status through
+* the pipe, which saves two large FIFO transfers per execution.
+*
+* If the env var JQF_FORWARD_INPUT names AFL's input file, then the
+* proxy reads each test case and sends it to Java right after the
+* hello, as a 4-byte length followed by the bytes. The hello is then
+* "HEL3" instead of "HEL2", so Java knows that an input follows.
+*
+* The hello to Java is "HEL2" (or "HEL3"), announcing version 2 of the
+* feedback protocol. If Java sets SPARSE_FEEDBACK in the status, then instead of
+* the full maps it sends the number of non-zero trace bits followed by
+* (u16 index, u8 value) pairs, and, with the perf map, the number of
+* non-zero perf entries followed by (u16 index, u32 value) pairs. Older
+* versions of Java ignore the contents of the hello and send full maps.
+*
 * author: Caroline Lemieux
 * author: Rohan Padhye
 */
@@ -109,6 +128,56 @@ void log_to_file(int to_exit, char* log_file_name, char const *fmt, ...) {
 
 }
 
+/*
+* Reads the whole file into a buffer that is grown as needed.
+* Returns the number of bytes read, or -1 on error.
+*/
+ssize_t read_input(char* file_name, u8** buf, size_t* buf_size) {
+  int fd = open(file_name, O_RDONLY);
+  if (fd < 0) {
+    return -1;
+  }
+  size_t len = 0;
+  ssize_t n;
+  do {
+    if (len == *buf_size) {
+      /* keep the old buffer if it cannot be grown */
+      u8* grown = realloc(*buf, *buf_size * 2);
+      if (grown == NULL) {
+        close(fd);
+        return -1;
+      }
+      *buf = grown;
+      *buf_size = *buf_size * 2;
+    }
+    n = read(fd, *buf + len, *buf_size - len);
+    if (n > 0) len += n;
+  } while (n > 0);
+  close(fd);
+  return n < 0 ? -1 : (ssize_t) len;
+}
+
+/*
+* Reads `num_entries` entries of `value_size` bytes, each preceded by a
+* 2-byte index, and stores the values at those indexes of `map`, which
+* holds `map_entries` values. Returns 0 on success, or -1 on error.
+*/
+int read_sparse_map(FILE* from_java_fd, u8* map, u32 map_entries,
+                    u32 num_entries, size_t value_size) {
+  u8 entry[2 + sizeof(u32)];
+  for (u32 i = 0; i < num_entries; i++) {
+    if (fread(entry, 1, 2 + value_size, from_java_fd) < 2 + value_size) {
+      return -1;
+    }
+    u16 index = entry[0] | (entry[1] << 8);
+    if (index >= map_entries) {
+      return -1;
+    }
+    memcpy(map + index * value_size, entry + 2, value_size);
+  }
+  return 0;
+}
+
 /* main proxy driver. communication channel between a running instance
    of AFL and Java */
 int main(int argc, char** argv) {
@@ -127,6 +196,8 @@ int main(int argc, char** argv) {
 
   /* set up buffers */
   u8 helo[4] = {'H', 'E', 'L', 'O'}; // to set up connections
+  u8 helo_java[4] = {'H', 'E', 'L', '2'}; // to announce the feedback protocol version and input forwarding
+  u32 num_entries = 0; // number of entries in a sparse map
   uint32_t status = 0; // to receive + send status from java
   u8 buf[4]; // to receive signals from AFL
   u32 child_pid = PID_MAX_LIMIT + 1; // A PID that can never exist in practice
@@ -137,6 +208,14 @@ int main(int argc, char** argv) {
   /* temp variable to store communicated bytes */
   int comm_bytes;
 
+  /* AFL's input file, if test cases are to be forwarded to Java */
+  char * input_file_name = getenv(FORWARD_INPUT_ENV_VAR);
+  size_t input_buf_size = 4096;
+  u8* input_buf = malloc(input_buf_size);
+  if (input_file_name != NULL) {
+    helo_java[3] = '3';
+  }
+
 #ifdef PERF_SIZE
   /* decide if perf_bits have to be shared */
   if (getenv("JQF_PERF_MAP") != NULL) {
@@ -173,6 +252,23 @@ int main(int argc, char** argv) {
 
   /* perf map is right after coverage bit map (unused with stock AFL) */
   u32* perf_bits = (u32*) &trace_bits[MAP_SIZE];
+
+  /* set up the map shared with Java, if any; it has the same layout */
+  u8* shared_map = NULL;
+  char * shared_map_str = getenv(SHARED_MAP_ENV_VAR);
+  if (shared_map_str != NULL) {
+    /* Java may create the file first; both sides use the same size */
+    int shared_map_fd = open(shared_map_str, O_RDWR | O_CREAT, 0600);
+    if (shared_map_fd < 0 || ftruncate(shared_map_fd, SHARED_MAP_SIZE) != 0) {
+      log_to_file(1, log_file_name, "Error creating shared map %s\n", shared_map_str);
+    }
+    shared_map = mmap(NULL, SHARED_MAP_SIZE, PROT_READ | PROT_WRITE, MAP_SHARED, shared_map_fd, 0);
+    if (shared_map == MAP_FAILED) {
+      log_to_file(1, log_file_name, "Error mapping shared map %s\n", shared_map_str);
+    }
+    close(shared_map_fd);
+    log_to_file(0, log_file_name, "mapped shared map %s\n", shared_map_str);
+  }
  
   /* say the first hello to AFL. use write() because we
      have an int file descriptor */
@@ -198,10 +294,24 @@ int main(int argc, char** argv) {
     }
 
     /* Say hello to Java */
-    if ((comm_bytes = fwrite(&helo, 1, 4, to_java_fd)) < 4) {
+    if ((comm_bytes = fwrite(&helo_java, 1, 4, to_java_fd)) < 4) {
       log_to_file(1, log_file_name, 
         "Something went wrong saying hello to Java: wrote %d bytes.\n", comm_bytes);
     } 
+
+    /* Send the test case along with the hello, if needed */
+    if (input_file_name != NULL) {
+      ssize_t input_len = read_input(input_file_name, &input_buf, &input_buf_size);
+      if (input_len < 0) {
+        log_to_file(1, log_file_name, "Error reading input file %s\n", input_file_name);
+      }
+      u32 len = (u32) input_len;
+      if (fwrite(&len, 1, 4, to_java_fd) < 4 ||
+          fwrite(input_buf, 1, len, to_java_fd) < len) {
+        log_to_file(1, log_file_name, "Something went wrong sending input to Java.\n");
+      }
+    }
+
     /* need to flush the buffer */
     fflush(to_java_fd);
 
@@ -215,25 +325,62 @@ int main(int argc, char** argv) {
 
     log_to_file(0, log_file_name, "Got return status from Java.\n");
 
-    /* Get trace bits from Java */
-    if ((comm_bytes = fread( trace_bits, 1, MAP_SIZE, from_java_fd)) < MAP_SIZE) {
-      log_to_file(1, log_file_name, 
-        "Something went wrong getting trace_bits from Java: read %d bytes.\n", comm_bytes);
-    }
+    if (status & SPARSE_FEEDBACK) {
+      status &= ~SPARSE_FEEDBACK;
+
+      /* Expand the non-zero trace bits into a cleared map */
+      memset(trace_bits, 0, MAP_SIZE);
+      if (fread(&num_entries, 1, 4, from_java_fd) < 4 ||
+          read_sparse_map(from_java_fd, trace_bits, MAP_SIZE, num_entries, 1) != 0) {
+        log_to_file(1, log_file_name,
+          "Something went wrong getting sparse trace_bits from Java.\n");
+      }
+
+      log_to_file(0, log_file_name, "Got %u sparse trace bits from java.\n", num_entries);
 
-    log_to_file(0, log_file_name, "Got trace bits from java.\n");
-    
 #ifdef PERF_SIZE
-    if (use_perf_map) {
-      /* Get perf bits from Java */
-      if ((comm_bytes = fread( perf_bits, 4, PERF_SIZE, from_java_fd)) < PERF_SIZE) {
+      if (use_perf_map) {
+        memset(perf_bits, 0, PERF_SIZE * sizeof(u32));
+        if (fread(&num_entries, 1, 4, from_java_fd) < 4 ||
+            read_sparse_map(from_java_fd, (u8*) perf_bits, PERF_SIZE, num_entries, sizeof(u32)) != 0) {
+          log_to_file(1, log_file_name,
+            "Something went wrong getting sparse perf_bits from Java.\n");
+        }
+
+        log_to_file(0, log_file_name, "Got %u sparse perf bits from java.\n", num_entries);
+      }
+#endif
+    } else if (shared_map != NULL) {
+      /* Java has already written the maps; copy them into AFL's segment */
+      memcpy(trace_bits, shared_map, MAP_SIZE);
+#ifdef PERF_SIZE
+      if (use_perf_map) {
+        memcpy(perf_bits, shared_map + MAP_SIZE, PERF_SIZE * sizeof(u32));
+      }
+#endif
+      log_to_file(0, log_file_name, "Copied shared maps from Java.\n");
+    } else {
+
+      /* Get trace bits from Java */
+      if ((comm_bytes = fread( trace_bits, 1, MAP_SIZE, from_java_fd)) < MAP_SIZE) {
         log_to_file(1, log_file_name, 
-          "Something went wrong getting perf_bits from Java: read %d bytes.\n", comm_bytes);
+          "Something went wrong getting trace_bits from Java: read %d bytes.\n", comm_bytes);
       }
 
-      log_to_file(0, log_file_name, "Got perf bits from java.\n");
-    }
+      log_to_file(0, log_file_name, "Got trace bits from java.\n");
+    
+#ifdef PERF_SIZE
+      if (use_perf_map) {
+        /* Get perf bits from Java */
+        if ((comm_bytes = fread( perf_bits, 4, PERF_SIZE, from_java_fd)) < PERF_SIZE) {
+          log_to_file(1, log_file_name, 
+            "Something went wrong getting perf_bits from Java: read %d bytes.\n", comm_bytes);
+        }
+
+        log_to_file(0, log_file_name, "Got perf bits from java.\n");
+      }
 #endif
+    }
 
     if (!run_once) {
       /* Tell AFL we got the return */
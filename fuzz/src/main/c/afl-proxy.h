@@ -23,4 +23,14 @@ typedef uint32_t u32;
 #define SHM_ENV_VAR    "__AFL_SHM_ID"
 #define FORKSRV_FD      198
 
+/* A file shared with Java: MAP_SIZE trace bits followed by PERF_SIZE perf bits */
+#define SHARED_MAP_ENV_VAR "JQF_SHARED_MAP"
+#define SHARED_MAP_SIZE    (MAP_SIZE + PERF_SIZE * sizeof(u32))
+
+/* AFL's input file, whose contents are forwarded to Java for every run */
+#define FORWARD_INPUT_ENV_VAR "JQF_FORWARD_INPUT"
+
+/* Status flag set by Java when the maps that follow are sparse */
+#define SPARSE_FEEDBACK (1u << 31)
+
 #endif // PROXY_H
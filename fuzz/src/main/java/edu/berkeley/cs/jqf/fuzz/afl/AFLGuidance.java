@@ -31,26 +31,32 @@ package edu.berkeley.cs.jqf.fuzz.afl;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Date;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
-import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
 import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeMap;
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEventVisitor;
 
 
 /**
@@ -62,6 +68,25 @@ import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
  * helps populate the shared memory coverage buffer that the JVM cannot
  * access.
  *
+ * <p>By default, the coverage map is sent to the proxy through the pipe
+ * after every run. If a shared map file is given (e.g. via the property
+ * <tt>jqf.afl.SHARED_MAP</tt>), then both the proxy and this guidance
+ * memory-map that file, coverage is written directly into the mapping,
+ * and only the 4-byte status goes through the pipe.</p>
+ *
+ * <p>Similarly, if the proxy's ready signal is <tt>HEL3</tt>, it is
+ * followed by the bytes of the test case, which are served from a
+ * reusable buffer instead of re-opening the input file for every run.
+ * The proxy does this when its <tt>JQF_FORWARD_INPUT</tt> variable
+ * names AFL's input file.</p>
+ *
+ * <p>When coverage goes through the pipe and the proxy's ready signal
+ * is <tt>HEL2</tt> or <tt>HEL3</tt>, i.e. it speaks version 2 of the feedback protocol,
+ * only the non-zero entries of the coverage and performance maps are
+ * sent, as (index, value) pairs, and {@link #SPARSE_FEEDBACK} is set in
+ * the status. Otherwise, or if that would be larger, the maps are sent
+ * in full as before.</p>
+ *
  * @author Rohan Padhye and Caroline Lemieux
  */
 public class AFLGuidance implements Guidance {
@@ -78,8 +103,40 @@ public class AFLGuidance implements Guidance {
     /** The size of the "coverage" map that will be sent to AFL. */
     protected static final int COVERAGE_MAP_SIZE = 1 << 16;
 
-    /** The "coverage" map that will be sent to AFL. */
-    protected byte[] traceBits;
+    /** The size of the "performance" map that follows the coverage map. */
+    protected static final int PERF_MAP_BYTES = 1 << 16;
+
+    /** The size of the file shared with the AFL proxy, if any. */
+    protected static final int SHARED_MAP_SIZE = COVERAGE_MAP_SIZE + PERF_MAP_BYTES;
+
+    /**
+     * The "coverage" map that will be sent to AFL.
+     *
+     * <p>Only the entries updated via {@link #incrementTraceBits(int)}
+     * are reset between runs.</p>
+     */
+    protected ByteBuffer traceBits;
+
+    /** The "performance" map that will be sent to AFL if {@link #usePerfMap} is set. */
+    protected ByteBuffer perfBits;
+
+    /** Whether the performance map should be sent after the coverage map. */
+    protected boolean usePerfMap = false;
+
+    /** The memory-mapped file shared with the AFL proxy, or <tt>null</tt> if using pipes only. */
+    protected final MappedByteBuffer sharedMap;
+
+    /** The ready signal of a proxy that accepts sparse feedback. */
+    protected static final byte[] HELLO_V2 = {'H', 'E', 'L', '2'};
+
+    /** The ready signal of a proxy that accepts sparse feedback and forwards the test case after it. */
+    protected static final byte[] HELLO_V2_INPUT = {'H', 'E', 'L', '3'};
+
+    /** A status flag telling the proxy that sparse maps follow the status. */
+    protected static final int SPARSE_FEEDBACK = 1 << 31;
+
+    /** Whether the proxy accepts sparse feedback for the current run. */
+    protected boolean sparseFeedback;
 
     /** Whether to keep executing more inputs. */
     protected boolean everything_ok = true;
@@ -87,39 +144,89 @@ public class AFLGuidance implements Guidance {
     /** The bits that will be communicated to the AFL proxy. */
     protected ByteBuffer feedback;
 
+    /** Whether the proxy sent the bytes of the current test case, instead of us reading the input file. */
+    protected boolean inputForwarded;
+
+    /** The bytes of the current test case, if forwarded by the proxy. */
+    private byte[] inputBytes = new byte[4096];
+
+    /** The length of the current test case, if forwarded by the proxy. */
+    private int inputLength;
+
+    /** A re-usable stream over {@link #inputBytes}. */
+    private final BufferStream inputBufferStream = new BufferStream();
+
     /** A temporary holding the opened input file stream during a run. */
     private InputStream inputFileStream;
 
     /** Timeout for an individual run. */
     private long singleRunTimeoutMillis;
 
-    /** Date when last run was started. */
-    private Date runStart;
+    /** The ready signal received from the proxy. */
+    private final byte[] signal = new byte[4];
 
-    /** Number of events since last run was started. */
-    private long eventCount;
+    /** Indexes of the trace bits that became non-zero in the current run. */
+    private final int[] touched = new int[COVERAGE_MAP_SIZE];
 
-    /** Timeout flag. Set when single run times out and reset on start. */
-    private boolean timeoutOccurred;
+    /** The number of entries in {@link #touched}, or -1 if the whole map must be cleared. */
+    private int numTouched = -1;
 
-    private static final int FEEDBACK_BUFFER_SIZE = 1 << 17;
-    private static final byte[] FEEDBACK_ZEROS = new byte[FEEDBACK_BUFFER_SIZE];
+    /** Copies the counts of the inline edge map into the trace bits. */
+    private final EdgeMap.CountConsumer edgeCountSink = this::putEdgeCount;
+
+    private static final int FEEDBACK_BUFFER_SIZE = 4 + COVERAGE_MAP_SIZE + PERF_MAP_BYTES;
+    private static final byte[] ZEROS = new byte[Math.max(COVERAGE_MAP_SIZE, PERF_MAP_BYTES)];
 
     /**
      * Creates an instance of an AFLGuidance given file handles for I/O.
      *
+     * <p>Coverage is sent through the pipe unless the property
+     * <tt>jqf.afl.SHARED_MAP</tt> names a file to share with the proxy.</p>
+     *
      * @param inputFile  the file that AFL will write inputs to
      * @param inPipe     a FIFO-like pipe for receiving messages from the AFL proxy
      * @param outPipe    a FIFO-like pipe for sending messages to the AFL proxy
      * @throws IOException  if any file or pipe could not be opened
      */
     public AFLGuidance(File inputFile, File inPipe, File outPipe) throws IOException {
+        this(inputFile, inPipe, outPipe, getSharedMapFile());
+    }
+
+    /**
+     * Creates an instance of an AFLGuidance given file handles for I/O.
+     *
+     * @param inputFile  the file that AFL will write inputs to
+     * @param inPipe     a FIFO-like pipe for receiving messages from the AFL proxy
+     * @param outPipe    a FIFO-like pipe for sending messages to the AFL proxy
+     * @param sharedMapFile a file that the AFL proxy also maps, or <tt>null</tt>
+     *                      to send coverage through <tt>outPipe</tt>
+     * @throws IOException  if any file or pipe could not be opened
+     */
+    public AFLGuidance(File inputFile, File inPipe, File outPipe, File sharedMapFile) throws IOException {
         this.inputFile = inputFile;
         this.proxyInput = new BufferedInputStream(new FileInputStream(inPipe));
         this.proxyOutput = new BufferedOutputStream(new FileOutputStream(outPipe));
         this.feedback = ByteBuffer.allocate(FEEDBACK_BUFFER_SIZE);
         this.feedback.order(ByteOrder.LITTLE_ENDIAN);
 
+        if (sharedMapFile != null) {
+            // The proxy creates the same file with the same size, so whoever is first wins
+            try (RandomAccessFile file = new RandomAccessFile(sharedMapFile, "rw")) {
+                file.setLength(SHARED_MAP_SIZE);
+                this.sharedMap = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SHARED_MAP_SIZE);
+            }
+            ((Buffer) sharedMap).limit(COVERAGE_MAP_SIZE);
+            this.traceBits = sharedMap.slice();
+            ((Buffer) sharedMap).limit(SHARED_MAP_SIZE).position(COVERAGE_MAP_SIZE);
+            this.perfBits = sharedMap.slice();
+            ((Buffer) sharedMap).position(0);
+        } else {
+            this.sharedMap = null;
+            this.traceBits = ByteBuffer.allocate(COVERAGE_MAP_SIZE);
+            this.perfBits = ByteBuffer.allocate(PERF_MAP_BYTES);
+        }
+        this.perfBits.order(ByteOrder.LITTLE_ENDIAN);
+
         // Try to parse the single-run timeout
         String timeout = System.getProperty("jqf.afl.TIMEOUT");
         if (timeout != null && !timeout.isEmpty()) {
@@ -144,6 +251,11 @@ public class AFLGuidance implements Guidance {
         this(new File(inputFileName), new File(inPipeName), new File(outPipeName));
     }
 
+    private static File getSharedMapFile() {
+        String sharedMap = System.getProperty("jqf.afl.SHARED_MAP");
+        return sharedMap != null && !sharedMap.isEmpty() ? new File(sharedMap) : null;
+    }
+
     /**
      * Closes the pipes used to communicate with the AFL proxy.
      */
@@ -184,10 +296,12 @@ public class AFLGuidance implements Guidance {
         }
 
         try {
-            this.inputFileStream = new BufferedInputStream(new FileInputStream(this.inputFile));
-            this.runStart = new Date();
-            this.eventCount = 0;
-            this.timeoutOccurred = false;
+            if (inputForwarded) {
+                inputBufferStream.reset(inputBytes, inputLength);
+                this.inputFileStream = inputBufferStream;
+            } else {
+                this.inputFileStream = new BufferedInputStream(new FileInputStream(this.inputFile));
+            }
             return this.inputFileStream;
         } catch (IOException e) {
             throw new GuidanceException(e);
@@ -204,15 +318,21 @@ public class AFLGuidance implements Guidance {
 
         if (everything_ok) {
             // Get a 4-byte signal from AFL
-            byte[] signal = new byte[4];
             try {
                 int received = proxyInput.read(signal, 0, 4);
                 if (received != 4) {
                     throw new IOException("Could not read `ready` from AFL");
                 }
+                inputForwarded = Arrays.equals(signal, HELLO_V2_INPUT);
+                sparseFeedback = inputForwarded || Arrays.equals(signal, HELLO_V2);
+
+                // The test case follows as a 4-byte length and the bytes themselves
+                if (inputForwarded) {
+                    readInputBytes();
+                }
 
                 // Reset trace-bits
-                traceBits = new byte[COVERAGE_MAP_SIZE];
+                clearTraceBits();
 
             } catch (IOException e) {
                 everything_ok = false;
@@ -223,6 +343,30 @@ public class AFLGuidance implements Guidance {
         return everything_ok;
     }
 
+    private void readInputBytes() throws IOException {
+        readFully(signal, 4);
+        inputLength = (signal[0] & 0xFF) | (signal[1] & 0xFF) << 8 |
+                (signal[2] & 0xFF) << 16 | (signal[3] & 0xFF) << 24;
+        if (inputLength < 0) {
+            throw new IOException("Invalid input length from AFL: " + inputLength);
+        }
+        if (inputLength > inputBytes.length) {
+            inputBytes = new byte[Math.max(inputLength, inputBytes.length * 2)];
+        }
+        readFully(inputBytes, inputLength);
+    }
+
+    private void readFully(byte[] buf, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = proxyInput.read(buf, off, len - off);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of stream from AFL");
+            }
+            off += n;
+        }
+    }
+
     /**
      * Notifies the AFL proxy that a run has completed and whether
      * it was a success. 1
@@ -241,9 +385,6 @@ public class AFLGuidance implements Guidance {
      */
     @Override
     public void handleResult(Result result, Throwable error) {
-        // Stop timeout handling
-        this.runStart = null;
-
         // Close the open input file
         try {
             if (inputFileStream != null) {
@@ -253,12 +394,16 @@ public class AFLGuidance implements Guidance {
             throw new GuidanceException(e);
         }
 
-        // Reset the feedback buffer for a new run
-        clearFeedbackBuffer();
+        // With inline edge-map instrumentation, coverage is read from the map instead of events
+        if (EdgeMap.isEnabled()) {
+            EdgeMap.drain(edgeCountSink);
+        }
 
         // Set at least one tracebit so that AFL doesn't complain about
         // no instrumentation
-        traceBits[0] = traceBits[0] == 0 ? 1 : traceBits[0];
+        if (traceBits.get(0) == 0) {
+            incrementTraceBits(0);
+        }
 
 
         // Check result and set status value
@@ -306,14 +451,23 @@ public class AFLGuidance implements Guidance {
         }
 
         // Send the status value to AFL
+        ((Buffer) feedback).rewind();
         feedback.putInt(status);
 
-        // Send trace-bits to AFL as a contiguous array
-        for (int i = 0; i < COVERAGE_MAP_SIZE; i++) {
-            feedback.put(traceBits[i]);
+        // Unless the maps are shared, send them to AFL
+        if (sharedMap == null) {
+            if (!(sparseFeedback && putSparseMaps())) {
+                // Send the maps as contiguous arrays
+                ((Buffer) feedback).position(4);
+                feedback.put(traceBits.array());
+                if (usePerfMap) {
+                    feedback.put(perfBits.array());
+                }
+            } else {
+                feedback.putInt(0, status | SPARSE_FEEDBACK);
+            }
         }
 
-
         // Send feedback to AFL
         try {
             proxyOutput.write(feedback.array(), 0, feedback.position());
@@ -324,6 +478,64 @@ public class AFLGuidance implements Guidance {
 
     }
 
+    /**
+     * Appends the non-zero entries of the coverage map (and of the perf
+     * map if used) to the feedback buffer, each map preceded by its
+     * number of entries.
+     *
+     * <p>Coverage entries are a 2-byte index followed by the 1-byte
+     * counter; perf entries are a 2-byte index followed by the 4-byte
+     * value. All values are little-endian.</p>
+     *
+     * @return <tt>true</tt> if the sparse maps are smaller than the full
+     *         ones, <tt>false</tt> if they were abandoned part-way
+     */
+    private boolean putSparseMaps() {
+        final int limit = 4 + COVERAGE_MAP_SIZE + (usePerfMap ? PERF_MAP_BYTES : 0);
+
+        // Coverage counters, skipping eight zero bytes at a time
+        int countPosition = feedback.position();
+        int count = 0;
+        feedback.putInt(0);
+        for (int i = 0; i < COVERAGE_MAP_SIZE; i += 8) {
+            if (traceBits.getLong(i) == 0) {
+                continue;
+            }
+            for (int j = i; j < i + 8; j++) {
+                byte value = traceBits.get(j);
+                if (value != 0) {
+                    if (feedback.position() + 3 > limit) {
+                        return false;
+                    }
+                    feedback.putShort((short) j);
+                    feedback.put(value);
+                    count++;
+                }
+            }
+        }
+        feedback.putInt(countPosition, count);
+
+        if (usePerfMap) {
+            countPosition = feedback.position();
+            count = 0;
+            feedback.putInt(0);
+            for (int i = 0; i < PERF_MAP_BYTES; i += 4) {
+                int value = perfBits.getInt(i);
+                if (value != 0) {
+                    if (feedback.position() + 6 > limit) {
+                        return false;
+                    }
+                    feedback.putShort((short) (i / 4));
+                    feedback.putInt(value);
+                    count++;
+                }
+            }
+            feedback.putInt(countPosition, count);
+        }
+
+        return true;
+    }
+
     /**
      * Returns a callback to handle trace events.
      *
@@ -339,45 +551,48 @@ public class AFLGuidance implements Guidance {
         return this::handleEvent;
     }
 
-    /**
-     * Records branch coverage by snooping on branch events
-     * and incrementing the branch-specific counter in
-     * the tracebits map.
-     *
-     * @param e  the trace event to handle
-     */
-    protected void handleEvent(TraceEvent e) {
-        if (e instanceof BranchEvent) {
-            BranchEvent b = (BranchEvent) e;
+    /** Records branch coverage by incrementing the branch-specific counter in the tracebits map. */
+    private final TraceEventVisitor eventVisitor = new TraceEventVisitor() {
+        @Override
+        public void visitBranchEvent(BranchEvent b) {
             // Map branch IID to [1, MAP_SIZE); the odd bound also reduces collisions
             int edgeId = 1 + Hashing.hash1(b.getIid(), b.getArm(), COVERAGE_MAP_SIZE-1);
 
             // Increment the 8-bit branch counter
             incrementTraceBits(edgeId);
-        } else if (e instanceof CallEvent) {
+        }
 
+        @Override
+        public void visitCallEvent(CallEvent e) {
             // Map IID to [1, MAP_SIZE]; the odd bound also reduces collisions
             int edgeId = 1 + Hashing.hash(e.getIid(), COVERAGE_MAP_SIZE-1);
 
             // Increment the 8-bit branch counter
             incrementTraceBits(edgeId);
         }
+    };
 
-        // Check for possible timeouts every so often
-        if (this.runStart != null && (++this.eventCount) % 10_000 == 0) {
-            Date now = new Date();
-            if (now.getTime() - runStart.getTime() > this.singleRunTimeoutMillis + 1000) {
-                this.timeoutOccurred = true;
-            }
-        }
+    /**
+     * Records branch coverage by snooping on branch events
+     * and incrementing the branch-specific counter in
+     * the tracebits map.
+     *
+     * @param e  the trace event to handle
+     */
+    protected void handleEvent(TraceEvent e) {
+        e.applyVisitor(eventVisitor);
+    }
 
-        // Throw an exception if timeout has occurred
-        // This exception is thrown here instead of above so that multi-threaded programs
-        // throw timeout exceptions from all threads, ensuring that it propagates to the
-        // fuzzing loop
-        if (this.timeoutOccurred) {
-            throw new TimeoutException(new Date().getTime(), runStart.getTime());
-        }
+    /**
+     * Returns the single-run timeout given by <tt>jqf.afl.TIMEOUT</tt>,
+     * plus a second so that afl-fuzz, which applies the same limit, sees
+     * the run time out first.
+     *
+     * @return the time limit for a single run in milliseconds
+     */
+    @Override
+    public long getSingleRunTimeoutMillis() {
+        return singleRunTimeoutMillis + 1000;
     }
 
     /**
@@ -388,19 +603,70 @@ public class AFLGuidance implements Guidance {
      * @param index the key in the trace bits map
      */
     protected void incrementTraceBits(int index) {
-        traceBits[index]++;
+        byte count = traceBits.get(index);
+        if (count == 0) {
+            markTouched(index);
+        }
+        traceBits.put(index, (byte) (count + 1));
+    }
+
+    /** Sets a trace bit to the count of an entry in the inline edge map. */
+    private void putEdgeCount(int index, int count) {
+        if (traceBits.get(index) == 0) {
+            markTouched(index);
+        }
+        traceBits.put(index, (byte) count);
+    }
+
+    /** Remembers which entries to reset, unless the whole map will be reset anyway. */
+    private void markTouched(int index) {
+        if (numTouched >= 0) {
+            if (numTouched < touched.length) {
+                touched[numTouched++] = index;
+            } else {
+                numTouched = -1;
+            }
+        }
+    }
+
+    /** Resets the trace bits touched in the last run, or all of them if unknown. */
+    private void clearTraceBits() {
+        if (numTouched < 0) {
+            clear(traceBits);
+        } else {
+            for (int i = 0; i < numTouched; i++) {
+                traceBits.put(touched[i], (byte) 0);
+            }
+        }
+        numTouched = 0;
     }
 
 
-    /** Clears the feedback buffer by resetting it to zero. */
-    protected void clearFeedbackBuffer() {
+    /**
+     * Clears a coverage or performance map by resetting it to zero.
+     *
+     * @param map the map to clear
+     */
+    protected static void clear(ByteBuffer map) {
         // These redundant casts are to prevent Java 9's covariant
         // return types to use the new methods that return ByteBuffer
         // instead, which do not exist in JDK 8 and below.
-        ((Buffer) feedback).rewind();
-        feedback.put(FEEDBACK_ZEROS);
-        ((Buffer) feedback).rewind();
+        ((Buffer) map).rewind();
+        map.put(ZEROS, 0, map.capacity());
+        ((Buffer) map).rewind();
     }
 
+    /** A byte-array stream that can be pointed at a new buffer for every run. */
+    private static class BufferStream extends ByteArrayInputStream {
+        BufferStream() {
+            super(new byte[0]);
+        }
 
+        void reset(byte[] buf, int length) {
+            this.buf = buf;
+            this.pos = 0;
+            this.count = length;
+            this.mark = 0;
+        }
+    }
 }
@@ -38,6 +38,7 @@ import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.IntConsumer;
 
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.util.Counter;
@@ -89,6 +90,9 @@ public class AFLPerformanceGuidance extends AFLGuidance {
     /** Maps acyclic execution contexts to accessed memory locations. */
     protected MapOfCounters memoryAccesses = new MapOfCounters(PERF_MAP_SIZE - 1, 6151);
 
+    /** Re-used to compute redundancy scores of memory accesses. */
+    private final AccessCountSummary accessCountSummary = new AccessCountSummary();
+
     /**
      * Maintains a dynamic calling context (i.e. call stack).
      *
@@ -112,6 +116,7 @@ public class AFLPerformanceGuidance extends AFLGuidance {
 
     public AFLPerformanceGuidance(File inputFile, File inPipe, File outPipe) throws IOException {
         super(inputFile, inPipe, outPipe);
+        this.usePerfMap = true;
         this.perfFeedbackType = PerfFeedbackType.valueOf(System.getProperty("jqf.afl.perfFeedbackType", "BRANCH_COUNTS"));
         System.out.println(this.perfFeedbackType);
     }
@@ -195,21 +200,18 @@ public class AFLPerformanceGuidance extends AFLGuidance {
 
     private void putTotalBranchCountIntoFeedback() {
         // Put the total count into the first slot of the perf map
-        feedback.putInt(0, totalBranchCount);
+        perfBits.putInt(0, totalBranchCount);
     }
 
 
     @Override
     public void handleResult(Result result, Throwable error) {
-        // First, communicate the coverage information as usual
-        super.handleResult(result, error);
-
         // Wait for calling context to be empty
         // (i.e. all AECs are processed)
         while (!callingContext.isEmpty());
 
-        // Reset the feedback buffer for the perf info
-        clearFeedbackBuffer();
+        // Reset the perf map for the perf info
+        clear(perfBits);
 
         // Now, communicate the performance perfFeedbackType
         switch (this.perfFeedbackType) {
@@ -222,14 +224,15 @@ public class AFLPerformanceGuidance extends AFLGuidance {
                 // Compute redundancy scores for all memory accesses and add
                 // 8-bit quantized values to "coverage" map
                 for (int cidx = 0; cidx < PERF_MAP_SIZE; cidx++) {
-                    double redundancyScore =
-                            computeRedundancyScore(memoryAccesses.nonZeroCountsAtIndex(cidx));
+                    accessCountSummary.reset();
+                    memoryAccesses.forEachNonZeroCountAtIndex(cidx, accessCountSummary);
+                    double redundancyScore = accessCountSummary.computeRedundancyScore();
 
                     int discreteScore = redundancyScore > 0.0 ? discretizeScore(redundancyScore) : 0;
                     assert (discreteScore >= 0 && discreteScore <= Integer.MAX_VALUE);
 
                     // Put discrete score into a slot with index `cidx`
-                    feedback.putInt(cidx * 4, discreteScore);
+                    perfBits.putInt(cidx * 4, discreteScore);
                     // scores.println(String.format("idx = %d, score = %f, value = %d (0x%08x)", cidx,
                     //    redundancyScore, discreteScore, discreteScore));
 
@@ -243,7 +246,7 @@ public class AFLPerformanceGuidance extends AFLGuidance {
                 for (int k = 0; k < branchCounts.size(); k++) {
                     // Put count at offset `k+1` integers into the bitmap
                     // since offset 0 is for the total
-                    feedback.putInt((k+1) * 4, branchCounts.getAtIndex(k));
+                    perfBits.putInt((k+1) * 4, branchCounts.getAtIndex(k));
                 }
                 // Also add the total instruction count
                 putTotalBranchCountIntoFeedback();
@@ -254,7 +257,7 @@ public class AFLPerformanceGuidance extends AFLGuidance {
                 for (int k = 0; k < allocCounts.size(); k++) {
                     // Put count at offset `k+1` integers into the bitmap
                     // since offset 0 is for the total
-                    feedback.putInt((k+1) * 4, allocCounts.getAtIndex(k));
+                    perfBits.putInt((k+1) * 4, allocCounts.getAtIndex(k));
                 }
             }
             break;
@@ -262,13 +265,8 @@ public class AFLPerformanceGuidance extends AFLGuidance {
 
         //scores.println("\n");
 
-        // Send feedback to AFL
-        try {
-            proxyOutput.write(feedback.array(), 0, PERF_MAP_SIZE * 4);
-            proxyOutput.flush();
-        } catch (IOException e) {
-            everything_ok = false;
-        }
+        // Communicate the coverage information as usual, followed by the perf map
+        super.handleResult(result, error);
     }
 
     protected int hashMemorylocation(int objectId, String field) {
@@ -300,20 +298,44 @@ public class AFLPerformanceGuidance extends AFLGuidance {
      * @return     the redundancy score
      */
     public static double computeRedundancyScore(Collection<Integer> accessCounts) {
-        double numCounts = accessCounts.size();
-        if (numCounts == 0) {
-            return 0.0;
-        }
         double sumCounts = 0.0;
         for (int count : accessCounts) {
             sumCounts += count;
         }
+        return computeRedundancyScore(accessCounts.size(), sumCounts);
+    }
+
+    private static double computeRedundancyScore(double numCounts, double sumCounts) {
+        if (numCounts == 0) {
+            return 0.0;
+        }
         double averageCounts = sumCounts / numCounts;
         double score = (averageCounts - 1)*(numCounts - 1)/sumCounts;
 
         return score;
     }
 
+    /** Accumulates access counts without boxing them into a collection. */
+    private static class AccessCountSummary implements IntConsumer {
+        private int numCounts;
+        private double sumCounts;
+
+        void reset() {
+            numCounts = 0;
+            sumCounts = 0.0;
+        }
+
+        @Override
+        public void accept(int count) {
+            numCounts++;
+            sumCounts += count;
+        }
+
+        double computeRedundancyScore() {
+            return AFLPerformanceGuidance.computeRedundancyScore(numCounts, sumCounts);
+        }
+    }
+
     /**
      * Discretizes a redundancy score to a 32-bit value.
      *
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.Input;
+
+import static edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.NUM_CHILDREN_BASELINE;
+import static edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.NUM_CHILDREN_MULTIPLIER_FAVORED;
+
+/**
+ * A scheduler that selects parents at random, weighted by an energy
+ * that estimates how much new coverage fuzzing each parent yields per
+ * unit of time, in the spirit of AFLFast and Entropic.
+ *
+ * <p>Every selected parent produces the same number of children, so the
+ * energy of an input determines how often it is selected. The energy is
+ * the product of the following factors, each relative to the average
+ * over the queue and bounded to the range
+ * [{@link #MIN_FACTOR}, {@link #MAX_FACTOR}]:</p>
+ * <ul>
+ *     <li>the inverse of the input's execution time, since faster inputs
+ *     produce more children per second;</li>
+ *     <li>the inverse of the input's size, since smaller inputs are
+ *     more likely to be affected by a mutation;</li>
+ *     <li>the input's recent yield, i.e. the fraction of its recent
+ *     children that were saved. Inputs that have never been selected
+ *     get the maximum factor, so that new inputs are explored early.</li>
+ * </ul>
+ * <p>Favored inputs additionally get {@link ExecutionIndexingGuidance#NUM_CHILDREN_MULTIPLIER_FAVORED}
+ * times more energy, as with the {@link RoundRobinScheduler}.</p>
+ */
+public class EnergyScheduler implements Scheduler {
+
+    /** The lower bound of each factor of the energy. */
+    static final double MIN_FACTOR = 0.25;
+
+    /** The upper bound of each factor of the energy. */
+    static final double MAX_FACTOR = 4.0;
+
+    private final int childrenPerSelection;
+
+    /** The cumulative energies of the saved inputs (reused across selections). */
+    private double[] cumulativeEnergy = new double[16];
+
+    /**
+     * Creates a scheduler that produces {@link ExecutionIndexingGuidance#NUM_CHILDREN_BASELINE}
+     * children per selected parent.
+     */
+    public EnergyScheduler() {
+        this(NUM_CHILDREN_BASELINE);
+    }
+
+    /**
+     * @param childrenPerSelection the number of children to produce from
+     *                             each selected parent
+     */
+    public EnergyScheduler(int childrenPerSelection) {
+        this.childrenPerSelection = childrenPerSelection;
+    }
+
+    @Override
+    public int selectParent(List<Input> savedInputs, int current, Random random) {
+        int n = savedInputs.size();
+
+        // Compute queue averages
+        double sumTime = 0, sumSize = 0, sumYield = 0;
+        int numSelected = 0;
+        for (int i = 0; i < n; i++) {
+            Input input = savedInputs.get(i);
+            sumTime += input.getExecTimeNanos();
+            sumSize += input.size();
+            if (input.getNumSelected() > 0) {
+                sumYield += input.getRecentYield();
+                numSelected++;
+            }
+        }
+        double meanTime = sumTime / n;
+        double meanSize = sumSize / n;
+        double meanYield = numSelected > 0 ? sumYield / numSelected : 0;
+
+        // Select an input with probability proportional to its energy
+        if (cumulativeEnergy.length < n) {
+            cumulativeEnergy = Arrays.copyOf(cumulativeEnergy, Math.max(n, cumulativeEnergy.length * 2));
+        }
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += energy(savedInputs.get(i), meanTime, meanSize, meanYield);
+            cumulativeEnergy[i] = total;
+        }
+        double target = random.nextDouble() * total;
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulativeEnergy[mid] > target) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public int getTargetChildren(Input parent, int maxCoverage) {
+        return childrenPerSelection;
+    }
+
+    /**
+     * Computes the energy of a saved input.
+     *
+     * @param input     the input
+     * @param meanTime  the average execution time of the queue
+     * @param meanSize  the average size of the queue
+     * @param meanYield the average recent yield of inputs that were selected
+     * @return the energy of <tt>input</tt>, which is positive
+     */
+    double energy(Input input, double meanTime, double meanSize, double meanYield) {
+        double energy = bound(meanTime / Math.max(1, input.getExecTimeNanos()));
+        energy *= bound(meanSize / Math.max(1, input.size()));
+        if (input.getNumSelected() == 0) {
+            energy *= MAX_FACTOR;
+        } else {
+            // Smooth by one saved child, so that unproductive inputs are not starved
+            double smoothing = 1.0 / childrenPerSelection;
+            energy *= bound((input.getRecentYield() + smoothing) / (meanYield + smoothing));
+        }
+        if (input.isFavored()) {
+            energy *= NUM_CHILDREN_MULTIPLIER_FAVORED;
+        }
+        return energy;
+    }
+
+    private static double bound(double factor) {
+        return Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor));
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+
+/**
+ * A trie of execution indexes and execution contexts, in which each
+ * execution index or context is identified by an <tt>int</tt> node.
+ *
+ * <p>An execution index is a path from the root of the trie, where
+ * each edge is labelled with a call-site IID and its count. The node
+ * for an execution index is derived from the node of its longest proper
+ * prefix in constant time (see {@link #child(int, int, int)}), so
+ * {@link ExecutionIndexingState} never needs to copy its call stack,
+ * and inputs and maps can use the node as a key instead of an array.
+ * Each node also knows the node of its execution context (i.e., the path
+ * with the counts dropped) in a second trie.</p>
+ *
+ * <p>Nodes are only removed by {@link #compact(BitSet)}. Full
+ * {@link ExecutionIndex} objects are created on demand with
+ * {@link #getExecutionIndex(int)}.</p>
+ *
+ * <p>This class is thread-safe, so that a trie can be shared by
+ * several fuzzing threads.</p>
+ *
+ * @see ExecutionIndex
+ * @see ExecutionContext
+ */
+public class ExecutionIndexTrie {
+
+    /** The node of the empty execution index or context. */
+    public static final int ROOT = 0;
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    /** The execution index nodes. */
+    private Nodes indexes = new Nodes(INITIAL_CAPACITY);
+
+    /** The execution context node of each execution index node. */
+    private int[] contexts = new int[INITIAL_CAPACITY];
+
+    /** The number of call sites in each execution index node. */
+    private int[] depths = new int[INITIAL_CAPACITY];
+
+    /** The execution context nodes. */
+    private final Nodes contextNodes = new Nodes(INITIAL_CAPACITY);
+
+    /**
+     * Returns the node for an execution index that extends another
+     * by one call site.
+     *
+     * @param parent the node of the execution index to extend
+     * @param iid    the IID of the call site
+     * @param count  the number of times the call site has been
+     *               reached in the context of <tt>parent</tt>
+     * @return the node of the extended execution index
+     */
+    public synchronized int child(int parent, int iid, int count) {
+        int oldSize = indexes.size;
+        int node = indexes.getOrAdd(parent, label(iid, count));
+        if (node == oldSize) {
+            // A new node has been added
+            if (node == contexts.length) {
+                contexts = Arrays.copyOf(contexts, node * 2);
+                depths = Arrays.copyOf(depths, node * 2);
+            }
+            contexts[node] = contextNodes.getOrAdd(contexts[parent], iid);
+            depths[node] = depths[parent] + 1;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the node for an execution index, adding it if necessary.
+     *
+     * @param ei the execution index
+     * @return its node in this trie
+     */
+    public synchronized int intern(ExecutionIndex ei) {
+        int node = ROOT;
+        for (int i = 0; i < ei.ei.length; i += 2) {
+            node = child(node, ei.ei[i], ei.ei[i+1]);
+        }
+        return node;
+    }
+
+    /**
+     * Reconstructs the execution index of a node.
+     *
+     * @param node a node other than {@link #ROOT}
+     * @return the execution index represented by <tt>node</tt>
+     */
+    public synchronized ExecutionIndex getExecutionIndex(int node) {
+        int[] ei = new int[2 * depths[node]];
+        for (int i = ei.length - 2; i >= 0; i -= 2) {
+            long label = indexes.labels[node];
+            ei[i] = (int) (label >>> 32);
+            ei[i+1] = (int) label;
+            node = indexes.parents[node];
+        }
+        return new ExecutionIndex(ei);
+    }
+
+    /**
+     * Returns the execution context of an execution index.
+     *
+     * <p>Two execution indexes have the same context node if and only if
+     * they have equal {@link ExecutionContext}s.</p>
+     *
+     * @param node an execution index node
+     * @return the node of its execution context
+     */
+    public synchronized int getContext(int node) {
+        return contexts[node];
+    }
+
+    /**
+     * Returns the number of execution index nodes, including the root.
+     *
+     * @return the number of execution index nodes
+     */
+    public synchronized int size() {
+        return indexes.size;
+    }
+
+    /**
+     * Returns the number of execution context nodes, including the root.
+     *
+     * @return the number of execution context nodes
+     */
+    public synchronized int getContextCount() {
+        return contextNodes.size;
+    }
+
+    /**
+     * Removes all execution index nodes that are not live.
+     *
+     * <p>A node is live if it is set in <tt>live</tt> or if it is a prefix
+     * of a live node. Surviving nodes are renumbered (preserving their
+     * relative order) and context nodes are unchanged.</p>
+     *
+     * @param live the nodes to keep; ancestors are added to this set
+     * @return a map from old nodes to new nodes, which is -1 for
+     *         removed nodes
+     */
+    public synchronized int[] compact(BitSet live) {
+        int oldSize = indexes.size;
+
+        // Parents always have smaller nodes than their children
+        for (int node = live.previousSetBit(oldSize - 1); node > ROOT;
+             node = live.previousSetBit(node - 1)) {
+            live.set(indexes.parents[node]);
+        }
+
+        int newCapacity = Math.max(live.cardinality() + 1, INITIAL_CAPACITY);
+        Nodes newIndexes = new Nodes(newCapacity);
+        int[] newContexts = new int[newCapacity];
+        int[] newDepths = new int[newCapacity];
+        int[] remap = new int[oldSize];
+        Arrays.fill(remap, -1);
+        remap[ROOT] = ROOT;
+        for (int node = live.nextSetBit(1); node >= 0 && node < oldSize;
+             node = live.nextSetBit(node + 1)) {
+            int newNode = newIndexes.getOrAdd(remap[indexes.parents[node]], indexes.labels[node]);
+            newContexts[newNode] = contexts[node];
+            newDepths[newNode] = depths[node];
+            remap[node] = newNode;
+        }
+
+        indexes = newIndexes;
+        contexts = newContexts;
+        depths = newDepths;
+        return remap;
+    }
+
+    private static long label(int iid, int count) {
+        return ((long) iid << 32) | (count & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The nodes of a trie, stored as parallel arrays of parents and edge
+     * labels, with an open-addressing hash table from (parent, label)
+     * to node.
+     */
+    private static final class Nodes {
+        int[] parents;
+        long[] labels;
+        int size = 1; // The root
+        int[] table; // Nodes by hash of (parent, label); zero marks an empty slot
+
+        Nodes(int capacity) {
+            parents = new int[capacity];
+            labels = new long[capacity];
+            table = new int[Integer.highestOneBit(capacity - 1) * 4];
+        }
+
+        int getOrAdd(int parent, long label) {
+            int mask = table.length - 1;
+            int slot = home(parent, label);
+            for (int node = table[slot]; node != 0; node = table[slot]) {
+                if (parents[node] == parent && labels[node] == label) {
+                    return node;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            // Not found; add a new node
+            int node = size++;
+            if (node == parents.length) {
+                parents = Arrays.copyOf(parents, node * 2);
+                labels = Arrays.copyOf(labels, node * 2);
+            }
+            parents[node] = parent;
+            labels[node] = label;
+            table[slot] = node;
+
+            // Keep the table at most half full
+            if (size * 2 > table.length) {
+                rehash(table.length * 2);
+            }
+            return node;
+        }
+
+        private void rehash(int tableSize) {
+            table = new int[tableSize];
+            int mask = tableSize - 1;
+            for (int node = 1; node < size; node++) {
+                int slot = home(parents[node], labels[node]);
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = node;
+            }
+        }
+
+        private int home(int parent, long label) {
+            return Hashing.fibonacci(label * 31 + parent, Integer.numberOfTrailingZeros(table.length));
+        }
+    }
+}
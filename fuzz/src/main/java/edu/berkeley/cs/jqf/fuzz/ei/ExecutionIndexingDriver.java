@@ -68,8 +68,10 @@ public class ExecutionIndexingDriver {
                 System.setProperty("jqf.traceGenerators", "true");
             }
 
-            // Run the Junit test
-            GuidedFuzzing.run(testClassName, testMethodName, guidance, System.out);
+            // Run the Junit test, possibly with several fuzzing threads
+            int numThreads = Integer.getInteger("jqf.ei.THREADS", 1);
+            GuidedFuzzing.run(testClassName, testMethodName, ClassLoader.getSystemClassLoader(),
+                    guidance, System.out, numThreads);
             if (Boolean.getBoolean("jqf.logCoverage")) {
                 System.out.println(String.format("Covered %d edges.",
                         guidance.getTotalCoverage().getNonZeroCount()));
@@ -29,40 +29,42 @@
 package edu.berkeley.cs.jqf.fuzz.ei;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.Console;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
 import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.Deque;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndex.Prefix;
 import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndex.Suffix;
 import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
+import edu.berkeley.cs.jqf.fuzz.util.AsyncFileWriter;
 import edu.berkeley.cs.jqf.fuzz.util.Coverage;
-import edu.berkeley.cs.jqf.fuzz.util.ProducerHashMap;
+import edu.berkeley.cs.jqf.fuzz.util.GrowableCounter;
+import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+import edu.berkeley.cs.jqf.fuzz.util.IntList;
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeMap;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
@@ -85,18 +87,29 @@ import static java.lang.Math.log;
  */
 public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
 
-    // Currently, we only support single-threaded applications
-    // This field is used to ensure that
-    private Thread appThread;
+    /**
+     * The state of the current run of each fuzzing thread.
+     *
+     * <p>All other state of this guidance is shared by the fuzzing threads, and is
+     * only accessed while holding the lock on this guidance. Only one thread
+     * fuzzes unless {@link GuidedFuzzing#getNumThreads()} is greater than one.</p>
+     */
+    private final Map<Thread, RunState> runStates = new ConcurrentHashMap<>();
 
-    /** The last event handled by this guidance */
-    private TraceEvent lastEvent;
+    /** The number of threads for which trace-event callbacks have been generated. */
+    private final AtomicInteger numTracedThreads = new AtomicInteger();
 
-    /** The execution indexing logic. */
-    private ExecutionIndexingState eiState;
+    /** The number of runs between {@link #getInput()} and {@link #handleResult(Result, Throwable)}. */
+    private int numRunsInFlight = 0;
+
+    /**
+     * The number of runs between a call to {@link #hasInput()} that returned
+     * <tt>true</tt> and {@link #handleResult(Result, Throwable)}.
+     */
+    private int numRunsPending = 0;
 
-    /** A pseudo-random number generator for generating fresh values. */
-    private Random random = new Random();
+    /** Whether {@link #hasInput()} has returned <tt>false</tt>, after which no new runs start. */
+    private boolean finished = false;
 
     /** The name of the test for display purposes. */
     private final String testName;
@@ -127,16 +140,19 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
     /** Queue of seeds to fuzz. */
     private Deque<SeedInput> seedInputs = new ArrayDeque<>();
 
-    /** Current input that's running -- valid after getInput() and before handleResult(). */
-    private Input currentInput;
-
     /** Index of currentInput in the savedInputs -- valid after seeds are processed (OK if this is inaccurate). */
     private int currentParentInputIdx = 0;
 
     /** Number of mutated inputs generated from currentInput. */
     private int numChildrenGeneratedForCurrentParentInput = 0;
 
-    /** Number of cycles completed (i.e. how many times we've reset currentParentInputIdx to 0. */
+    /** The value of the current parent input's offspring count when it was selected. */
+    private int offspringAtSelection = 0;
+
+    /** Number of parent inputs selected since the last cycle was completed. */
+    private int numParentsSelectedThisCycle = 0;
+
+    /** Number of cycles completed (i.e. how many times as many parents as the queue size were selected). */
     private int cyclesCompleted = 0;
 
     /** Number of favored inputs in the last cycle. */
@@ -149,31 +165,73 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
      */
     private int numSavedInputs = 0;
 
-    /** Coverage statistics for a single run. */
-    private Coverage runCoverage = new Coverage();
-
     /** Cumulative coverage statistics. */
-    private Coverage totalCoverage = new Coverage();
+    private Coverage totalCoverage = Coverage.exact();
 
     /** Cumulative coverage for valid inputs. */
-    private Coverage validCoverage = new Coverage();
+    private Coverage validCoverage = Coverage.exact();
 
     /** The maximum number of keys covered by any single input found so far. */
     private int maxCoverage = 0;
 
-    /** A mapping of coverage keys to inputs that are responsible for them. */
-    private Map<Object, Input> responsibleInputs = new HashMap<>(totalCoverage.size());
+    /**
+     * A dense numbering of the coverage keys seen so far.
+     *
+     * <p>Coverage keys are arbitrary hashed integers, so responsibilities
+     * are tracked as bitsets over these dense branch IDs instead. The map
+     * stores each key's ID plus one, so that zero means "not numbered".</p>
+     */
+    private GrowableCounter branchIds = new GrowableCounter(1 << 10, 50);
+
+    /** The coverage key for each dense branch ID (the inverse of {@link #branchIds}). */
+    private IntList branchKeys = new IntList();
+
+    /**
+     * The ID of the input responsible for each dense branch ID,
+     * or <tt>-1</tt> if no input is responsible for it yet.
+     */
+    private int[] responsibleInputs = new int[0];
+
+    /** The dense branch IDs covered by the current run (reused across runs). */
+    private final BitSet runBranches = new BitSet();
+
+    /** Scratch space for the coverage keys newly covered by the current run. */
+    private final IntList newBranchKeys = new IntList();
+
+    /** Scratch space for checking whether responsibilities can be stolen. */
+    private final BitSet stealScratch = new BitSet();
+
+    /** Marks a coverage key of the current run in {@link #runBranches}. */
+    private final IntConsumer markRunBranch = (key) -> runBranches.set(branchId(key));
 
     /** The set of unique failures found so far. */
     Set<List<StackTraceElement>> uniqueFailures = new HashSet<>();
 
+    /**
+     * The execution indexes and contexts of all inputs, as a trie.
+     *
+     * Inputs and {@link #spliceIndex} refer to execution indexes and contexts
+     * by their nodes in this trie.
+     */
+    private final ExecutionIndexTrie eiTrie = new ExecutionIndexTrie();
+
     /**
      * A map of execution contexts (call stacks) to locations in saved inputs with those contexts.
      *
      * This is a nifty data structure for quickly finding candidates for input splicing.
+     * It contains all inputs saved in the current cycle and all inputs that were
+     * favored at the end of the last cycle.
+     */
+    private final SpliceIndex spliceIndex = new SpliceIndex(eiTrie, savedInputs);
+
+    /** The trie size at which unused execution indexes are next removed. */
+    private int nextTrieCompaction = MIN_TRIE_COMPACTION_SIZE;
+
+    /**
+     * The number of times that {@link #eiTrie} has been compacted, so that
+     * fuzzing threads can tell when their cached nodes are stale.
      */
-    private Map<ExecutionContext, ArrayList<InputLocation>> ecToInputLoc
-            = new ProducerHashMap<>(() -> new ArrayList<>());
+    private int trieEpoch = 0;
 
     // ---------- LOGGING / STATS OUTPUT ------------
 
@@ -201,6 +259,24 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
     /** The file where saved plot data is written. */
     private File statsFile;
 
+    /** Writes logs, plot data, and saved inputs off the fuzzing thread. */
+    private final AsyncFileWriter fileWriter = new AsyncFileWriter(IO_FLUSH_INTERVAL);
+
+    /** The output directories of peer fuzzers whose saved inputs are imported. */
+    private final List<File> peerDirectories = new ArrayList<>();
+
+    /** The largest ID of a saved input imported from each peer so far. */
+    private final List<Integer> lastImportedIds = new ArrayList<>();
+
+    /** Saved inputs of peers that have yet to be run. */
+    private final Deque<File> pendingImports = new ArrayDeque<>();
+
+    /** The time at which peers' saved inputs were last imported. */
+    private long lastSyncTime = 0;
+
+    /** The policy that selects parent inputs from the queue. */
+    private Scheduler scheduler = ENERGY_SCHEDULE ? new EnergyScheduler() : new RoundRobinScheduler();
+
     /** Whether to print the fuzz config to the stats screen. */
     private static boolean SHOW_CONFIG = false;
 
@@ -221,6 +297,12 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
     /** Multiplication factor for number of children to produce for favored inputs. */
     static final int NUM_CHILDREN_MULTIPLIER_FAVORED = 20;
 
+    /** Whether to select parents using an {@link EnergyScheduler} instead of round-robin. */
+    static final boolean ENERGY_SCHEDULE = Boolean.getBoolean("jqf.ei.ENERGY_SCHEDULE");
+
+    /** Weight of the most recent selection of a parent in its moving average yield. */
+    static final double RECENT_YIELD_WEIGHT = 0.5;
+
     /** Mean number of mutations to perform in each round. */
     static final double MEAN_MUTATION_COUNT = 8.0;
 
@@ -242,6 +324,27 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
     /** Probability of splicing in getOrGenerateFresh() */
     static final double DEMAND_DRIVEN_SPLICING_PROBABILITY = 0;
 
+    /** Whether havoc should use AFL's byte-level mutators instead of only random bytes. */
+    static final boolean AFL_MUTATIONS = Boolean.getBoolean("jqf.ei.AFL_MUTATIONS");
+
+    /** Max value added to or subtracted from a byte by an arithmetic mutation (as in AFL). */
+    static final int ARITH_MAX = 35;
+
+    /** Byte values that often trigger edge cases (as in AFL). */
+    static final byte[] INTERESTING_8 = {-128, -1, 0, 1, 16, 32, 64, 100, 127};
+
+    /** Max time (in ms) for which log lines and plot data are buffered before being written. */
+    static final long IO_FLUSH_INTERVAL = Long.getLong("jqf.ei.IO_FLUSH_INTERVAL", 1000);
+
+    /** Output directories of peer fuzzers to import inputs from, separated by the path separator. */
+    static final String SYNC_DIRS = System.getProperty("jqf.ei.SYNC_DIRS");
+
+    /** Min time (in ms) between imports of new inputs from peers. */
+    static final long SYNC_INTERVAL = Long.getLong("jqf.ei.SYNC_INTERVAL", 30_000);
+
+    /** Number of execution indexes below which the trie is never compacted. */
+    static final int MIN_TRIE_COMPACTION_SIZE = Integer.getInteger("jqf.ei.MIN_TRIE_COMPACTION_SIZE", 1 << 20);
+
 
     /**
      * @param testName the name of test to display on the status screen
@@ -257,6 +360,13 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
         this.maxDurationMillis = duration != null ? duration.toMillis() : Long.MAX_VALUE;
         this.outputDirectory = outputDirectory;
         prepareOutputDirectory();
+        if (SYNC_DIRS != null) {
+            for (String dir : SYNC_DIRS.split(File.pathSeparator)) {
+                if (!dir.isEmpty()) {
+                    addPeer(new File(dir));
+                }
+            }
+        }
     }
 
     /**
@@ -270,7 +380,40 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
     public ExecutionIndexingGuidance(String testName, Duration duration, File outputDirectory, File... seedInputFiles) throws IOException {
         this(testName, duration, outputDirectory);
         for (File seedInputFile : seedInputFiles) {
-            seedInputs.add(new SeedInput(seedInputFile));
+            seedInputs.add(new SeedInput(seedInputFile, eiTrie));
+        }
+    }
+
+    /**
+     * Sets the policy that selects parent inputs to fuzz.
+     *
+     * <p>By default, this is an {@link EnergyScheduler} if the property
+     * <tt>jqf.ei.ENERGY_SCHEDULE</tt> is set, or a {@link RoundRobinScheduler}
+     * otherwise.</p>
+     *
+     * @param scheduler the scheduler to use for subsequent parent selections
+     */
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Registers a peer fuzzer whose saved inputs should be imported.
+     *
+     * <p>Every {@link #SYNC_INTERVAL} ms, inputs that the peer has newly saved
+     * in its <tt>corpus</tt> directory are run just like seed inputs, and are
+     * only saved if they produce new coverage for this fuzzer. This works
+     * like the sync between AFL's <tt>-M</tt>/<tt>-S</tt> instances.</p>
+     *
+     * <p>Peers are also registered for each entry of the property
+     * <tt>jqf.ei.SYNC_DIRS</tt>.</p>
+     *
+     * @param peerOutputDirectory the output directory of the peer fuzzer
+     */
+    public synchronized void addPeer(File peerOutputDirectory) {
+        if (!peerOutputDirectory.getAbsoluteFile().equals(outputDirectory.getAbsoluteFile())) {
+            peerDirectories.add(peerOutputDirectory);
+            lastImportedIds.add(-1);
         }
     }
 
@@ -319,8 +462,8 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
     }
 
     private void appendLineToFile(File file, String line) throws GuidanceException {
-        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
-            out.println(line);
+        try {
+            fileWriter.appendLine(file, line);
         } catch (IOException e) {
             throw new GuidanceException(e);
         }
@@ -379,7 +522,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             currentParentInputDesc = currentParentInputIdx + " ";
             currentParentInputDesc += currentParentInput.isFavored() ? "(favored)" : "(not favored)";
             currentParentInputDesc += " {" + numChildrenGeneratedForCurrentParentInput +
-                    "/" + getTargetChildrenForParent(currentParentInput) + " mutations}";
+                    "/" + scheduler.getTargetChildren(currentParentInput, maxCoverage) + " mutations}";
         }
 
         int nonZeroCount = totalCoverage.getNonZeroCount();
@@ -401,8 +544,10 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             } else {
                 console.printf("Config:               DISABLE_EXECUTION_INDEXING = %s,\n" +
                                 "                      STEAL_RESPONSIBILITY       = %s,\n" +
-                                "                      SPLICE_SUBTREE             = %s\n\n",
-                        DISABLE_EXECUTION_INDEXING, STEAL_RESPONSIBILITY, SPLICE_SUBTREE);
+                                "                      SPLICE_SUBTREE             = %s,\n" +
+                                "                      SCHEDULER                  = %s\n\n",
+                        DISABLE_EXECUTION_INDEXING, STEAL_RESPONSIBILITY, SPLICE_SUBTREE,
+                        scheduler.getClass().getSimpleName());
             }
         }
         console.printf("Elapsed time:         %s (%s)\n", millisToDuration(elapsedMilliseconds),
@@ -416,6 +561,8 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
         console.printf("Execution speed:      %,d/sec now | %,d/sec overall\n", intervalExecsPerSec, execsPerSec);
         console.printf("Total coverage:       %,d (%.2f%% of map)\n", nonZeroCount, nonZeroFraction);
         console.printf("Valid coverage:       %,d (%.2f%% of map)\n", nonZeroValidCount, nonZeroValidFraction);
+        console.printf("Coverage map:         %,d slots (%,d collisions)\n",
+                totalCoverage.size(), totalCoverage.getCollisionCount());
 
         String plotData = String.format("%d, %d, %d, %d, %d, %d, %.2f%%, %d, %d, %d, %.2f, %d, %d, %.2f%%",
                 TimeUnit.MILLISECONDS.toSeconds(now.getTime()), cyclesCompleted, currentParentInputIdx,
@@ -425,23 +572,6 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
 
     }
 
-    private int getTargetChildrenForParent(Input parentInput) {
-        // Baseline is a constant
-        int target = NUM_CHILDREN_BASELINE;
-
-        // We like inputs that cover many things, so scale with fraction of max
-        if (maxCoverage > 0) {
-            target = (NUM_CHILDREN_BASELINE * parentInput.nonZeroCoverage) / maxCoverage;
-        }
-
-        // We absolutey love favored inputs, so fuzz them more
-        if (parentInput.isFavored()) {
-            target = target * NUM_CHILDREN_MULTIPLIER_FAVORED;
-        }
-
-        return target;
-    }
-
     private void completeCycle() {
         // Increment cycle count
         cyclesCompleted++;
@@ -453,7 +583,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
         numFavoredLastCycle = 0;
         for (Input input : savedInputs) {
             if (input.isFavored()) {
-                int responsibleFor = input.responsibilities.size();
+                int responsibleFor = input.responsibilities.cardinality();
                 infoLog("Input %d is responsible for %d branches", input.id, responsibleFor);
                 sumResponsibilities += responsibleFor;
                 numFavoredLastCycle++;
@@ -465,13 +595,16 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             throw new AssertionError("Responsibilty mistmatch");
         }
 
-        // Refresh ecToInputLoc so that subsequent splices are only from favored inputs
-        ecToInputLoc.clear();
+        // Update the splice index so that subsequent splices are only from favored inputs
+        BitSet unfavored = new BitSet(savedInputs.size());
         for (Input input : savedInputs) {
             if (input.isFavored()) {
-                mapEcToInputLoc(input);
+                spliceIndex.add(input);
+            } else if (spliceIndex.contains(input)) {
+                unfavored.set(input.id);
             }
         }
+        spliceIndex.removeAll(unfavored);
 
         // Break log after cycle
         infoLog("\n\n\n");
@@ -479,16 +612,91 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
 
     @Override
     public InputStream getInput() throws GuidanceException {
+        RunState run = getRunState();
+
+        // Time the whole run, including input generation
+        run.startTime = System.nanoTime();
+
         // Clear coverage stats for this run
-        runCoverage.clear();
+        run.coverage.clear();
+
+        // Choose an input to execute
+        run.input = selectInput(run);
 
         // Reset execution index state
-        eiState = new ExecutionIndexingState();
+        run.eiState = new ExecutionIndexingState(eiTrie);
+
+        // Return an input stream that uses the EI map
+        return new InputStream() {
+            int bytesRead = 0;
+
+            @Override
+            public int read() throws IOException {
+
+                // lastEvent must not be null
+                if (DISABLE_EXECUTION_INDEXING == false && run.lastEvent == null) {
+                    throw new IOException("Could not compute execution index; no instrumentation?");
+                }
+
+                // Get the execution index of the last event
+                int executionIndex = DISABLE_EXECUTION_INDEXING ?
+                        getFlatIndexNode(run, bytesRead) :
+                        run.eiState.getExecutionIndexNode(run.lastEvent);
+
+                // Attempt to get a value from the map, or else generate a random value
+                int value = run.input.getOrGenerateFresh(executionIndex, run.random);
+
+                // Keep track of how many bytes were read in this input
+                bytesRead++;
+
+                return value;
+            }
+        };
+    }
+
+    private RunState getRunState() {
+        return runStates.computeIfAbsent(Thread.currentThread(), (t) -> new RunState());
+    }
+
+    // Chooses the input for a new run, based on the state of the queues
+    private synchronized Input selectInput(RunState run) throws GuidanceException {
+        // Drop execution indexes that are no longer used by any saved input,
+        // which requires that no other thread is running an input
+        if (eiTrie.size() >= nextTrieCompaction) {
+            while (numRunsInFlight > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new GuidanceException(e);
+                }
+            }
+            // Another thread may have compacted the trie in the meantime
+            if (eiTrie.size() >= nextTrieCompaction) {
+                compactTrie();
+            }
+        }
+        numRunsInFlight++;
+        run.inFlight = true;
+
+        // Inputs imported from peers are run as seeds
+        syncWithPeers();
+        while (seedInputs.isEmpty() && !pendingImports.isEmpty()) {
+            File file = pendingImports.removeFirst();
+            try {
+                SeedInput imported = new SeedInput(file, eiTrie);
+                imported.desc = "sync:" + file.getParentFile().getParentFile().getName();
+                seedInputs.add(imported);
+            } catch (IOException e) {
+                infoLog("Could not import %s: %s", file, e.getMessage());
+            }
+        }
 
         // Choose an input to execute based on state of queues
+        Input input;
         if (!seedInputs.isEmpty()) {
             // First, if we have some specific seeds, use those
-            currentInput = seedInputs.removeFirst();
+            input = seedInputs.removeFirst();
+            run.parentIdx = -1;
 
             // Hopefully, the seeds will lead to new coverage and be added to saved inputs
 
@@ -498,76 +706,164 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                 throw new GuidanceException("Too many trials without coverage; " +
                         "likely all assumption violations");
             }
-            currentInput = new Input();
+            input = new Input(eiTrie);
+            run.parentIdx = -1;
         } else {
             // The number of children to produce is determined by how much of the coverage
             // pool this parent input hits
             Input currentParentInput = savedInputs.get(currentParentInputIdx);
-            int targetNumChildren = getTargetChildrenForParent(currentParentInput);
+            int targetNumChildren = scheduler.getTargetChildren(currentParentInput, maxCoverage);
             if (numChildrenGeneratedForCurrentParentInput >= targetNumChildren) {
+                // Record how productive the current parent was
+                currentParentInput.recordSelection(numChildrenGeneratedForCurrentParentInput,
+                        currentParentInput.offspring - offspringAtSelection);
+
                 // Select the next saved input to fuzz
-                currentParentInputIdx = (currentParentInputIdx + 1) % savedInputs.size();
+                currentParentInputIdx = scheduler.selectParent(savedInputs, currentParentInputIdx, run.random);
 
                 // Count cycles
-                if (currentParentInputIdx == 0) {
+                if (++numParentsSelectedThisCycle >= savedInputs.size()) {
                     completeCycle();
+                    numParentsSelectedThisCycle = 0;
                 }
 
                 numChildrenGeneratedForCurrentParentInput = 0;
+                offspringAtSelection = savedInputs.get(currentParentInputIdx).offspring;
             }
             Input parent = savedInputs.get(currentParentInputIdx);
 
             // Fuzz it to get a new input
-            currentInput = parent.fuzz(random, ecToInputLoc);
+            input = parent.fuzz(run.random, spliceIndex);
             numChildrenGeneratedForCurrentParentInput++;
+            run.parentIdx = currentParentInputIdx;
         }
+        return input;
+    }
 
+    // Queues the inputs that peers have saved since the last sync
+    private void syncWithPeers() {
+        long now = System.currentTimeMillis();
+        if (peerDirectories.isEmpty() || now - lastSyncTime < SYNC_INTERVAL) {
+            return;
+        }
+        lastSyncTime = now;
 
-        // Return an input stream that uses the EI map
-        return new InputStream() {
-            int bytesRead = 0;
-
-            @Override
-            public int read() throws IOException {
-
-                // lastEvent must not be null
-                if (DISABLE_EXECUTION_INDEXING == false && lastEvent == null) {
-                    throw new IOException("Could not compute execution index; no instrumentation?");
+        int numImported = 0;
+        for (int i = 0; i < peerDirectories.size(); i++) {
+            File[] files = new File(peerDirectories.get(i), "corpus").listFiles();
+            if (files == null) {
+                continue;
+            }
+            int lastImportedId = lastImportedIds.get(i);
+            TreeMap<Integer, File> newFiles = new TreeMap<>();
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith("id_")) {
+                    try {
+                        int id = Integer.parseInt(name.substring(3));
+                        if (id > lastImportedId) {
+                            newFiles.put(id, file);
+                        }
+                    } catch (NumberFormatException e) {
+                        // Not a saved input
+                    }
                 }
-
-                // Get the execution index of the last event
-                ExecutionIndex executionIndex = DISABLE_EXECUTION_INDEXING ?
-                        new ExecutionIndex(new int[]{0, bytesRead}) :
-                        eiState.getExecutionIndex(lastEvent);
-
-                // Attempt to get a value from the map, or else generate a random value
-                int value = currentInput.getOrGenerateFresh(executionIndex, random);
-
-                // Keep track of how many bytes were read in this input
-                bytesRead++;
-
-                return value;
             }
-        };
+            if (!newFiles.isEmpty()) {
+                pendingImports.addAll(newFiles.values());
+                lastImportedIds.set(i, newFiles.lastKey());
+                numImported += newFiles.size();
+            }
+        }
+        if (numImported > 0) {
+            infoLog("Importing %d new inputs from peers", numImported);
+        }
+    }
+
+    // Returns the node of the flat execution index for an offset, without locking the trie if possible
+    private int getFlatIndexNode(RunState run, int offset) {
+        // The trie is only compacted while no run is in flight, so the epoch cannot change here
+        if (run.flatNodesEpoch != trieEpoch) {
+            run.flatNodes.clear();
+            run.flatNodesEpoch = trieEpoch;
+        }
+        while (run.flatNodes.size() <= offset) {
+            run.flatNodes.add(eiTrie.child(ExecutionIndexTrie.ROOT, 0, run.flatNodes.size()));
+        }
+        return run.flatNodes.get(offset);
     }
 
     @Override
     public boolean hasInput() {
-        Date now = new Date();
-        long elapsedMilliseconds = now.getTime() - startTime.getTime();
-        return elapsedMilliseconds < maxDurationMillis;
+        synchronized (this) {
+            if (!finished) {
+                Date now = new Date();
+                long elapsedMilliseconds = now.getTime() - startTime.getTime();
+                if (elapsedMilliseconds < maxDurationMillis) {
+                    numRunsPending++;
+                    return true;
+                }
+                finished = true;
+            }
+
+            // Make sure that all results are on disk before fuzzing stops
+            finishWriting();
+        }
+        return false;
+    }
+
+    // Flushes pending writes, and stops the writer once no other run can produce more
+    private void finishWriting() throws GuidanceException {
+        try {
+            if (numRunsPending == 0) {
+                fileWriter.close();
+            } else {
+                fileWriter.flush();
+            }
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
     }
 
     @Override
     public void handleResult(Result result, Throwable error) throws GuidanceException {
-        // Increment run count
-        this.numTrials++;
+        RunState run = getRunState();
+
+        // With inline edge-map instrumentation, coverage is read from the map instead of events
+        if (EdgeMap.isEnabled()) {
+            EdgeMap.drain(run.coverage::addEdgeCount);
+        }
 
         // Trim input (remove unused keys)
-        currentInput.gc();
+        run.input.gc();
 
         // It must still be non-empty
-        assert(currentInput.valuesMap.size() > 0);
+        assert(run.input.size() > 0);
+
+        // Update the shared state
+        synchronized (this) {
+            if (run.inFlight) {
+                run.inFlight = false;
+                if (--numRunsInFlight == 0) {
+                    // Some thread may be waiting to compact the trie
+                    notifyAll();
+                }
+            }
+            processResult(run, result, error);
+
+            if (numRunsPending > 0) {
+                numRunsPending--;
+            }
+            // The last run to finish after fuzzing has stopped closes the writer
+            if (finished) {
+                finishWriting();
+            }
+        }
+    }
+
+    private void processResult(RunState run, Result result, Throwable error) throws GuidanceException {
+        // Increment run count
+        this.numTrials++;
 
         boolean valid = result == Result.SUCCESS;
 
@@ -586,12 +882,12 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             // Newly covered branches are always included.
             // Existing branches *may* be included, depending on the heuristics used.
             // A valid input will steal responsibility from invalid inputs
-            Set<Object> responsibilities = computeResponsibilities(valid);
+            BitSet responsibilities = computeResponsibilities(run, valid);
 
             // Update total coverage
-            boolean coverageBitsUpdated = totalCoverage.updateBits(runCoverage);
+            boolean coverageBitsUpdated = totalCoverage.updateBits(run.coverage);
             if (valid) {
-                validCoverage.updateBits(runCoverage);
+                validCoverage.updateBits(run.coverage);
             }
 
             // Coverage after
@@ -614,15 +910,15 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             // Save if new total coverage found
             if (nonZeroAfter > nonZeroBefore) {
                 // Must be responsible for some branch
-                assert(responsibilities.size() > 0);
+                assert(!responsibilities.isEmpty());
                 toSave = true;
                 why = why + "+cov";
             }
 
             if (validNonZeroAfter > validNonZeroBefore) {
                 // Must be responsible for some branch
-                assert(responsibilities.size() > 0);
-                currentInput.valid = true;
+                assert(!responsibilities.isEmpty());
+                run.input.valid = true;
                 toSave = true;
                 why = why + "+valid";
             }
@@ -635,12 +931,12 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                                 "total coverage = %d",
                         numTrials,
                         savedInputs.size(),
-                        currentInput.valuesMap.size(),
+                        run.input.size(),
                         nonZeroAfter);
 
                 // Save input to queue and to disk
                 try {
-                    saveCurrentInput(responsibilities, why);
+                    saveCurrentInput(run, responsibilities, why);
                 } catch (IOException e) {
                     throw new GuidanceException(e);
                 }
@@ -663,9 +959,9 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                     int crashIdx = uniqueFailures.size()-1;
                     String saveFileName = String.format("id_%06d", crashIdx);
                     File saveFile = new File(savedFailuresDirectory, saveFileName);
-                    writeCurrentInputToFile(saveFile);
+                    writeCurrentInputToFile(run, saveFile);
                     infoLog("%s","Found crash: " + error.getClass() + " - " + (msg != null ? msg : ""));
-                    String how = currentInput.desc;
+                    String how = run.input.desc;
                     String why = "+crash";
                     infoLog("Saved - %s %s %s", saveFile.getPath(), how, why);
                 } catch (IOException e) {
@@ -682,38 +978,54 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
     }
 
 
+    // Returns the dense ID of a coverage key, numbering it if it is new
+    private int branchId(int key) {
+        int id = branchIds.get(key) - 1;
+        if (id < 0) {
+            id = branchKeys.size();
+            branchKeys.add(key);
+            branchIds.set(key, id + 1);
+            if (id >= responsibleInputs.length) {
+                int oldLength = responsibleInputs.length;
+                responsibleInputs = Arrays.copyOf(responsibleInputs, Math.max(1024, oldLength * 2));
+                Arrays.fill(responsibleInputs, oldLength, responsibleInputs.length, -1);
+            }
+        }
+        return id;
+    }
+
     // Compute a set of branches for which the current input may assume responsibility
-    private Set<Object> computeResponsibilities(boolean valid) {
-        Set<Object> result = new HashSet<>();
+    private BitSet computeResponsibilities(RunState run, boolean valid) {
+        BitSet result = new BitSet();
 
         // This input is responsible for all new coverage
-        Collection<?> newCoverage = runCoverage.computeNewCoverage(totalCoverage);
-        if (newCoverage.size() > 0) {
-            result.addAll(newCoverage);
+        run.coverage.computeNewCoverage(totalCoverage, newBranchKeys);
+        for (int i = 0; i < newBranchKeys.size(); i++) {
+            result.set(branchId(newBranchKeys.get(i)));
         }
 
         // If valid, this input is responsible for all new valid coverage
         if (valid) {
-            Collection<?> newValidCoverage = runCoverage.computeNewCoverage(validCoverage);
-            if (newValidCoverage.size() > 0) {
-                result.addAll(newValidCoverage);
+            run.coverage.computeNewCoverage(validCoverage, newBranchKeys);
+            for (int i = 0; i < newBranchKeys.size(); i++) {
+                result.set(branchId(newBranchKeys.get(i)));
             }
         }
 
         // Perhaps it can also steal responsibility from other inputs
         if (STEAL_RESPONSIBILITY) {
-            int currentNonZeroCoverage = runCoverage.getNonZeroCount();
-            int currentInputSize = currentInput.size();
-            Set<?> covered = new HashSet<>(runCoverage.getCovered());
+            int currentNonZeroCoverage = run.coverage.getNonZeroCount();
+            int currentInputSize = run.input.size();
+            runBranches.clear();
+            run.coverage.forEachCovered(markRunBranch);
 
             // Search for a candidate to steal responsibility from
-            candidate_search:
             for (Input candidate : savedInputs) {
-                Set<?> responsibilities = candidate.responsibilities;
+                BitSet responsibilities = candidate.responsibilities;
 
                 // Candidates with no responsibility are not interesting
                 if (responsibilities.isEmpty()) {
-                    continue candidate_search;
+                    continue;
                 }
 
                 // To avoid thrashing, only consider candidates with either
@@ -723,17 +1035,16 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                         (candidate.nonZeroCoverage == currentNonZeroCoverage &&
                                 currentInputSize < candidate.size())) {
 
-                    // Check if we can steal all responsibilities from candidate
-                    for (Object b : responsibilities) {
-                        if (covered.contains(b) == false) {
-                            // Cannot steal if this input does not cover something
-                            // that the candidate is responsible for
-                            continue candidate_search;
-                        }
+                    // Check if we can steal all responsibilities from candidate,
+                    // i.e. whether this input covers everything that the candidate
+                    // is responsible for
+                    stealScratch.clear();
+                    stealScratch.or(responsibilities);
+                    stealScratch.andNot(runBranches);
+                    if (stealScratch.isEmpty()) {
+                        // The current input can completely subsume the candidate
+                        result.or(responsibilities);
                     }
-                    // If all of candidate's responsibilities are covered by the
-                    // current input, then it can completely subsume the candidate
-                    result.addAll(responsibilities);
                 }
 
             }
@@ -742,18 +1053,13 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
         return result;
     }
 
-    private void writeCurrentInputToFile(File saveFile) throws IOException {
-        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(saveFile))) {
-            for (Object key : currentInput.orderedKeys) {
-                int b = currentInput.valuesMap.get(key);
-                assert (b >= 0 && b < 256);
-                out.write(b);
-            }
-        }
+    private void writeCurrentInputToFile(RunState run, File saveFile) throws IOException {
+        fileWriter.write(saveFile, Arrays.copyOf(run.input.values, run.input.size()));
 
     }
 
-    private void saveCurrentInput(Set<Object> responsibilities, String why) throws IOException {
+    private void saveCurrentInput(RunState run, BitSet responsibilities, String why) throws IOException {
+        Input currentInput = run.input;
 
         // First, save to disk (note: we issue IDs to everyone, but only write to disk  if valid)
         int newInputIdx = numSavedInputs++;
@@ -761,7 +1067,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
         String how = currentInput.desc;
         File saveFile = new File(savedInputsDirectory, saveFileName);
         if (currentInput.valid) {
-            writeCurrentInputToFile(saveFile);
+            writeCurrentInputToFile(run, saveFile);
             infoLog("Saved - %s %s %s", saveFile.getPath(), how, why);
         }
 
@@ -776,74 +1082,80 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
         // Third, store basic book-keeping data
         currentInput.id = newInputIdx;
         currentInput.saveFile = saveFile;
-        currentInput.coverage = new Coverage(runCoverage);
-        currentInput.nonZeroCoverage = runCoverage.getNonZeroCount();
+        currentInput.coverage = new Coverage(run.coverage);
+        currentInput.nonZeroCoverage = run.coverage.getNonZeroCount();
+        currentInput.execTimeNanos = System.nanoTime() - run.startTime;
         currentInput.offspring = 0;
-        savedInputs.get(currentParentInputIdx).offspring += 1;
+        if (run.parentIdx >= 0) {
+            savedInputs.get(run.parentIdx).offspring += 1;
+        }
 
         // Fourth, assume responsibility for branches
         currentInput.responsibilities = responsibilities;
-        for (Object b : responsibilities) {
+        for (int b = responsibilities.nextSetBit(0); b >= 0; b = responsibilities.nextSetBit(b + 1)) {
             // If there is an old input that is responsible,
             // subsume it
-            Input oldResponsible = responsibleInputs.get(b);
-            if (oldResponsible != null) {
-                oldResponsible.responsibilities.remove(b);
-                infoLog("-- Stealing responsibility for %s from input %d", b, oldResponsible.id);
+            int oldResponsible = responsibleInputs[b];
+            if (oldResponsible >= 0) {
+                savedInputs.get(oldResponsible).responsibilities.clear(b);
+                infoLog("-- Stealing responsibility for %s from input %d", branchKeys.get(b), oldResponsible);
             } else {
-                infoLog("-- Assuming new responsibility for %s", b);
+                infoLog("-- Assuming new responsibility for %s", branchKeys.get(b));
             }
             // We are now responsible
-            responsibleInputs.put(b, currentInput);
+            responsibleInputs[b] = currentInput.id;
         }
 
         // Fifth, map executions to input locations for splicing
-        mapEcToInputLoc(currentInput);
+        spliceIndex.add(currentInput);
 
     }
 
-    private void mapEcToInputLoc(Input input) {
-        for (int offset = 0; offset < input.size(); offset++) {
-            ExecutionIndex ei = input.orderedKeys.get(offset);
-            ExecutionContext ec = new ExecutionContext(ei);
-            ecToInputLoc.get(ec).add(new InputLocation(input, offset));
+    private void compactTrie() {
+        int sizeBefore = eiTrie.size();
+        BitSet live = new BitSet(sizeBefore);
+        for (Input input : savedInputs) {
+            for (int offset = 0; offset < input.size(); offset++) {
+                live.set(input.getNodeAtOffset(offset));
+            }
+        }
+        int[] remap = eiTrie.compact(live);
+        for (Input input : savedInputs) {
+            input.remapKeys(remap);
         }
 
+        // Compact again only once the trie has doubled, to amortize the cost
+        nextTrieCompaction = Math.max(MIN_TRIE_COMPACTION_SIZE, 2 * eiTrie.size());
+        trieEpoch++;
+        infoLog("Compacted execution index trie from %d to %d nodes", sizeBefore, eiTrie.size());
     }
 
 
     @Override
     public Consumer<TraceEvent> generateCallBack(Thread thread) {
-        if (appThread != null) {
+        // Each fuzzing thread is traced, but the app itself must not spawn threads
+        if (numTracedThreads.incrementAndGet() > GuidedFuzzing.getNumThreads()) {
             throw new IllegalStateException(ExecutionIndexingGuidance.class +
                 " only supports single-threaded apps at the moment");
         }
-        appThread = thread;
-
-        return this::handleEvent;
-    }
-
-    private void handleEvent(TraceEvent e) {
-        // Set last event to this event
-        lastEvent = e;
-
-        // Update execution indexing logic
-        if (!DISABLE_EXECUTION_INDEXING) {
-            e.applyVisitor(this);
-        }
 
-        // Collect totalCoverage
-        runCoverage.handleEvent(e);
+        RunState run = runStates.computeIfAbsent(thread, (t) -> new RunState());
+        return run::handleEvent;
     }
 
     @Override
     public void visitCallEvent(CallEvent c) {
-        eiState.pushCall(c);
+        getRunState().visitCallEvent(c);
     }
 
     @Override
     public void visitReturnEvent(ReturnEvent r) {
-        eiState.popReturn(r);
+        getRunState().visitReturnEvent(r);
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
     }
 
     /**
@@ -854,6 +1166,71 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
         return totalCoverage;
     }
 
+    /**
+     * The state of a single fuzzing thread's current run.
+     *
+     * <p>Fields are only accessed by the thread that owns the run, except
+     * that {@link #input} and {@link #coverage} are read by the guidance
+     * while that thread holds the guidance's lock.</p>
+     */
+    private static class RunState implements TraceEventVisitor {
+        /** The input that's running -- valid after getInput() and before handleResult(). */
+        Input input;
+
+        /**
+         * The position in the saved inputs of the parent of {@link #input},
+         * or -1 if it was not produced by fuzzing a saved input (e.g. seeds).
+         */
+        int parentIdx = -1;
+
+        /** Whether this run is counted in {@link #numRunsInFlight}. */
+        boolean inFlight = false;
+
+        /** Coverage statistics for this run. */
+        final Coverage coverage = new Coverage();
+
+        /** The execution indexing logic. */
+        ExecutionIndexingState eiState;
+
+        /** The last event handled in this run. */
+        TraceEvent lastEvent;
+
+        /** The time (from {@link System#nanoTime()}) at which this run started. */
+        long startTime;
+
+        /** A pseudo-random number generator for generating fresh values. */
+        final Random random = new Random();
+
+        /** Cached flat execution index nodes for each offset, valid while the trie is not compacted. */
+        final IntList flatNodes = new IntList();
+
+        /** The trie epoch for which {@link #flatNodes} is valid. */
+        int flatNodesEpoch = 0;
+
+        void handleEvent(TraceEvent e) {
+            // Set last event to this event
+            lastEvent = e;
+
+            // Update execution indexing logic
+            if (!DISABLE_EXECUTION_INDEXING) {
+                e.applyVisitor(this);
+            }
+
+            // Collect coverage
+            coverage.handleEvent(e);
+        }
+
+        @Override
+        public void visitCallEvent(CallEvent c) {
+            eiState.pushCall(c);
+        }
+
+        @Override
+        public void visitReturnEvent(ReturnEvent r) {
+            eiState.popReturn(r);
+        }
+    }
+
 
     /**
      * A candidate test input represented as a map from execution indices
@@ -870,27 +1247,52 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
      */
     public static class Input {
 
-        /** A map from execution indexes to the byte (0-255) to be returned at that index. */
-        protected LinkedHashMap<ExecutionIndex, Integer> valuesMap;
+        /** The trie whose nodes are the keys of this input. */
+        protected final ExecutionIndexTrie trie;
 
         /**
-         * A list of execution indexes that are actually requested by the test program when
-         * executed with this input.
+         * The execution indexes mapped by this input, as nodes in {@link #trie}.
          *
-         * <p>This list is initially empty, and is populated at the end of the run, after which
-         * it is frozen. The list of keys are in order of their occurrence in the execution
-         * trace and can therefore be used to serialize the map into a sequence of bytes.</p>
+         * <p>Only the first {@link #numKeys} elements are used. Before execution,
+         * keys are in order of insertion into the map. After execution (see
+         * {@link #gc()}), the array is trimmed to contain exactly the execution
+         * indexes that were requested by the test program, in order of their
+         * occurrence in the execution trace, and can therefore be used to
+         * serialize the input into a sequence of bytes.</p>
+         */
+        protected int[] keys;
+
+        /** The byte (0-255) mapped to the execution index at the same position in {@link #keys}. */
+        protected byte[] values;
+
+        /** The number of execution indexes mapped by this input. */
+        protected int numKeys;
+
+        /**
+         * The positions in {@link #keys} that are actually requested by the test program
+         * when executed with this input, in order of request.
+         *
+         * <p>This list is initially empty, and is populated during the run. It is
+         * discarded at the end of the run, when {@link #keys} is trimmed.</p>
+         */
+        protected IntList requested = new IntList();
+
+        /**
+         * An open-addressing hash table from execution indexes to their positions in
+         * {@link #keys}, stored as <tt>position + 1</tt> so that zero marks an empty slot.
          *
+         * <p>This table is only needed to look up keys while the input is being
+         * executed, so it is discarded once the input has been executed.</p>
          */
-        protected ArrayList<ExecutionIndex> orderedKeys = new ArrayList<>();
+        private int[] lookup;
 
         /**
          * Whether this input has been executed.
          *
-         * When this field is {@code false}, the field {@link #orderedKeys}
-         * is not yet populated and must not be used. When this field is {@code true},
-         * the input should be considered immutable and neither {@link #orderedKeys} nor
-         * {@link #valuesMap} must be modified.
+         * When this field is {@code false}, the offsets of {@link #keys}
+         * do not yet correspond to the execution trace and must not be used.
+         * When this field is {@code true}, the input should be considered
+         * immutable and neither {@link #keys} nor {@link #values} must be modified.
          */
         protected boolean executed = false;
 
@@ -942,14 +1344,30 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          */
         private int offspring = -1;
 
+        /**
+         * The time taken to run this input, in nanoseconds.
+         *
+         * <p>This field is 0 for inputs that are not saved.</p>
+         */
+        private long execTimeNanos = 0;
+
+        /** The number of times this input was selected as a parent. */
+        private int numSelected = 0;
+
+        /**
+         * A moving average of the fraction of children that were saved,
+         * over the times this input was selected as a parent.
+         */
+        private double recentYield = 0;
+
         /**
          * Whether this input resulted in a valid run.
          */
         private boolean valid = false;
 
         /**
-         * The set of coverage keys for which this input is
-         * responsible.
+         * The set of branches for which this input is
+         * responsible, as dense branch IDs.
          *
          * <p>This field is null for inputs that are not saved.</p>
          *
@@ -958,7 +1376,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          * in at least some responsibility set. Hence, this list
          * needs to be kept in-sync with {@link #responsibleInputs}.</p>
          */
-        private Set<Object> responsibilities = null;
+        private BitSet responsibilities = null;
 
         private List<InputPrefixMapping> demandDrivenSpliceMap = new ArrayList<>();
 
@@ -966,7 +1384,19 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          * Create an empty input map.
          */
         public Input() {
-            valuesMap = new LinkedHashMap<>();
+            this(new ExecutionIndexTrie());
+        }
+
+        /**
+         * Create an empty input map whose keys are nodes in a given trie.
+         *
+         * @param trie the trie of execution indexes
+         */
+        public Input(ExecutionIndexTrie trie) {
+            this.trie = trie;
+            keys = new int[16];
+            values = new byte[16];
+            lookup = new int[32];
             desc = "random";
         }
 
@@ -976,7 +1406,13 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          * @param toClone the input map to clone
          */
         public Input(Input toClone) {
-            valuesMap = new LinkedHashMap<>(toClone.valuesMap);
+            trie = toClone.trie;
+            numKeys = toClone.numKeys;
+            // Leave some room for keys that are only requested by the new input
+            int capacity = numKeys + numKeys / 8 + 16;
+            keys = Arrays.copyOf(toClone.keys, capacity);
+            values = Arrays.copyOf(toClone.values, capacity);
+            rebuildLookup();
             desc = String.format("src:%06d", toClone.id);
         }
 
@@ -987,7 +1423,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          * @return the size of this input
          */
         public final int size() {
-            return valuesMap.size();
+            return numKeys;
         }
 
         /**
@@ -1007,8 +1443,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             }
 
             // Return the mapping for the execution index queried at the offset
-            ExecutionIndex ei = orderedKeys.get(offset);
-            return valuesMap.get(ei);
+            return values[offset] & 0xFF;
         }
 
 
@@ -1029,10 +1464,34 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             }
 
             // Return the execution index queried at the offset
-            return orderedKeys.get(offset);
+            return trie.getExecutionIndex(keys[offset]);
+        }
+
+        /**
+         * Returns the trie node of the execution index mapped by this input
+         * at a given offset.
+         *
+         * @param offset the byte offset in the input
+         * @return the node of the execution index at that offset
+         *
+         * @throws IndexOutOfBoundsException if the offset is negative or
+         *      larger than {@link #size}()-1
+         * @throws IllegalStateException if this method is called before the input
+         *                               has been executed
+         */
+        public final int getNodeAtOffset(int offset) throws IndexOutOfBoundsException, IllegalStateException {
+            if (!executed) {
+                throw new IllegalStateException("Cannot get with offset before execution");
+            }
+
+            return keys[offset];
         }
 
-        private InputPrefixMapping getInputPrefixMapping(ExecutionIndex ei) {
+        private InputPrefixMapping getInputPrefixMapping(int node) {
+            if (demandDrivenSpliceMap.isEmpty()) {
+                return null;
+            }
+            ExecutionIndex ei = trie.getExecutionIndex(node);
             for (InputPrefixMapping ipm : demandDrivenSpliceMap) {
                 if (ei.hasPrefix(ipm.targetPrefix)) {
                     return ipm;
@@ -1052,21 +1511,37 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          * @throws IllegalStateException if this method is called after the input
          *                               has been executed
          */
-        public int getOrGenerateFresh(ExecutionIndex key, Random random) throws IllegalStateException {
+        public final int getOrGenerateFresh(ExecutionIndex key, Random random) throws IllegalStateException {
+            return getOrGenerateFresh(trie.intern(key), random);
+        }
+
+        /**
+         * Retrieve a value for an execution index if mapped, else generate
+         * a fresh value.
+         *
+         * @param key    the node in {@link #trie} of the execution index of
+         *               the trace event requesting a new byte
+         * @param random the PRNG
+         * @return the value to return to the quickcheck-like generator
+         * @throws IllegalStateException if this method is called after the input
+         *                               has been executed
+         */
+        public int getOrGenerateFresh(int key, Random random) throws IllegalStateException {
             if (executed) {
                 throw new IllegalStateException("Cannot generate fresh values after execution");
             }
 
             // If we reached a limit, then just return EOF
-            if (orderedKeys.size() >= MAX_INPUT_SIZE) {
+            if (requested.size() >= MAX_INPUT_SIZE) {
                 return -1;
             }
 
             // Try to get existing values
-            Integer val = valuesMap.get(key);
+            int pos = find(key);
 
             // If not, generate a new value
-            if (val == null) {
+            if (pos < 0) {
+                Integer val = null;
                 InputPrefixMapping ipm;
 
                 // If we have an input prefix mapping for this execution index,
@@ -1096,19 +1571,21 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                 // Put the new value into the map
                 assert (val != null);
 
-                valuesMap.put(key, val);
+                pos = append(key, val);
             }
 
             // Mark this key as visited
-            orderedKeys.add(key);
+            requested.add(pos);
 
-            return val;
+            return values[pos] & 0xFF;
         }
 
 
         /**
          * Gets the byte mapped by this input at a given execution index.
          *
+         * <p>Once this input has been executed, this is a linear search.</p>
+         *
          * @param ei the execution index
          * @return the value mapped for this index, or {@code null} if no such mapping exists
          *
@@ -1116,7 +1593,8 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          *      larger than {@link #size}()-1
          */
         public final Integer getValueAtKey(ExecutionIndex ei) throws IndexOutOfBoundsException {
-            return valuesMap.get(ei);
+            int pos = find(trie.intern(ei));
+            return pos < 0 ? null : values[pos] & 0xFF;
         }
 
         /**
@@ -1135,7 +1613,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                 throw new IllegalStateException("Cannot set value before execution");
             }
 
-            valuesMap.put(ei, val);
+            put(trie.intern(ei), val);
         }
 
         /**
@@ -1147,16 +1625,110 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          * deterministic).</p>
          */
         public void gc() {
-            LinkedHashMap<ExecutionIndex, Integer> newMap = new LinkedHashMap<>();
-            for (ExecutionIndex key : orderedKeys) {
-                newMap.put(key, valuesMap.get(key));
+            int newSize = requested.size();
+            int[] newKeys = new int[newSize];
+            byte[] newValues = new byte[newSize];
+            for (int offset = 0; offset < newSize; offset++) {
+                int pos = requested.get(offset);
+                newKeys[offset] = keys[pos];
+                newValues[offset] = values[pos];
             }
-            valuesMap = newMap;
+            keys = newKeys;
+            values = newValues;
+            numKeys = newSize;
+
+            // Book-keeping for execution is no longer needed
+            requested = null;
+            lookup = null;
 
             // Set the `executed` flag
             executed = true;
         }
 
+        /**
+         * Renumbers the keys of this executed input after its trie has been
+         * compacted.
+         *
+         * @param remap the result of {@link ExecutionIndexTrie#compact}
+         */
+        void remapKeys(int[] remap) {
+            assert (executed);
+            for (int pos = 0; pos < numKeys; pos++) {
+                keys[pos] = remap[keys[pos]];
+            }
+        }
+
+        /** Returns the position of a key in {@link #keys}, or -1 if it is not mapped. */
+        private int find(int key) {
+            if (lookup == null) {
+                for (int pos = 0; pos < numKeys; pos++) {
+                    if (keys[pos] == key) {
+                        return pos;
+                    }
+                }
+                return -1;
+            }
+            int mask = lookup.length - 1;
+            for (int slot = home(key); lookup[slot] != 0; slot = (slot + 1) & mask) {
+                int pos = lookup[slot] - 1;
+                if (keys[pos] == key) {
+                    return pos;
+                }
+            }
+            return -1;
+        }
+
+        /** Maps a key to a value and returns its position in {@link #keys}. */
+        protected int put(int key, int val) {
+            int pos = find(key);
+            if (pos < 0) {
+                return append(key, val);
+            } else {
+                values[pos] = (byte) val;
+                return pos;
+            }
+        }
+
+        /** Maps a key that is not yet mapped and returns its position in {@link #keys}. */
+        private int append(int key, int val) {
+            if (numKeys == keys.length) {
+                int capacity = numKeys * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                values = Arrays.copyOf(values, capacity);
+                rebuildLookup();
+            }
+            int pos = numKeys++;
+            keys[pos] = key;
+            values[pos] = (byte) val;
+            insertIntoLookup(pos);
+            return pos;
+        }
+
+        private void rebuildLookup() {
+            lookup = new int[lookupCapacityFor(keys.length)];
+            for (int pos = 0; pos < numKeys; pos++) {
+                insertIntoLookup(pos);
+            }
+        }
+
+        private void insertIntoLookup(int pos) {
+            int mask = lookup.length - 1;
+            int slot = home(keys[pos]);
+            while (lookup[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            lookup[slot] = pos + 1;
+        }
+
+        private int home(int key) {
+            return Hashing.fibonacci(key, Integer.numberOfTrailingZeros(lookup.length));
+        }
+
+        /** Returns a power-of-two table size that is at most half full with <tt>capacity</tt> keys. */
+        private static int lookupCapacityFor(int capacity) {
+            return Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2;
+        }
+
 
         /**
          * Return a new input derived from this one with some values
@@ -1169,7 +1741,9 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          * mutation operations each on a random contiguous sequence of N bytes,
          * where M and N are sampled from a geometric distribution with mean
          * {@link #MEAN_MUTATION_COUNT} and {@link #MEAN_MUTATION_SIZE}
-         * respectively.</p>
+         * respectively. By default, each operation overwrites the sequence with
+         * random bytes (or zeros); with {@link #AFL_MUTATIONS}, each operation
+         * is instead one of AFL's byte-level havoc mutators.</p>
          *
          * <p>Splicing is performed by first randomly choosing a location and
          * its corresponding execution context in this input's value map, and then
@@ -1179,10 +1753,10 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          * {@link #MAX_SPLICE_SIZE}.</p>
          *
          * @param random the PRNG
-         * @param ecToInputLoc a map of execution contexts to input locations
+         * @param spliceIndex an index of execution contexts to input locations
          * @return a newly fuzzed input
          */
-        public Input fuzz(Random random, Map<ExecutionContext, ArrayList<InputLocation>> ecToInputLoc) {
+        public Input fuzz(Random random, SpliceIndex spliceIndex) {
             // Derive new input from this object as source
             Input newInput = new Input(this);
 
@@ -1190,8 +1764,8 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             boolean splicingDone = false;
 
 
-            // Only splice if we have been provided the ecToInputLoc
-            if (ecToInputLoc != null) {
+            // Only splice if we have been provided the spliceIndex
+            if (spliceIndex != null) {
 
                 // TODO: Do we really want splicing to be this frequent?
                 if (random.nextBoolean()) {
@@ -1205,17 +1779,17 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                         // Choose an execution context at which to splice at
                         // Note: We get EI and value from `this` rather than `newInput`
                         // because `this` has already been executed
-                        int targetOffset = random.nextInt(newInput.valuesMap.size());
-                        ExecutionIndex targetEi = this.getKeyAtOffset(targetOffset);
+                        int targetOffset = random.nextInt(newInput.size());
+                        int targetNode = this.getNodeAtOffset(targetOffset);
 
-                        ExecutionContext targetEc = new ExecutionContext(targetEi);
+                        int targetEc = trie.getContext(targetNode);
                         int valueAtTarget = this.getValueAtOffset(targetOffset);
 
                         // Find a suitable input location to splice from
-                        ArrayList<InputLocation> inputLocations = ecToInputLoc.get(targetEc);
+                        int numLocations = spliceIndex.size(targetEc);
 
                         // If this was a bad choice of target, try again without penalty if possible
-                        if (inputLocations.size() == 0) {
+                        if (numLocations == 0) {
                             // Try to increase the loop bound a little bit to get another chance
                             targetAttempts = Math.min(targetAttempts+1, MAX_TARGET_ATTEMPTS);
                             continue;
@@ -1227,7 +1801,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                         for (int attempt = 1; attempt <= 10; attempt++) {
 
                             // Get a candidate source location with the same execution context
-                            inputLocation = inputLocations.get(random.nextInt(inputLocations.size()));
+                            inputLocation = spliceIndex.get(targetEc, random.nextInt(numLocations));
                             Input sourceInput = inputLocation.input;
                             int sourceOffset = inputLocation.offset;
 
@@ -1245,6 +1819,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                             int splicedBytes = 0;
                             if (!DISABLE_EXECUTION_INDEXING && SPLICE_SUBTREE) {
                                 // Do not splice if there is no common suffix between EI of source and target
+                                ExecutionIndex targetEi = trie.getExecutionIndex(targetNode);
                                 ExecutionIndex sourceEi = sourceInput.getKeyAtOffset(sourceOffset);
                                 Suffix suffix = targetEi.getCommonSuffix(sourceEi);
                                 if (suffix.size() == 0) {
@@ -1266,7 +1841,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                                     }
                                     Suffix spliceSuffix = candidateEi.getSuffixOfPrefix(sourcePrefix);
                                     ExecutionIndex spliceEi = new ExecutionIndex(targetPrefix, spliceSuffix);
-                                    newInput.valuesMap.put(spliceEi, sourceInput.valuesMap.get(candidateEi));
+                                    newInput.setValueAtKey(spliceEi, sourceInput.getValueAtOffset(srcIdx));
 
                                     srcIdx++;
                                 }
@@ -1279,9 +1854,8 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                                 int srcSize = sourceInput.size();
                                 int tgtSize = newInput.size();
                                 while (splicedBytes < spliceSize && src < srcSize && tgt < tgtSize) {
-                                    int val = sourceInput.getValueAtOffset(src);
-                                    ExecutionIndex key = this.getKeyAtOffset(tgt);
-                                    newInput.setValueAtKey(key, val);
+                                    // The new input is a copy of `this`, so offsets coincide
+                                    newInput.values[tgt] = sourceInput.values[src];
 
                                     splicedBytes++;
                                     src++;
@@ -1313,22 +1887,20 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
                 for (int mutation = 1; mutation <= numMutations; mutation++) {
 
                     // Select a random offset and size
-                    int offset = random.nextInt(newInput.valuesMap.size());
+                    int offset = random.nextInt(newInput.size());
                     int mutationSize = sampleGeometric(random, MEAN_MUTATION_SIZE);
 
                     // desc += String.format(":%d@%d", mutationSize, idx);
 
-                    // Iterate over all entries in the value map
-                    Iterator<Map.Entry<ExecutionIndex, Integer>> entryIterator
-                            = newInput.valuesMap.entrySet().iterator();
-                    for (int i = 0; entryIterator.hasNext(); i++) {
-                        Map.Entry<ExecutionIndex, Integer> e = entryIterator.next();
-                        // Only mutate `mutationSize` contiguous entries from
-                        // the randomly selected `idx`.
-                        if (i >= offset && i < (offset + mutationSize)) {
+                    // Mutate `mutationSize` contiguous entries from the randomly selected `offset`
+                    int end = Math.min(offset + mutationSize, newInput.size());
+                    if (AFL_MUTATIONS) {
+                        newInput.mutateAfl(random, offset, end - offset);
+                    } else {
+                        for (int i = offset; i < end; i++) {
                             // Apply a random mutation
                             int mutatedValue = setToZero ? 0 : random.nextInt(256);
-                            e.setValue(mutatedValue);
+                            newInput.values[i] = (byte) mutatedValue;
                         }
                     }
                 }
@@ -1338,6 +1910,95 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
 
         }
 
+        /**
+         * Applies a randomly chosen AFL-style havoc mutator to a sequence of
+         * values of this (not yet executed) input.
+         *
+         * <p>Values are addressed by offset, so each mutator takes time
+         * proportional to the mutated sequence, except for block insertion and
+         * deletion, which shift the values after the sequence. Shifted values
+         * move to the execution indexes of their new offsets.</p>
+         *
+         * @param random the PRNG
+         * @param offset the offset of the first value to mutate
+         * @param length the number of values to mutate
+         */
+        void mutateAfl(Random random, int offset, int length) {
+            if (length <= 0) {
+                return;
+            }
+            switch (random.nextInt(6)) {
+                case 0: // Random bytes
+                    for (int i = offset; i < offset + length; i++) {
+                        values[i] = (byte) random.nextInt(256);
+                    }
+                    break;
+                case 1: // Flip a single bit
+                    values[offset + random.nextInt(length)] ^= (byte) (1 << random.nextInt(8));
+                    break;
+                case 2: // Add or subtract a small number
+                    for (int i = offset; i < offset + length; i++) {
+                        int delta = 1 + random.nextInt(ARITH_MAX);
+                        values[i] += random.nextBoolean() ? delta : -delta;
+                    }
+                    break;
+                case 3: // Interesting values
+                    for (int i = offset; i < offset + length; i++) {
+                        values[i] = INTERESTING_8[random.nextInt(INTERESTING_8.length)];
+                    }
+                    break;
+                case 4: // Delete a block, keeping at least one value
+                    deleteBlock(offset, Math.min(length, numKeys - 1));
+                    break;
+                case 5: // Insert a block of random bytes or a copy of another block
+                    byte[] block = new byte[length];
+                    if (random.nextBoolean()) {
+                        random.nextBytes(block);
+                    } else {
+                        System.arraycopy(values, random.nextInt(numKeys - length + 1), block, 0, length);
+                    }
+                    insertBlock(offset, block);
+                    break;
+            }
+        }
+
+        /**
+         * Removes a block of values, shifting later values to lower offsets.
+         *
+         * <p>The last <tt>length</tt> keys are unmapped, and so will be
+         * generated fresh if requested.</p>
+         */
+        void deleteBlock(int offset, int length) {
+            if (length <= 0) {
+                return;
+            }
+            System.arraycopy(values, offset + length, values, offset, numKeys - offset - length);
+            numKeys -= length;
+            rebuildLookup();
+        }
+
+        /**
+         * Inserts a block of values, shifting later values to higher offsets.
+         *
+         * <p>The size of this input does not change; values shifted past the
+         * last key are dropped.</p>
+         */
+        void insertBlock(int offset, byte[] block) {
+            int length = Math.min(block.length, numKeys - offset);
+            System.arraycopy(values, offset, values, offset + length, numKeys - offset - length);
+            System.arraycopy(block, 0, values, offset, length);
+        }
+
+        /**
+         * Returns the ID of this input, if saved.
+         *
+         * @return the ID of this input, which is its position in the
+         *         queue of saved inputs
+         */
+        public int getId() {
+            return id;
+        }
+
         /**
          * Returns whether this input should be favored for fuzzing.
          *
@@ -1347,7 +2008,57 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
          * @return
          */
         public boolean isFavored() {
-            return responsibilities.size() > 0;
+            return responsibilities != null && !responsibilities.isEmpty();
+        }
+
+        /**
+         * Returns the number of branches covered by this input, if saved.
+         *
+         * @return the number of branches covered, or -1 if not saved
+         */
+        public int getNonZeroCoverage() {
+            return nonZeroCoverage;
+        }
+
+        /**
+         * Returns the time taken to run this input, if saved.
+         *
+         * @return the run time in nanoseconds, or 0 if not saved
+         */
+        public long getExecTimeNanos() {
+            return execTimeNanos;
+        }
+
+        /**
+         * Returns the number of times this input was selected as a parent.
+         *
+         * @return the number of times this input was selected
+         */
+        public int getNumSelected() {
+            return numSelected;
+        }
+
+        /**
+         * Returns a moving average of the fraction of this input's children
+         * that were saved, weighted towards recent selections.
+         *
+         * @return the recent yield, between 0 and 1
+         */
+        public double getRecentYield() {
+            return recentYield;
+        }
+
+        /**
+         * Records the outcome of fuzzing this input as a parent.
+         *
+         * @param numChildren the number of children produced
+         * @param numSaved    the number of those children that were saved
+         */
+        void recordSelection(int numChildren, int numSaved) {
+            double yield = numChildren > 0 ? Math.min(1.0, (double) numSaved / numChildren) : 0;
+            recentYield = numSelected == 0 ? yield :
+                    RECENT_YIELD_WEIGHT * yield + (1 - RECENT_YIELD_WEIGHT) * recentYield;
+            numSelected++;
         }
 
         private int sampleGeometric(Random random, double mean) {
@@ -1362,14 +2073,15 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
         final File seedFile;
         final InputStream in;
 
-        public SeedInput(File seedFile) throws IOException {
+        public SeedInput(File seedFile, ExecutionIndexTrie trie) throws IOException {
+            super(trie);
             this.seedFile = seedFile;
             this.in = new BufferedInputStream(new FileInputStream(seedFile));
             this.desc = "seed";
         }
 
         @Override
-        public int getOrGenerateFresh(ExecutionIndex key, Random random) {
+        public int getOrGenerateFresh(int key, Random random) {
             int value;
             try {
                 value = in.read();
@@ -1378,8 +2090,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
 
             }
             if (value >= 0) {
-                valuesMap.put(key, value);
-                orderedKeys.add(key);
+                requested.add(put(key, value));
             }
             return value;
         }
@@ -1391,6 +2102,7 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             } catch (IOException e) {
                 throw new GuidanceException("Error closing seed file:" + seedFile.getName(), e);
             }
+            super.gc();
         }
 
     }
@@ -1404,6 +2116,14 @@ public class ExecutionIndexingGuidance implements Guidance, TraceEventVisitor {
             this.input = input;
             this.offset = offset;
         }
+
+        Input getInput() {
+            return input;
+        }
+
+        int getOffset() {
+            return offset;
+        }
     }
 
     static class InputPrefixMapping {
@@ -28,9 +28,6 @@
  */
 package edu.berkeley.cs.jqf.fuzz.ei;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-
 import edu.berkeley.cs.jqf.fuzz.util.Counter;
 import edu.berkeley.cs.jqf.fuzz.util.NonZeroCachingCounter;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
@@ -41,30 +38,46 @@ import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
  * A mutable state representing the current call stack with prefix counts,
  * used to compute light-weight execution indexes.
  *
+ * <p>Execution indexes are computed as nodes in an {@link ExecutionIndexTrie},
+ * one call site at a time, so the call stack is never copied.</p>
+ *
  * @see ExecutionIndex
+ * @see ExecutionIndexTrie
  *
  * @author Rohan Padhye
  */
 public class ExecutionIndexingState {
-    private final int COUNTER_SIZE = 6151;
+    private final int COUNTER_SIZE = 1 << 13; // Power of two for fast hashing
     private final int MAX_SUPPORTED_DEPTH = 1024; // Nothing deeper than this
 
     private int depth = 0;
-    private ArrayList<Counter> stackOfCounters = new ArrayList<>();
-    private int[] rollingIndex = new int[2*MAX_SUPPORTED_DEPTH];
+    private Counter[] stackOfCounters = new Counter[MAX_SUPPORTED_DEPTH];
+    private int[] stackOfNodes = new int[MAX_SUPPORTED_DEPTH];
+    private final ExecutionIndexTrie trie;
 
     public ExecutionIndexingState() {
+        this(new ExecutionIndexTrie());
+    }
+
+    /**
+     * Creates a state whose execution indexes are nodes in a given trie.
+     *
+     * @param trie the trie in which to add execution indexes
+     */
+    public ExecutionIndexingState(ExecutionIndexTrie trie) {
+        this.trie = trie;
+
         // Create a counter for depth = 0
-        stackOfCounters.add(new NonZeroCachingCounter(COUNTER_SIZE));
+        stackOfCounters[0] = new NonZeroCachingCounter(COUNTER_SIZE);
+        stackOfNodes[0] = ExecutionIndexTrie.ROOT;
     }
 
     public void pushCall(CallEvent e) {
         // Increment counter for call-site (note: this is subject to hash collisions)
-        int count = stackOfCounters.get(depth).increment(e.getIid());
+        int count = stackOfCounters[depth].increment(e.getIid());
 
-        // Add to rolling execution index
-        rollingIndex[2*depth] = e.getIid();
-        rollingIndex[2*depth + 1] = count;
+        // Extend the execution index of the caller
+        int node = trie.child(stackOfNodes[depth], e.getIid(), count);
 
         // Increment depth
         depth++;
@@ -75,15 +88,16 @@ public class ExecutionIndexingState {
         }
 
         // Push a new counter if it does not exist
-        if (depth >= stackOfCounters.size()) {
-            stackOfCounters.add(new NonZeroCachingCounter(COUNTER_SIZE));
+        if (stackOfCounters[depth] == null) {
+            stackOfCounters[depth] = new NonZeroCachingCounter(COUNTER_SIZE);
         }
+        stackOfNodes[depth] = node;
 
     }
 
     public void popReturn(ReturnEvent e) {
         // Clear the top-of-stack
-        stackOfCounters.get(depth).clear();
+        stackOfCounters[depth].clear();
 
         // Decrement depth
         depth--;
@@ -91,19 +105,21 @@ public class ExecutionIndexingState {
         assert (depth >= 0);
     }
 
-    public ExecutionIndex getExecutionIndex(TraceEvent e) {
+    /**
+     * Returns the execution index of an event as a node in the trie.
+     *
+     * @param e the trace event
+     * @return the node of the event's execution index
+     */
+    public int getExecutionIndexNode(TraceEvent e) {
         // Increment counter for event (note: this is subject to hash collisions)
-        int count = stackOfCounters.get(depth).increment(e.getIid());
-
-        // Add to rolling execution index
-        rollingIndex[2*depth] = e.getIid();
-        rollingIndex[2*depth + 1] = count;
+        int count = stackOfCounters[depth].increment(e.getIid());
 
-        // Snapshot the rolling index
-        int size = 2*(depth+1); // 2 integers for each depth value
-        int[] ei = Arrays.copyOf(rollingIndex, size);
+        // Extend the execution index of the current call
+        return trie.child(stackOfNodes[depth], e.getIid(), count);
+    }
 
-        // Create an execution index
-        return new ExecutionIndex(ei);
+    public ExecutionIndex getExecutionIndex(TraceEvent e) {
+        return trie.getExecutionIndex(getExecutionIndexNode(e));
     }
 }
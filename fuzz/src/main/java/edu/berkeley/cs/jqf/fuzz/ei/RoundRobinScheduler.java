@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.util.List;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.Input;
+
+import static edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.NUM_CHILDREN_BASELINE;
+import static edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.NUM_CHILDREN_MULTIPLIER_FAVORED;
+
+/**
+ * A scheduler that cycles through the saved inputs in order, producing
+ * more children from inputs that cover more branches and many more from
+ * favored inputs.
+ */
+public class RoundRobinScheduler implements Scheduler {
+
+    @Override
+    public int selectParent(List<Input> savedInputs, int current, Random random) {
+        return (current + 1) % savedInputs.size();
+    }
+
+    @Override
+    public int getTargetChildren(Input parent, int maxCoverage) {
+        // Baseline is a constant
+        int target = NUM_CHILDREN_BASELINE;
+
+        // We like inputs that cover many things, so scale with fraction of max
+        if (maxCoverage > 0) {
+            target = (NUM_CHILDREN_BASELINE * parent.getNonZeroCoverage()) / maxCoverage;
+        }
+
+        // We absolutey love favored inputs, so fuzz them more
+        if (parent.isFavored()) {
+            target = target * NUM_CHILDREN_MULTIPLIER_FAVORED;
+        }
+
+        return target;
+    }
+}
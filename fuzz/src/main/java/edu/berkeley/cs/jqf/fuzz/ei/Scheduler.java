@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.util.List;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.Input;
+
+/**
+ * A policy that decides which saved input to fuzz next, and how many
+ * children to produce from it.
+ *
+ * <p>The guidance fuzzes its current parent input until it has produced
+ * {@link #getTargetChildren(Input, int)} children, and then asks the
+ * scheduler to select the next parent. Schedulers may use the statistics
+ * that each saved input keeps about its own execution and about the
+ * children it produced (see {@link Input#getExecTimeNanos()} and
+ * {@link Input#getRecentYield()}).</p>
+ */
+public interface Scheduler {
+
+    /**
+     * Selects the next parent input to fuzz.
+     *
+     * @param savedInputs the queue of saved inputs, which is not empty
+     * @param current     the position of the current parent in the queue
+     * @param random      a source of randomness
+     * @return the position of the next parent in <tt>savedInputs</tt>
+     */
+    int selectParent(List<Input> savedInputs, int current, Random random);
+
+    /**
+     * Returns the number of children to produce from a parent input
+     * before selecting the next one.
+     *
+     * @param parent      the parent input
+     * @param maxCoverage the maximum number of branches covered by any saved input
+     * @return the number of children to produce from <tt>parent</tt>
+     */
+    int getTargetChildren(Input parent, int maxCoverage);
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.Input;
+import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.InputLocation;
+
+/**
+ * An index from execution contexts to the locations in saved inputs that
+ * have those contexts, used to quickly find candidates for input splicing.
+ *
+ * <p>For each execution context node of an {@link ExecutionIndexTrie}, the
+ * index keeps a primitive array of locations, each packed into a
+ * <tt>long</tt> as the ID of a saved input and an offset within it. Inputs
+ * are added once and removed in batches (see {@link #removeAll(BitSet)}),
+ * so the index never needs to be rebuilt from scratch.</p>
+ */
+public class SpliceIndex {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final ExecutionIndexTrie trie;
+    private final List<Input> inputs;
+
+    /** The locations for each execution context node. */
+    private long[][] locations = new long[16][];
+
+    /** The number of locations used in each array of {@link #locations}. */
+    private int[] counts = new int[16];
+
+    /** The IDs of inputs whose locations are in this index. */
+    private final BitSet indexed = new BitSet();
+
+    /**
+     * Creates an empty index.
+     *
+     * @param trie   the trie whose context nodes are used as keys
+     * @param inputs the saved inputs, such that each input's ID is its
+     *               position in this list
+     */
+    public SpliceIndex(ExecutionIndexTrie trie, List<Input> inputs) {
+        this.trie = trie;
+        this.inputs = inputs;
+        Arrays.fill(locations, EMPTY);
+    }
+
+    /**
+     * Adds all locations of an executed input, unless the input is
+     * already in the index.
+     *
+     * @param input a saved input
+     */
+    public void add(Input input) {
+        int id = input.getId();
+        if (indexed.get(id)) {
+            return;
+        }
+        indexed.set(id);
+        for (int offset = 0; offset < input.size(); offset++) {
+            int ec = trie.getContext(input.getNodeAtOffset(offset));
+            append(ec, ((long) id << 32) | offset);
+        }
+    }
+
+    /**
+     * Returns whether the locations of an input are in the index.
+     *
+     * @param input a saved input
+     * @return whether the input has been added and not removed
+     */
+    public boolean contains(Input input) {
+        return indexed.get(input.getId());
+    }
+
+    /**
+     * Removes all locations of a set of inputs.
+     *
+     * <p>This takes a single pass over the index, so callers should
+     * remove inputs in batches.</p>
+     *
+     * @param ids the IDs of the inputs to remove
+     */
+    public void removeAll(BitSet ids) {
+        if (!ids.intersects(indexed)) {
+            return;
+        }
+        for (int ec = 0; ec < counts.length; ec++) {
+            long[] array = locations[ec];
+            int kept = 0;
+            for (int i = 0; i < counts[ec]; i++) {
+                if (!ids.get((int) (array[i] >>> 32))) {
+                    array[kept++] = array[i];
+                }
+            }
+            counts[ec] = kept;
+        }
+        indexed.andNot(ids);
+    }
+
+    /**
+     * Returns the number of locations with an execution context.
+     *
+     * @param ec an execution context node
+     * @return the number of locations in the index with that context
+     */
+    public int size(int ec) {
+        return ec < counts.length ? counts[ec] : 0;
+    }
+
+    /**
+     * Returns a location with an execution context.
+     *
+     * @param ec an execution context node
+     * @param i  the index of the location, between 0 and {@link #size}(ec)-1
+     * @return the i-th location with context <tt>ec</tt>
+     */
+    public InputLocation get(int ec, int i) {
+        if (i >= size(ec)) {
+            throw new IndexOutOfBoundsException(i + " >= " + size(ec));
+        }
+        long location = locations[ec][i];
+        return new InputLocation(inputs.get((int) (location >>> 32)), (int) location);
+    }
+
+    private void append(int ec, long location) {
+        if (ec >= counts.length) {
+            int oldLength = counts.length;
+            int newLength = Math.max(ec + 1, oldLength * 2);
+            locations = Arrays.copyOf(locations, newLength);
+            Arrays.fill(locations, oldLength, newLength, EMPTY);
+            counts = Arrays.copyOf(counts, newLength);
+        }
+        long[] array = locations[ec];
+        if (counts[ec] == array.length) {
+            array = locations[ec] = Arrays.copyOf(array, Math.max(4, array.length * 2));
+        }
+        array[counts[ec]++] = location;
+    }
+}
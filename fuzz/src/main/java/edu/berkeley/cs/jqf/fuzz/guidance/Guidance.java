@@ -165,6 +165,41 @@ public interface Guidance {
      */
     Consumer<TraceEvent> generateCallBack(Thread thread);
 
+    /**
+     * Returns whether this guidance supports fuzzing with several
+     * threads at once.
+     *
+     * <p>If so, {@link #hasInput()}, {@link #getInput()} and
+     * {@link #handleResult(Result, Throwable)} may be invoked
+     * concurrently by different threads, each of which invokes
+     * {@link #handleResult(Result, Throwable)} exactly once after
+     * each of its own invocations of {@link #getInput()}. Also,
+     * {@link #generateCallBack(Thread)} is invoked once for each
+     * fuzzing thread.
+     *
+     * @return whether this guidance may be used by multiple fuzzing
+     *         threads at once (<tt>false</tt> by default)
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Returns the time limit for a single run.
+     *
+     * <p>A run that takes longer is aborted by the
+     * {@link edu.berkeley.cs.jqf.fuzz.util.TimeoutWatchdog} and
+     * reported to {@link #handleResult(Result, Throwable)} as
+     * {@link Result#TIMEOUT}. By default, the limit is given by the
+     * property <tt>jqf.TIMEOUT</tt>, in milliseconds.
+     *
+     * @return the time limit for a single run in milliseconds, or
+     *         zero if runs are not timed
+     */
+    default long getSingleRunTimeoutMillis() {
+        return Long.getLong("jqf.TIMEOUT", 0);
+    }
+
 
     static InputStream createInputStream(Supplier<Integer> inputByteSource) {
         return new InputStream() {
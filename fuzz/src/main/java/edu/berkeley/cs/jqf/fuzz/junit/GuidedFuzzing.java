@@ -32,6 +32,8 @@ import java.io.PrintStream;
 
 import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
 import edu.berkeley.cs.jqf.fuzz.JQF;
+import edu.berkeley.cs.jqf.fuzz.util.TimeoutWatchdog;
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeMap;
 import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
 import org.junit.internal.TextListener;
 import org.junit.internal.runners.ErrorReportingRunner;
@@ -45,6 +47,8 @@ public class GuidedFuzzing {
 
     private static Guidance guidance;
 
+    private static int numThreads = 1;
+
     public static long DEFAULT_MAX_TRIALS = 100;
 
     private static void setGuidance(Guidance g) {
@@ -65,6 +69,18 @@ public class GuidedFuzzing {
 
     private static void unsetGuidance() {
         guidance = null;
+        numThreads = 1;
+    }
+
+    /**
+     * Returns the number of threads that execute trials in the
+     * currently running guided fuzzing loop.
+     *
+     * @return the number of fuzzing threads, which is 1 unless
+     *         fuzzing was started with more threads
+     */
+    public static int getNumThreads() {
+        return numThreads;
     }
 
 
@@ -120,10 +136,38 @@ public class GuidedFuzzing {
     public synchronized static Result run(String testClassName, String testMethod,
                                         ClassLoader loader,
                                         Guidance guidance, PrintStream out) throws ClassNotFoundException, IllegalStateException {
+        return run(testClassName, testMethod, loader, guidance, out, 1);
+    }
+
+    /**
+     * Runs the guided fuzzing loop with several threads, using a provided
+     * classloader to load test-application classes.
+     *
+     * <p>This is the same as {@link #run(String, String, ClassLoader, Guidance, PrintStream)},
+     * except that <tt>numThreads</tt> threads execute trials concurrently,
+     * each with its own generators and trace. This requires a guidance
+     * that is {@link Guidance#isThreadSafe() thread-safe}, and an
+     * instrumentation that traces events (rather than a shared edge map).</p>
+     *
+     * @param testClassName the test class containing the test method
+     * @param testMethod    the test method to execute in the fuzzing loop
+     * @param loader        the classloader to load the test class with
+     * @param guidance      the fuzzing guidance
+     * @param out           an output stream to log Junit messages
+     * @param numThreads    the number of threads that execute trials
+     * @throws ClassNotFoundException if testClassName cannot be loaded
+     * @throws IllegalStateException if a guided fuzzing run is currently executing
+     * @throws IllegalArgumentException if the guidance or instrumentation does not
+     *                                  support <tt>numThreads</tt> threads
+     * @return the Junit-style test result
+     */
+    public synchronized static Result run(String testClassName, String testMethod,
+                                          ClassLoader loader, Guidance guidance, PrintStream out,
+                                          int numThreads) throws ClassNotFoundException, IllegalStateException {
         Class<?> testClass =
                 java.lang.Class.forName(testClassName, true, loader);
 
-        return run(testClass, testMethod, guidance, out);
+        return run(testClass, testMethod, guidance, out, numThreads);
     }
 
 
@@ -148,6 +192,26 @@ public class GuidedFuzzing {
      */
     public synchronized static Result run(Class<?> testClass, String testMethod,
                                           Guidance guidance, PrintStream out) throws IllegalStateException {
+        return run(testClass, testMethod, guidance, out, 1);
+    }
+
+    /**
+     * Runs the guided fuzzing loop for a resolved class with several threads.
+     *
+     * @param testClass     the test class containing the test method
+     * @param testMethod    the test method to execute in the fuzzing loop
+     * @param guidance      the fuzzing guidance
+     * @param out           an output stream to log Junit messages
+     * @param numThreads    the number of threads that execute trials
+     * @throws IllegalStateException if a guided fuzzing run is currently executing
+     * @throws IllegalArgumentException if the guidance or instrumentation does not
+     *                                  support <tt>numThreads</tt> threads
+     * @return the Junit-style test result
+     * @see #run(String, String, ClassLoader, Guidance, PrintStream, int)
+     */
+    public synchronized static Result run(Class<?> testClass, String testMethod,
+                                          Guidance guidance, PrintStream out,
+                                          int numThreads) throws IllegalStateException {
 
         // Ensure that the class uses the right test runner
         RunWith annotation = testClass.getAnnotation(RunWith.class);
@@ -156,11 +220,29 @@ public class GuidedFuzzing {
         }
 
 
+        // Ensure that the trials can run concurrently
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + numThreads);
+        }
+        if (numThreads > 1 && !guidance.isThreadSafe()) {
+            throw new IllegalArgumentException(guidance.getClass().getName() +
+                    " does not support multi-threaded fuzzing");
+        }
+        if (numThreads > 1 && EdgeMap.isEnabled()) {
+            throw new IllegalArgumentException("Edge-map instrumentation does not support multi-threaded fuzzing");
+        }
+
         // Set the static guided instance
         setGuidance(guidance);
+        GuidedFuzzing.numThreads = numThreads;
 
-        // Register callback
-        SingleSnoop.setCallbackGenerator(guidance::generateCallBack);
+        // Register callback, which also aborts runs that have timed out
+        if (guidance.getSingleRunTimeoutMillis() > 0) {
+            SingleSnoop.setCallbackGenerator((thread) ->
+                    TimeoutWatchdog.wrapCallback(thread, guidance.generateCallBack(thread)));
+        } else {
+            SingleSnoop.setCallbackGenerator(guidance::generateCallBack);
+        }
 
         // Create a JUnit Request
         Request testRequest = Request.method(testClass, testMethod);
@@ -29,11 +29,13 @@
 package edu.berkeley.cs.jqf.fuzz.junit.quickcheck;
 
 import java.io.File;
+import java.io.InputStream;
 import java.lang.reflect.Executable;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -49,9 +51,13 @@ import edu.berkeley.cs.jqf.fuzz.random.NoGuidance;
 import edu.berkeley.cs.jqf.fuzz.repro.ReproGuidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
+import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
 import edu.berkeley.cs.jqf.fuzz.Fuzz;
 import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
 import edu.berkeley.cs.jqf.fuzz.junit.TrialRunner;
+import edu.berkeley.cs.jqf.fuzz.util.TimeoutWatchdog;
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeMap;
+import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
 import org.junit.AssumptionViolatedException;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.MultipleFailureException;
@@ -74,7 +80,10 @@ public class FuzzStatement extends Statement {
     private final Map<String, Type> typeVariables;
     private final GeneratorRepository generatorRepository;
     private final List<Class<?>> expectedExceptions;
-    private final List<Throwable> failures = new ArrayList<>();
+    private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+    /** Set when a fuzzing thread stops due to an error, so that the others stop too. */
+    private volatile boolean stopped = false;
 
     public FuzzStatement(FrameworkMethod method, TestClass testClass,
                          GeneratorRepository generatorRepository) {
@@ -97,14 +106,9 @@ public class FuzzStatement extends Statement {
      */
     @Override
     public void evaluate() throws Throwable {
-        // Construct generators for each parameter
-        List<Generator<?>> generators = Arrays.stream(method.getMethod().getParameters())
-                .map(this::createParameterTypeContext)
-                .map(this::produceGenerator)
-                .collect(Collectors.toList());
-
         // Get the currently registered fuzz guidance
         Guidance guidance = GuidedFuzzing.getCurrentGuidance();
+        int numThreads = GuidedFuzzing.getNumThreads();
 
         // If nothing is set, default to random or repro
         if (guidance == null) {
@@ -115,23 +119,117 @@ public class FuzzStatement extends Statement {
             } else {
                 guidance = new ReproGuidance(new File(repro), null);
             }
+            numThreads = 1;
+        }
+
+        if (numThreads == 1) {
+            fuzz(guidance, createGenerators());
+        } else {
+            fuzzInParallel(guidance, numThreads);
+        }
+
+        if (failures.size() > 0) {
+            if (failures.size() == 1) {
+                throw failures.get(0);
+            } else {
+                // Not sure if we should report each failing run,
+                // as there may be duplicates
+                throw new MultipleFailureException(failures);
+            }
+        }
+
+    }
+
+    /**
+     * Runs the fuzzing loop on this thread and <tt>numThreads - 1</tt>
+     * other threads, until all of them stop.
+     *
+     * @param guidance   the thread-safe guidance shared by all threads
+     * @param numThreads the total number of fuzzing threads
+     * @throws Throwable if a fuzzing thread was terminated by an error
+     */
+    private void fuzzInParallel(Guidance guidance, int numThreads) throws Throwable {
+        // The other threads trace the same entry point as this one
+        String entryPoint = testClass.getName() + "#" + method.getName();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 1; i < numThreads; i++) {
+            // Generators have state, so each thread gets its own
+            List<Generator<?>> generators = createGenerators();
+            Thread worker = new Thread(() -> {
+                SingleSnoop.startSnooping(entryPoint);
+                fuzz(guidance, generators);
+            }, "jqf-fuzz-" + i);
+            worker.setUncaughtExceptionHandler((t, e) -> {
+                errors.add(e);
+                stopped = true;
+            });
+            workers.add(worker);
+        }
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            fuzz(guidance, createGenerators());
+        } catch (Throwable e) {
+            stopped = true;
+            throw e;
+        } finally {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        if (errors.size() > 0) {
+            throw errors.get(0);
         }
+    }
+
+    private List<Generator<?>> createGenerators() {
+        // Construct generators for each parameter
+        return Arrays.stream(method.getMethod().getParameters())
+                .map(this::createParameterTypeContext)
+                .map(this::produceGenerator)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Runs the fuzzing loop on the current thread, until the guidance
+     * has no more inputs or fuzzing is stopped.
+     *
+     * <p>Each run, from input generation to the end of the trial, is
+     * timed by the {@link TimeoutWatchdog}. Runs that exceed the
+     * guidance's time limit are reported as {@link Result#TIMEOUT},
+     * regardless of how they ended.</p>
+     *
+     * @param guidance   the guidance
+     * @param generators the generators for each parameter of the test method
+     */
+    private void fuzz(Guidance guidance, List<Generator<?>> generators) {
+        TimeoutWatchdog.Timer timer = TimeoutWatchdog.getTimer(Thread.currentThread());
+        long timeoutMillis = guidance.getSingleRunTimeoutMillis();
 
         // Keep fuzzing until no more input or I/O error with guidance
         try {
 
             // Keep fuzzing as long as guidance wants to
-            while (guidance.hasInput()) {
+            while (!stopped && guidance.hasInput()) {
                 Result result = INVALID;
                 Throwable error = null;
 
+                // Discard the call stack of a previous run that was aborted midway
+                SingleSnoop.resetTracing();
+
                 // Initialize guided fuzzing using a file-backed random number source
                 try {
                     Object[] args;
                     try {
 
                         // Generate input values
-                        StreamBackedRandom randomFile = new StreamBackedRandom(guidance.getInput(), Long.BYTES);
+                        InputStream input = guidance.getInput();
+                        timer.start(timeoutMillis);
+                        StreamBackedRandom randomFile = new StreamBackedRandom(input, Long.BYTES);
                         SourceOfRandomness random = new FastSourceOfRandomness(randomFile);
                         GenerationStatus genStatus = new NonTrackingGenerationStatus(random);
                         args = generators.stream()
@@ -148,11 +246,19 @@ public class FuzzStatement extends Statement {
                     } catch (GuidanceException e) {
                         // Throw the guidance exception outside to stop fuzzing
                         throw e;
+                    } catch (TimeoutException e) {
+                        // Generation has timed out, which is reported like a timeout of the trial
+                        throw e;
                     } catch (Throwable e) {
                         // Throw the guidance exception outside to stop fuzzing
                         throw new GuidanceException(e);
                     } finally {
                         // System.out.println(randomFile.getTotalBytesRead() + " random bytes read");
+
+                        // Discard edges hit by the generators, so that only the trial is measured
+                        if (EdgeMap.isEnabled()) {
+                            EdgeMap.reset();
+                        }
                     }
 
                     // Attempt to run the trial
@@ -166,6 +272,9 @@ public class FuzzStatement extends Statement {
                 } catch (AssumptionViolatedException e) {
                     result = INVALID;
                     error = e;
+                } catch (TimeoutException e) {
+                    result = TIMEOUT;
+                    error = e;
                 } catch (Throwable e) {
 
                     // Check if this exception was expected
@@ -174,9 +283,19 @@ public class FuzzStatement extends Statement {
                     } else {
                         result = FAILURE;
                         error = e;
-                        failures.add(e);
                     }
                 } finally {
+                    // A run that timed out may have ended in any way, e.g. by being interrupted
+                    if (timer.stop()) {
+                        result = TIMEOUT;
+                        if (!(error instanceof TimeoutException)) {
+                            error = new TimeoutException(timer.getElapsedMillis(), timer.getLimitMillis());
+                        }
+                    }
+                    if (result == FAILURE) {
+                        failures.add(error);
+                    }
+
                     // Inform guidance about the outcome of this trial
                     guidance.handleResult(result, error);
                 }
@@ -184,20 +303,10 @@ public class FuzzStatement extends Statement {
 
             }
         } catch (GuidanceException e) {
+            stopped = true;
             System.err.println("Fuzzing stopped due to guidance exception: " + e.getMessage());
             e.printStackTrace();
         }
-
-        if (failures.size() > 0) {
-            if (failures.size() == 1) {
-                throw failures.get(0);
-            } else {
-                // Not sure if we should report each failing run,
-                // as there may be duplicates
-                throw new MultipleFailureException(failures);
-            }
-        }
-
     }
 
     /**
@@ -37,6 +37,7 @@ import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeMap;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 
 /**
@@ -102,6 +103,11 @@ public class NoGuidance implements Guidance {
     public void handleResult(Result result, Throwable error) {
         numTrials++;
 
+        // Collect coverage from the inline edge map, if used instead of events
+        if (EdgeMap.isEnabled()) {
+            EdgeMap.drain(coverage::addEdgeCount);
+        }
+
         // Display error stack trace in case of failure
         if (result == Result.FAILURE) {
             if (out != null) {
@@ -141,6 +147,14 @@ public class NoGuidance implements Guidance {
         return coverage::handleEvent;
     }
 
+    /**
+     * Returns the number of trials executed so far.
+     * @return the number of trials executed so far
+     */
+    public long getNumTrials() {
+        return numTrials;
+    }
+
     /**
      * Returns a reference to the coverage statistics.
      * @return a reference to the coverage statistics
@@ -29,6 +29,9 @@
 
 package edu.berkeley.cs.jqf.fuzz.random;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
 import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
 
 /**
@@ -50,9 +53,18 @@ public class RandomDriver {
             // Load the guidance
             NoGuidance guidance = new NoGuidance(maxTrials, System.err);
 
+            long startBytes = getAllocatedBytes();
+
             // Run the Junit test
             GuidedFuzzing.run(testClassName, testMethodName, guidance, System.out);
 
+            if (Boolean.getBoolean("jqf.logAllocations")) {
+                long allocatedBytes = getAllocatedBytes() - startBytes;
+                System.out.println(String.format("Allocated %d bytes in %d trials (%d bytes/trial).",
+                        allocatedBytes, guidance.getNumTrials(),
+                        allocatedBytes / Math.max(1, guidance.getNumTrials())));
+            }
+
             if (Boolean.getBoolean("jqf.logCoverage")) {
                 System.out.println(String.format("Covered %d edges.",
                         guidance.getCoverage().getNonZeroCount()));
@@ -64,4 +76,14 @@ public class RandomDriver {
         }
 
     }
+
+    /** Returns the number of bytes allocated by this thread so far, or 0 if unsupported. */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return 0;
+        }
+    }
 }
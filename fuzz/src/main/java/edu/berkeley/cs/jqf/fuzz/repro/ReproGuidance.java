@@ -65,7 +65,7 @@ public class ReproGuidance implements Guidance {
     private int nextFileIdx = 0;
     private List<PrintStream> traceStreams = new ArrayList<>();
     private InputStream inputStream;
-    private Coverage coverage = new Coverage();
+    private Coverage coverage = Coverage.exact();
 
     private Set<String> branchesCovered;
     HashMap<Integer, String> branchDescCache = new HashMap<>();
@@ -156,6 +156,13 @@ public class ReproGuidance implements Guidance {
             error.printStackTrace();
         }
 
+        // Show timeouts, which are not failures of the test itself
+        if (result == Result.TIMEOUT) {
+            File inputFile = inputFiles[nextFileIdx];
+            System.err.println(inputFile.getName() + ": Test run timed out");
+            error.printStackTrace();
+        }
+
         // Increment file
         nextFileIdx++;
 
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes files on a background thread, so that fuzzing is not slowed
+ * down by file-system latency.
+ *
+ * <p>Writes are queued in a bounded queue; if the queue is full, callers
+ * block until the background thread catches up. The background thread
+ * processes queued writes in batches and in order. Files that lines are
+ * appended to are kept open and buffered, and are flushed every
+ * <tt>flushIntervalMillis</tt>, on {@link #flush()}, and on {@link #close()}.
+ * Whole files (such as saved inputs) are written as soon as they are
+ * dequeued, via a temporary file that is atomically renamed, so that other
+ * processes never see a partially written file.</p>
+ *
+ * <p>An error in the background thread does not stop it; the first such
+ * error is instead thrown by the next call to any method of this class.
+ * Outstanding writes are also flushed when the JVM shuts down.</p>
+ */
+public class AsyncFileWriter implements Closeable {
+
+    /** The maximum number of writes that are not yet processed. */
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final long flushIntervalMillis;
+    private final Thread thread;
+    private final Thread shutdownHook;
+
+    /** Open files that lines are appended to; only used by the background thread. */
+    private final Map<File, Writer> appenders = new HashMap<>();
+
+    private volatile IOException error;
+    private boolean closed = false;
+
+    /**
+     * Creates a writer and starts its background thread.
+     *
+     * @param flushIntervalMillis the maximum time for which appended lines
+     *                            are buffered, in milliseconds
+     */
+    public AsyncFileWriter(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.thread = new Thread(this::run, "jqf-io");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        this.shutdownHook = new Thread(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                // Nothing more can be done during shutdown
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Appends a line to a file.
+     *
+     * @param file the file to append to, which is created if needed
+     * @param line the line to append, without a line separator
+     * @throws IOException if a previous write failed
+     */
+    public void appendLine(File file, String line) throws IOException {
+        enqueue(new Task(file, line, null, null));
+    }
+
+    /**
+     * Writes a file, replacing its contents.
+     *
+     * @param file     the file to write
+     * @param contents the contents to write, which must not be modified afterwards
+     * @throws IOException if a previous write failed
+     */
+    public void write(File file, byte[] contents) throws IOException {
+        enqueue(new Task(file, null, contents, null));
+    }
+
+    /**
+     * Blocks until all writes queued so far have reached the file system.
+     *
+     * <p>Once the writer is closed, everything has already been written,
+     * so this only reports any error.</p>
+     *
+     * @throws IOException if a write failed
+     */
+    public void flush() throws IOException {
+        checkError();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        drain();
+        checkError();
+    }
+
+    /**
+     * Flushes all queued writes, closes all files and stops the background thread.
+     *
+     * @throws IOException if a write failed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                drain();
+            } finally {
+                closed = true;
+            }
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down
+        }
+        checkError();
+    }
+
+    private void enqueue(Task task) throws IOException {
+        checkError();
+        put(task);
+    }
+
+    // Waits until the background thread has processed everything queued so far
+    private void drain() throws IOException {
+        CountDownLatch done = new CountDownLatch(1);
+        put(new Task(null, null, null, done));
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void put(Task task) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Writer is closed");
+            }
+        }
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void checkError() throws IOException {
+        IOException e = error;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private void run() {
+        List<Task> batch = new ArrayList<>();
+        long nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+        try {
+            while (true) {
+                long timeout = Math.max(0, nextFlush - System.currentTimeMillis());
+                Task first = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (Task task : batch) {
+                        process(task);
+                    }
+                    batch.clear();
+                }
+                if (System.currentTimeMillis() >= nextFlush) {
+                    flushAppenders();
+                    nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed; everything was flushed before the interrupt
+        } finally {
+            for (Writer out : appenders.values()) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    recordError(e);
+                }
+            }
+            appenders.clear();
+        }
+    }
+
+    private void process(Task task) {
+        try {
+            if (task.done != null) {
+                flushAppenders();
+            } else if (task.line != null) {
+                Writer out = appenders.get(task.file);
+                if (out == null) {
+                    out = new BufferedWriter(new FileWriter(task.file, true));
+                    appenders.put(task.file, out);
+                }
+                out.write(task.line);
+                out.write(System.lineSeparator());
+            } else {
+                File dir = task.file.getAbsoluteFile().getParentFile();
+                File tmp = File.createTempFile("." + task.file.getName(), ".tmp", dir);
+                try {
+                    try (FileOutputStream out = new FileOutputStream(tmp)) {
+                        out.write(task.contents);
+                    }
+                    Files.move(tmp.toPath(), task.file.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    tmp.delete();
+                }
+            }
+        } catch (IOException e) {
+            recordError(e);
+        } finally {
+            if (task.done != null) {
+                task.done.countDown();
+            }
+        }
+    }
+
+    private void flushAppenders() {
+        for (Writer out : appenders.values()) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                recordError(e);
+            }
+        }
+    }
+
+    private void recordError(IOException e) {
+        if (error == null) {
+            error = e;
+        }
+    }
+
+    private static class Task {
+        final File file;
+        final String line;
+        final byte[] contents;
+        final CountDownLatch done;
+
+        Task(File file, String line, byte[] contents, CountDownLatch done) {
+            this.file = file;
+            this.line = line;
+            this.contents = contents;
+            this.done = done;
+        }
+    }
+}
@@ -31,6 +31,7 @@ package edu.berkeley.cs.jqf.fuzz.util;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 /**
  * Maps integer keys to integer counts using a fixed-size table.
@@ -38,6 +39,11 @@ import java.util.List;
  * <p>Hash collisions are completely ignored; therefore, the counts
  * are unreliable.</p>
  *
+ * <p>If the size is a power of two, keys are hashed with
+ * {@link Hashing#fibonacci(long, int)}, which is cheaper than the
+ * modulus used for other sizes. Callers that care about per-increment
+ * cost should therefore pick a power-of-two size.</p>
+ *
  * <p>Throughout the internal documentation, the term "key" is used
  * to refer to the keys that are hashed, while "index" is used to
  * the result of key-hashing, i.e. the location in the internal
@@ -53,6 +59,9 @@ public class Counter {
     /** The counter map as an array of integers. */
     protected final int[] counts;
 
+    /** The base-2 logarithm of the size if it is a power of two, else -1. */
+    private final int log2Size;
+
     /**
      * Creates a new counter with given size.
      *
@@ -61,6 +70,7 @@ public class Counter {
     public Counter(int size) {
         this.size = size;
         this.counts = new int[size];
+        this.log2Size = Hashing.log2IfPowerOfTwo(size);
     }
 
     /**
@@ -82,7 +92,11 @@ public class Counter {
     }
 
     private int idx(int key) {
-        return Hashing.hash(key, size);
+        if (log2Size > 0) {
+            return Hashing.fibonacci(key, log2Size);
+        } else {
+            return Hashing.hash(key, size);
+        }
     }
 
     protected int incrementAtIndex(int index, int delta) {
@@ -156,6 +170,22 @@ public class Counter {
         return indices;
     }
 
+    /**
+     * Performs an action for each index at which the count is non-zero.
+     *
+     * <p>Unlike {@link #getNonZeroIndices()}, this method does not
+     * box or allocate a collection.</p>
+     *
+     * @param action the action to perform on each index
+     */
+    public void forEachNonZeroIndex(IntConsumer action) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                action.accept(i);
+            }
+        }
+    }
+
     /**
      * Returns a set of non-zero count values in this counter.
      *
@@ -172,6 +202,23 @@ public class Counter {
         return values;
     }
 
+    /**
+     * Performs an action for each non-zero count value in this counter.
+     *
+     * <p>Unlike {@link #getNonZeroValues()}, this method does not
+     * box or allocate a collection.</p>
+     *
+     * @param action the action to perform on each value
+     */
+    public void forEachNonZeroValue(IntConsumer action) {
+        for (int i = 0; i < counts.length; i++) {
+            int count = counts[i];
+            if (count != 0) {
+                action.accept(count);
+            }
+        }
+    }
+
     /**
      * Retreives a value for a given key.
      *
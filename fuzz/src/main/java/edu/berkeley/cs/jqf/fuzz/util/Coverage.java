@@ -28,9 +28,10 @@
  */
 package edu.berkeley.cs.jqf.fuzz.util;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.function.IntConsumer;
 
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeMap;
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
@@ -39,39 +40,92 @@ import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEventVisitor;
 /**
  * Utility class to collect branch and function coverage
  *
+ * <p>A coverage map created with {@link #Coverage()} is meant for
+ * collecting the coverage of a single run: it is a fixed-size
+ * {@link DirectCounter}, so that each event costs a single array update,
+ * and edges that hash to the same slot are merged. Its size can be
+ * configured via the system property <tt>jqf.coverage.RUN_MAP_SIZE</tt>.</p>
+ *
+ * <p>Maps that accumulate coverage across many runs, or that are kept
+ * around as snapshots, should instead be created with {@link #exact()}
+ * or {@link #Coverage(Coverage)}. These use a {@link GrowableCounter},
+ * so that small targets use a small map, large targets do not saturate
+ * it, and edges are never merged. The initial size and the occupancy
+ * threshold at which the map grows can be configured via the system
+ * properties <tt>jqf.coverage.MAP_SIZE</tt> and <tt>jqf.coverage.MAX_LOAD</tt>
+ * (a percentage).</p>
+ *
  * @author Rohan Padhye
  */
 public class Coverage implements TraceEventVisitor {
 
-    /** The size of the coverage map. */
-    private final int COVERAGE_MAP_SIZE = (1 << 16) - 1; // Minus one to reduce collisions
+    /** The size of the coverage map for a single run. */
+    static final int RUN_MAP_SIZE = Integer.getInteger("jqf.coverage.RUN_MAP_SIZE", 1 << 16); // Power of two for fast hashing
+
+    /** The initial size of an exact coverage map. */
+    static final int INITIAL_MAP_SIZE = Integer.getInteger("jqf.coverage.MAP_SIZE", 1 << 12); // Power of two for fast hashing
+
+    /** The percentage of occupied slots at which an exact coverage map grows. */
+    static final int MAX_LOAD_PERCENT = Integer.getInteger("jqf.coverage.MAX_LOAD", 50);
 
     /** The coverage counts for each edge. */
-    private final Counter counter = new NonZeroCachingCounter(COVERAGE_MAP_SIZE);
+    private final KeyedCounter counter;
 
-    /** Creates a new coverage map. */
+    /** Creates a new coverage map for collecting the coverage of a run. */
     public Coverage() {
+        this.counter = new DirectCounter(RUN_MAP_SIZE);
+    }
 
+    private Coverage(KeyedCounter counter) {
+        this.counter = counter;
+    }
+
+    /**
+     * Creates a new, growable coverage map that never merges edges.
+     *
+     * @return an empty exact coverage map
+     */
+    public static Coverage exact() {
+        return new Coverage(new GrowableCounter(INITIAL_MAP_SIZE, MAX_LOAD_PERCENT));
     }
 
     /**
-     * Creates a copy of an existing coverage map.
+     * Creates a compact, exact copy of an existing coverage map.
+     *
+     * <p>The copy only stores the covered edges of <tt>that</tt>,
+     * so it is cheap to keep one per saved input.</p>
      *
      * @param that the coverage map to copy
      */
     public Coverage(Coverage that) {
-        for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
-            this.counter.setAtIndex(idx, that.counter.getAtIndex(idx));
-        }
+        this.counter = new GrowableCounter(that.counter, MAX_LOAD_PERCENT);
     }
 
     /**
-     * Returns the size of the coverage map.
+     * Returns the current size of the coverage map.
+     *
+     * <p>Exact maps grow as more edges are covered, so this value
+     * may change over time.</p>
      *
      * @return the size of the coverage map
      */
     public int size() {
-        return COVERAGE_MAP_SIZE;
+        return counter.capacity();
+    }
+
+    /**
+     * Returns the number of covered edges that are not stored at their
+     * home location in the map due to hash collisions.
+     *
+     * <p>In exact maps, collisions do not merge edges, but each one costs
+     * an extra probe on lookup; a high value suggests a larger
+     * <tt>jqf.coverage.MAP_SIZE</tt> or a lower <tt>jqf.coverage.MAX_LOAD</tt>.
+     * Run maps merge colliding edges instead, and always return zero.</p>
+     *
+     * @return the number of displaced edges
+     */
+    public int getCollisionCount() {
+        return counter.getDisplacedCount();
     }
 
     /**
@@ -96,6 +150,21 @@ public class Coverage implements TraceEventVisitor {
         counter.increment(e.getIid());
     }
 
+    /**
+     * Updates coverage information with the count of an edge recorded
+     * in an {@link EdgeMap} by code instrumented with the
+     * <tt>edgemap</tt> profile, which does not emit trace events.
+     *
+     * <p>This is meant to be passed to
+     * {@link EdgeMap#drain(EdgeMap.CountConsumer)} after each run.</p>
+     *
+     * @param index the index of the edge in the edge map
+     * @param count the 8-bit hit count of the edge
+     */
+    public void addEdgeCount(int index, int count) {
+        counter.increment(index, count);
+    }
+
     /**
      * Returns the number of edges covered.
      *
@@ -108,22 +177,47 @@ public class Coverage implements TraceEventVisitor {
     /**
      * Returns a collection of branches that are covered.
      *
+     * <p>The returned keys identify edges independently of the current
+     * size of the map, so they remain valid after the map grows.</p>
+     *
      * @return a collection of keys that are covered
      */
     public Collection<?> getCovered() {
-        return counter.getNonZeroIndices();
+        return counter.getNonZeroKeys();
+    }
+
+    /**
+     * Performs an action on the key of each covered branch, without boxing.
+     *
+     * @param action the action to perform on each key returned by {@link #getCovered()}
+     */
+    public void forEachCovered(IntConsumer action) {
+        IntList indices = counter.getNonZeroIndices();
+        for (int i = 0; i < indices.size(); i++) {
+            action.accept(counter.keyAtIndex(indices.get(i)));
+        }
     }
 
 
-    public Collection<?> computeNewCoverage(Coverage baseline) {
-        Collection<Integer> newCoverage = new ArrayList<>();
-        for (int idx : this.counter.getNonZeroIndices()) {
-            if (baseline.counter.getAtIndex(idx) == 0) {
-                newCoverage.add(idx);
+    /**
+     * Computes the branches covered here but not in a baseline, without boxing.
+     *
+     * <p>The result list is cleared first, so that callers can reuse
+     * it across runs.</p>
+     *
+     * @param baseline the coverage to compare against
+     * @param newCoverage the list to fill with the keys (as returned by
+     *                    {@link #getCovered()}) of newly covered branches
+     */
+    public void computeNewCoverage(Coverage baseline, IntList newCoverage) {
+        newCoverage.clear();
+        IntList indices = this.counter.getNonZeroIndices();
+        for (int i = 0; i < indices.size(); i++) {
+            int key = this.counter.keyAtIndex(indices.get(i));
+            if (baseline.counter.get(key) == 0) {
+                newCoverage.add(key);
             }
         }
-        return newCoverage;
-
     }
 
 
@@ -178,11 +272,16 @@ public class Coverage implements TraceEventVisitor {
      */
     public boolean updateBits(Coverage that) {
         boolean changed = false;
-        for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
-            int before = this.counter.getAtIndex(idx);
-            int after = before | hob(that.counter.getAtIndex(idx));
+        // Only visit the entries that are set in the run
+        IntList indices = that.counter.getNonZeroIndices();
+        for (int i = 0; i < indices.size(); i++) {
+            int idx = indices.get(i);
+            int count = that.counter.getAtIndex(idx);
+            int key = that.counter.keyAtIndex(idx);
+            int before = this.counter.get(key);
+            int after = before | hob(count);
             if (after != before) {
-                this.counter.setAtIndex(idx, after);
+                this.counter.set(key, after);
                 changed = true;
             }
         }
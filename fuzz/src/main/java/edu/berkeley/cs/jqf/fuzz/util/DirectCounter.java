@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+/**
+ * Maps integer keys to integer counts using a fixed-size, directly
+ * indexed table.
+ *
+ * <p>Like {@link Counter}, each key is hashed straight to an index and
+ * keys that collide share a count, so an increment costs one hash and
+ * one array update. Unlike {@link Counter}, the first key to occupy each
+ * index is remembered along with the list of occupied indices, so that
+ * non-zero entries can be visited and cleared in time proportional to
+ * their number, and copied into a {@link GrowableCounter} by key.</p>
+ *
+ * <p>This makes it suitable for counts that are collected on a hot path
+ * and cleared often, such as the coverage of a single run.</p>
+ */
+public class DirectCounter extends KeyedCounter {
+
+    /** The first key stored at each index; only meaningful where the count is non-zero. */
+    private final int[] keys;
+
+    /** The counts at each index; zero for unoccupied slots. */
+    private final int[] counts;
+
+    /** The base-2 logarithm of the table size if it is a power of two, else -1. */
+    private final int log2Size;
+
+    /** The indices of occupied slots, for fast clearing. */
+    private final IntList nonZeroIndices = new IntList();
+
+    /**
+     * Creates a new counter.
+     *
+     * @param size the number of slots
+     */
+    public DirectCounter(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Size must be positive: " + size);
+        }
+        this.keys = new int[size];
+        this.counts = new int[size];
+        this.log2Size = Hashing.log2IfPowerOfTwo(size);
+    }
+
+    private int idx(int key) {
+        if (log2Size > 0) {
+            return Hashing.fibonacci(key, log2Size);
+        } else {
+            return Hashing.hash(key, counts.length);
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return counts.length;
+    }
+
+    /**
+     * Returns zero, since colliding keys are merged rather than displaced.
+     *
+     * @return zero
+     */
+    @Override
+    public int getDisplacedCount() {
+        return 0;
+    }
+
+    @Override
+    public int increment(int key, int delta) {
+        int idx = idx(key);
+        int count = counts[idx];
+        if (count == 0) {
+            keys[idx] = key;
+            nonZeroIndices.add(idx);
+        }
+        return (counts[idx] = count + delta);
+    }
+
+    @Override
+    public int get(int key) {
+        return counts[idx(key)];
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < nonZeroIndices.size(); i++) {
+            counts[nonZeroIndices.get(i)] = 0;
+        }
+        nonZeroIndices.clear();
+    }
+
+    @Override
+    public IntList getNonZeroIndices() {
+        return nonZeroIndices;
+    }
+
+    @Override
+    public int keyAtIndex(int idx) {
+        return keys[idx];
+    }
+
+    @Override
+    public int getAtIndex(int idx) {
+        return counts[idx];
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+/**
+ * Maps integer keys to integer counts using a hashtable that grows
+ * as keys are added.
+ *
+ * <p>Unlike {@link Counter}, keys are stored alongside their counts
+ * and collisions are resolved by linear probing, so counts are exact.
+ * When the fraction of occupied slots exceeds a threshold, the table is
+ * (roughly) doubled in size and all keys are re-hashed. A zero count
+ * denotes an empty slot, so counts must only ever be incremented.</p>
+ *
+ * <p>If the initial size is a power of two, the table stays a power of
+ * two as it grows and keys are hashed with {@link Hashing#fibonacci(long, int)};
+ * otherwise it grows to <tt>2n+1</tt> slots and uses {@link Hashing#hash(long, int)}.</p>
+ *
+ * <p>As with {@link Counter}, "key" refers to the values that are hashed
+ * and "index" refers to a location in the internal array storage. Indices
+ * change when the table grows; keys do not.</p>
+ */
+public class GrowableCounter extends KeyedCounter {
+
+    /** The keys at each index; only meaningful where the count is non-zero. */
+    private int[] keys;
+
+    /** The counts at each index; zero for unoccupied slots. */
+    private int[] counts;
+
+    /** The base-2 logarithm of the table size in power-of-two mode, else -1. */
+    private int log2Size;
+
+    /** The maximum percentage of occupied slots before growing. */
+    private final int maxLoadPercent;
+
+    /** The indices of occupied slots, for fast clearing. */
+    private IntList nonZeroIndices = new IntList();
+
+    /** The number of keys not stored at their home index. */
+    private int displaced;
+
+    /**
+     * Creates a new counter.
+     *
+     * @param initialSize    the initial number of slots
+     * @param maxLoadPercent the maximum percentage of occupied slots
+     *                       before the table is grown
+     */
+    public GrowableCounter(int initialSize, int maxLoadPercent) {
+        if (initialSize < 1) {
+            throw new IllegalArgumentException("Initial size must be positive: " + initialSize);
+        }
+        if (maxLoadPercent < 1 || maxLoadPercent > 99) {
+            throw new IllegalArgumentException("Max load must be between 1 and 99: " + maxLoadPercent);
+        }
+        this.keys = new int[initialSize];
+        this.counts = new int[initialSize];
+        this.log2Size = Hashing.log2IfPowerOfTwo(initialSize);
+        this.maxLoadPercent = maxLoadPercent;
+    }
+
+    /**
+     * Creates a compact copy of an existing counter.
+     *
+     * <p>The copy is only as large as needed to hold the non-zero
+     * entries of <tt>that</tt>, which makes it cheap to keep many
+     * snapshots of sparse counters around.</p>
+     *
+     * @param that the counter to copy
+     */
+    public GrowableCounter(GrowableCounter that) {
+        this(that, that.maxLoadPercent, that.log2Size > 0);
+    }
+
+    /**
+     * Creates a compact, exact copy of any keyed counter.
+     *
+     * <p>This is how counts collected in a {@link DirectCounter} are
+     * snapshotted into a map that can later grow without merging keys.</p>
+     *
+     * @param that           the counter to copy
+     * @param maxLoadPercent the maximum percentage of occupied slots
+     *                       before the copy is grown
+     */
+    public GrowableCounter(KeyedCounter that, int maxLoadPercent) {
+        this(that, maxLoadPercent, true);
+    }
+
+    private GrowableCounter(KeyedCounter that, int maxLoadPercent, boolean powerOfTwo) {
+        if (maxLoadPercent < 1 || maxLoadPercent > 99) {
+            throw new IllegalArgumentException("Max load must be between 1 and 99: " + maxLoadPercent);
+        }
+        IntList thatIndices = that.getNonZeroIndices();
+        int n = thatIndices.size();
+        int size = n * 100 / maxLoadPercent + 1;
+        if (powerOfTwo) {
+            size = Math.max(2, Integer.highestOneBit(size - 1) << 1);
+            this.log2Size = Hashing.log2IfPowerOfTwo(size);
+        } else {
+            size = size | 1;
+            this.log2Size = -1;
+        }
+        this.keys = new int[size];
+        this.counts = new int[size];
+        this.maxLoadPercent = maxLoadPercent;
+        for (int i = 0; i < n; i++) {
+            int oldIdx = thatIndices.get(i);
+            int key = that.keyAtIndex(oldIdx);
+            int idx = find(key);
+            occupy(idx, key);
+            counts[idx] = that.getAtIndex(oldIdx);
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return counts.length;
+    }
+
+    @Override
+    public int getDisplacedCount() {
+        return displaced;
+    }
+
+    /** Returns the index at which a key is stored if there are no collisions. */
+    private int home(int key) {
+        if (log2Size > 0) {
+            return Hashing.fibonacci(key, log2Size);
+        } else {
+            return Hashing.hash(key, counts.length);
+        }
+    }
+
+    /** Returns the index of the slot holding key, or of the empty slot where it belongs. */
+    private int find(int key) {
+        int idx = home(key);
+        while (counts[idx] != 0 && keys[idx] != key) {
+            idx = idx + 1 == counts.length ? 0 : idx + 1;
+        }
+        return idx;
+    }
+
+    @Override
+    public int increment(int key, int delta) {
+        int idx = find(key);
+        if (counts[idx] == 0) {
+            if ((nonZeroIndices.size() + 1) * 100 > counts.length * maxLoadPercent) {
+                grow();
+                idx = find(key);
+            }
+            occupy(idx, key);
+        }
+        return (counts[idx] += delta);
+    }
+
+    @Override
+    public int get(int key) {
+        return counts[find(key)];
+    }
+
+    private void occupy(int idx, int key) {
+        keys[idx] = key;
+        nonZeroIndices.add(idx);
+        if (idx != home(key)) {
+            displaced++;
+        }
+    }
+
+    /** Roughly doubles the table and re-hashes all keys. */
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        IntList oldIndices = nonZeroIndices;
+        int newSize;
+        if (log2Size > 0) {
+            newSize = oldCounts.length * 2;
+            log2Size++;
+        } else {
+            newSize = oldCounts.length * 2 + 1; // Odd sizes hash better with Hashing.hash
+        }
+        keys = new int[newSize];
+        counts = new int[newSize];
+        nonZeroIndices = new IntList(oldIndices.size() * 2);
+        displaced = 0;
+        for (int i = 0; i < oldIndices.size(); i++) {
+            int oldIdx = oldIndices.get(i);
+            int idx = find(oldKeys[oldIdx]);
+            occupy(idx, oldKeys[oldIdx]);
+            counts[idx] = oldCounts[oldIdx];
+        }
+    }
+
+    /**
+     * Clears all counts, without shrinking the table.
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < nonZeroIndices.size(); i++) {
+            counts[nonZeroIndices.get(i)] = 0;
+        }
+        nonZeroIndices.clear();
+        displaced = 0;
+    }
+
+    @Override
+    public int getNonZeroSize() {
+        return nonZeroIndices.size();
+    }
+
+    @Override
+    public IntList getNonZeroIndices() {
+        return nonZeroIndices;
+    }
+
+    @Override
+    public int keyAtIndex(int idx) {
+        return keys[idx];
+    }
+
+    @Override
+    public int getAtIndex(int idx) {
+        return counts[idx];
+    }
+}
@@ -31,10 +31,20 @@ package edu.berkeley.cs.jqf.fuzz.util;
 /**
  * Utility class for computing bounded hash values.
  *
+ * <p>Two reductions are provided. {@link #hash(long, int)} and
+ * {@link #hash1(long, long, int)} work with any bound, using a
+ * multiplication followed by a modulus. When the bound is a power of two,
+ * {@link #fibonacci(long, int)} computes the same kind of multiplicative
+ * hash with a single multiply and shift. Data structures choose between
+ * the two based on their size (see {@link Counter}).</p>
+ *
  * @author Rohan Padhye
  */
 public class Hashing {
 
+    /** 2^64 divided by the golden ratio, rounded to an odd number. */
+    private static final long GOLDEN_RATIO_64 = 0x9E3779B97F4A7C15L;
+
     private Hashing() {
         // Static only
     }
@@ -84,4 +94,38 @@ public class Hashing {
         return knuth(x*31 + y, bound);
     }
 
+    /**
+     * Compute Fibonacci (multiply-shift) hashing into a power-of-two bound.
+     *
+     * <p>The top <tt>log2Bound</tt> bits of the 64-bit product with the
+     * golden ratio are used, so all bits of the input affect the result
+     * and no division is needed.</p>
+     *
+     * <p>Source: Donald Knuth's <em>The Art of Computer Programming</em>,
+     * Volume 3 (2nd edition), section 6.4, page 516.</p>
+     *
+     * @param x         the input value to hash
+     * @param log2Bound the base-2 logarithm of the upper bound, in [1, 31]
+     * @return a pseudo-uniformly distributed value in [0, 2^log2Bound)
+     */
+    public static int fibonacci(long x, int log2Bound) {
+        return (int) ((x * GOLDEN_RATIO_64) >>> (64 - log2Bound));
+    }
+
+    /**
+     * Returns the base-2 logarithm of a bound if it is a power of
+     * two greater than one, for use with {@link #fibonacci(long, int)}.
+     *
+     * @param bound a positive upper bound
+     * @return the base-2 logarithm of <tt>bound</tt>, or -1 if it is not a
+     *         power of two greater than one
+     */
+    public static int log2IfPowerOfTwo(int bound) {
+        if (bound > 1 && (bound & (bound - 1)) == 0) {
+            return Integer.numberOfTrailingZeros(bound);
+        } else {
+            return -1;
+        }
+    }
+
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * A growable list of primitive <tt>int</tt> values.
+ *
+ * <p>This is used instead of <tt>List&lt;Integer&gt;</tt> in the
+ * counters and coverage maps, which are updated on every branch and
+ * cleared on every run, so that they do not box.</p>
+ *
+ * <p>Elements are visited either with an index loop over
+ * {@link #size()} and {@link #get(int)}, which allocates nothing,
+ * or with {@link #forEach(IntConsumer)}.</p>
+ */
+public class IntList {
+
+    private int[] elements;
+    private int size;
+
+    /** Creates an empty list. */
+    public IntList() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty list.
+     *
+     * @param initialCapacity the number of elements to allocate space for
+     */
+    public IntList(int initialCapacity) {
+        this.elements = new int[Math.max(initialCapacity, 1)];
+        this.size = 0;
+    }
+
+    /**
+     * Creates a copy of another list.
+     *
+     * @param that the list to copy
+     */
+    public IntList(IntList that) {
+        this.elements = Arrays.copyOf(that.elements, Math.max(that.size, 1));
+        this.size = that.size;
+    }
+
+    /**
+     * Appends a value to the end of this list.
+     *
+     * @param value the value to append
+     */
+    public void add(int value) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = value;
+    }
+
+    /**
+     * Returns the value at a given position.
+     *
+     * @param i the position, which must be less than {@link #size()}
+     * @return the value at position <tt>i</tt>
+     */
+    public int get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return elements[i];
+    }
+
+    /**
+     * Returns the number of values in this list.
+     *
+     * @return the number of values in this list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether this list is empty.
+     *
+     * @return <tt>true</tt> iff this list has no values
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values from this list, keeping its capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Performs an action for each value in this list, in order.
+     *
+     * @param action the action to perform
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(elements[i]);
+        }
+    }
+
+    /**
+     * Returns a boxed copy of this list, for callers that need a
+     * {@link java.util.Collection}.
+     *
+     * @return a new list containing the values of this list
+     */
+    public List<Integer> boxed() {
+        List<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(elements[i]);
+        }
+        return list;
+    }
+}
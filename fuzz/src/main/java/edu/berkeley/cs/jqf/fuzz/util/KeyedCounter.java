@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Maps integer keys to integer counts, remembering which key is stored
+ * at each non-zero index.
+ *
+ * <p>This lets clients visit the keys and counts of all non-zero entries
+ * without scanning the whole table, regardless of how keys are hashed
+ * or how collisions are handled by a particular implementation.</p>
+ *
+ * <p>As with {@link Counter}, "key" refers to the values that are hashed
+ * and "index" refers to a location in the internal array storage.</p>
+ */
+public abstract class KeyedCounter {
+
+    /**
+     * Returns the number of slots in the table.
+     *
+     * @return the current capacity of this counter
+     */
+    public abstract int capacity();
+
+    /**
+     * Returns the number of keys that are stored away from their
+     * home index due to collisions; a measure of probing overhead.
+     *
+     * @return the number of displaced keys
+     */
+    public abstract int getDisplacedCount();
+
+    /**
+     * Increments the count at the given key.
+     *
+     * @param key the key whose count to increment
+     * @return the new value after incrementing the count
+     */
+    public int increment(int key) {
+        return increment(key, 1);
+    }
+
+    /**
+     * Increments the count at the given key by a given delta.
+     *
+     * @param key   the key whose count to increment
+     * @param delta the (positive) amount to increment by
+     * @return the new value after incrementing the count
+     */
+    public abstract int increment(int key, int delta);
+
+    /**
+     * Retreives the count for a given key.
+     *
+     * @param key the key to query
+     * @return the count for this key, or zero if it was never incremented
+     */
+    public abstract int get(int key);
+
+    /**
+     * Sets the count for a given key.
+     *
+     * @param key   the key whose count to set
+     * @param value the new value, which must not be less than the current value
+     */
+    public void set(int key, int value) {
+        int before = get(key);
+        if (value != before) {
+            increment(key, value - before);
+        }
+    }
+
+    /**
+     * Clears all counts.
+     */
+    public abstract void clear();
+
+    /**
+     * Returns the number of keys with non-zero counts.
+     *
+     * @return the number of keys with non-zero counts
+     */
+    public int getNonZeroSize() {
+        return getNonZeroIndices().size();
+    }
+
+    /**
+     * Returns the keys with non-zero counts.
+     *
+     * @return the keys with non-zero counts
+     */
+    public Collection<Integer> getNonZeroKeys() {
+        IntList indices = getNonZeroIndices();
+        List<Integer> result = new ArrayList<>(indices.size());
+        for (int i = 0; i < indices.size(); i++) {
+            result.add(keyAtIndex(indices.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indices of slots with non-zero counts.
+     *
+     * <p>Use with {@link #keyAtIndex(int)} and {@link #getAtIndex(int)}
+     * to visit all entries without scanning the whole table. The
+     * returned list is live and must not be modified.</p>
+     *
+     * @return the indices of occupied slots
+     */
+    public abstract IntList getNonZeroIndices();
+
+    /**
+     * Returns the key stored at an index. Only meaningful if
+     * {@link #getAtIndex(int)} is non-zero.
+     *
+     * @param idx an index less than {@link #capacity()}
+     * @return the key at this index
+     */
+    public abstract int keyAtIndex(int idx);
+
+    /**
+     * Returns the count stored at an index.
+     *
+     * @param idx an index less than {@link #capacity()}
+     * @return the count at this index, or zero if the slot is empty
+     */
+    public abstract int getAtIndex(int idx);
+}
@@ -28,10 +28,9 @@
  */
 package edu.berkeley.cs.jqf.fuzz.util;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
+import java.util.function.IntConsumer;
 
 /**
  * Maps integer keys to integer counts using a fixed-size table.
@@ -49,9 +48,12 @@ public class MapOfCounters {
     /** The size of each counter in the map. */
     private final int counterSize;
 
-    /** The table of counters. */
+    /** The table of counters, allocated lazily and re-used across clears. */
     private final Counter[] counters;
 
+    /** The indices of counters that have been incremented since the last clear. */
+    private final IntList nonEmptyIndices = new IntList();
+
     public MapOfCounters(int numCounters, int counterSize) {
         this.numCounters = numCounters;
         this.counterSize = counterSize;
@@ -59,9 +61,10 @@ public class MapOfCounters {
     }
 
     public void clear() {
-        for (int i = 0; i < counters.length; i++) {
-            counters[i] = null;
+        for (int i = 0; i < nonEmptyIndices.size(); i++) {
+            counters[nonEmptyIndices.get(i)].clear();
         }
+        nonEmptyIndices.clear();
     }
 
     private int idx(int key) {
@@ -70,10 +73,14 @@ public class MapOfCounters {
 
     public void increment(int k1, int k2) {
         int idx = idx(k1);
-        if (counters[idx] == null) {
-            counters[idx] = new Counter(counterSize);
+        Counter counter = counters[idx];
+        if (counter == null) {
+            counter = counters[idx] = new NonZeroCachingCounter(counterSize);
+        }
+        if (counter.getNonZeroSize() == 0) {
+            nonEmptyIndices.add(idx);
         }
-        counters[idx].increment(k2);
+        counter.increment(k2);
     }
 
     public Collection<Integer> nonZeroCountsAtIndex(int idx) {
@@ -85,14 +92,20 @@ public class MapOfCounters {
 
     }
 
-    public Collection<Integer> nonEmptyCountersIndices() {
-        List<Integer> keys = new ArrayList<>(numCounters);
-        for (int i = 0; i < numCounters; i++) {
-            if (counters[i] != null) {
-                keys.add(i);
-            }
+    /**
+     * Performs an action for each non-zero count of the counter at an index.
+     *
+     * @param idx    the index of the counter
+     * @param action the action to perform on each count
+     */
+    public void forEachNonZeroCountAtIndex(int idx, IntConsumer action) {
+        if (counters[idx] != null) {
+            counters[idx].forEachNonZeroValue(action);
         }
-        return keys;
+    }
+
+    public Collection<Integer> nonEmptyCountersIndices() {
+        return nonEmptyIndices.boxed();
     }
 
 }
@@ -31,6 +31,7 @@ package edu.berkeley.cs.jqf.fuzz.util;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 /**
  * An extension of {@link Counter} that caches which entries
@@ -42,22 +43,18 @@ import java.util.List;
  */
 public class NonZeroCachingCounter extends Counter {
 
-    private int nonZeroCount;
-
-    private Collection<Integer> nonZeroIndices;
+    private final IntList nonZeroIndices;
 
     public NonZeroCachingCounter(int size) {
         super(size);
-        this.nonZeroCount = 0;
-        this.nonZeroIndices = new ArrayList<>();
+        this.nonZeroIndices = new IntList();
     }
 
     @Override
     public void clear() {
-        for (int idx : nonZeroIndices) {
-            counts[idx] = 0;
+        for (int i = 0; i < nonZeroIndices.size(); i++) {
+            counts[nonZeroIndices.get(i)] = 0;
         }
-        this.nonZeroCount = 0;
         this.nonZeroIndices.clear();
     }
 
@@ -68,39 +65,49 @@ public class NonZeroCachingCounter extends Counter {
         // A count becomes non-zero if it was incremented to delta
         if (newValue == delta) {
             nonZeroIndices.add(index);
-            nonZeroCount++;
         }
         return newValue;
     }
 
     @Override
     public int getNonZeroSize() {
-        return nonZeroCount;
+        return nonZeroIndices.size();
     }
 
     @Override
     public Collection<Integer> getNonZeroIndices() {
-        return nonZeroIndices;
+        return nonZeroIndices.boxed();
+    }
+
+    @Override
+    public void forEachNonZeroIndex(IntConsumer action) {
+        nonZeroIndices.forEach(action);
     }
 
     @Override
     public Collection<Integer> getNonZeroValues() {
-        List<Integer> values = new ArrayList<>(size /2);
-        for (int idx : nonZeroIndices) {
-            int count = counts[idx];
+        List<Integer> values = new ArrayList<>(nonZeroIndices.size());
+        for (int i = 0; i < nonZeroIndices.size(); i++) {
+            int count = counts[nonZeroIndices.get(i)];
             assert (count != 0);
             values.add(count);
         }
         return values;
     }
 
+    @Override
+    public void forEachNonZeroValue(IntConsumer action) {
+        for (int i = 0; i < nonZeroIndices.size(); i++) {
+            action.accept(counts[nonZeroIndices.get(i)]);
+        }
+    }
+
     @Override
     public void setAtIndex(int index, int newValue) {
         int oldValue = counts[index];
         super.setAtIndex(index, newValue);
         if (oldValue == 0 && newValue != 0) {
             nonZeroIndices.add(index);
-            nonZeroCount++;
         }
     }
 
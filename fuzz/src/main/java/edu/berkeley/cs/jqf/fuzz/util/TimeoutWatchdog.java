@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+
+/**
+ * A shared service that aborts runs which exceed their time limit.
+ *
+ * <p>Each fuzzing thread has a {@link Timer}, which it starts before a
+ * run and stops after it. A single daemon thread checks the running
+ * timers every {@value #PERIOD_MILLIS} ms. When a run exceeds its
+ * limit, the watchdog marks it as timed out and interrupts its thread,
+ * which ends sleeps, waits and interruptible I/O. Instrumented code
+ * notices the mark at its next trace event if the callback was wrapped
+ * with {@link #wrapCallback}.</p>
+ *
+ * <p>A run that does neither, e.g. one spinning in uninstrumented JDK
+ * code, cannot be aborted safely. If it still has not ended after
+ * another {@value #HANG_GRACE_MILLIS} ms, the watchdog reports it as
+ * hung. If <tt>jqf.TIMEOUT_HALT</tt> is set, it also halts the JVM,
+ * much like AFL kills a hung target process.</p>
+ *
+ * <p>A run that timed out should be reported as
+ * {@link edu.berkeley.cs.jqf.fuzz.guidance.Result#TIMEOUT}, however it
+ * ended.</p>
+ */
+public final class TimeoutWatchdog {
+
+    /** How often the watchdog checks the running timers. */
+    static final long PERIOD_MILLIS = 50;
+
+    /** How long to wait after interrupting a timed-out run before reporting it as hung. */
+    static final long HANG_GRACE_MILLIS = 1000;
+
+    /** The exit status of the JVM when it is halted because of a hung run. */
+    static final int HALT_EXIT_STATUS = 124;
+
+    private static final boolean HALT_ON_HANG = Boolean.getBoolean("jqf.TIMEOUT_HALT");
+
+    private static final Map<Thread, Timer> timers = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static Thread watchdogThread;
+
+    private TimeoutWatchdog() {}
+
+    /**
+     * Returns the timer of a thread, creating one if needed.
+     *
+     * @param thread the thread that executes runs
+     * @return the timer of <tt>thread</tt>
+     */
+    public static Timer getTimer(Thread thread) {
+        return timers.computeIfAbsent(thread, Timer::new);
+    }
+
+    /**
+     * Wraps a trace-event callback so that events emitted by a run that
+     * has timed out throw a {@link TimeoutException}.
+     *
+     * @param thread   the thread whose events are handled by <tt>callback</tt>
+     * @param callback a trace-event callback
+     * @return a callback that also checks the timer of <tt>thread</tt>
+     */
+    public static Consumer<TraceEvent> wrapCallback(Thread thread, Consumer<TraceEvent> callback) {
+        Timer timer = getTimer(thread);
+        return (e) -> {
+            callback.accept(e);
+            timer.checkExpired();
+        };
+    }
+
+    private static synchronized void ensureStarted() {
+        if (watchdogThread == null) {
+            watchdogThread = new Thread(TimeoutWatchdog::watch, "jqf-watchdog");
+            watchdogThread.setDaemon(true);
+            watchdogThread.start();
+        }
+    }
+
+    private static void watch() {
+        List<Timer> toCheck = new ArrayList<>();
+        while (true) {
+            try {
+                Thread.sleep(PERIOD_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (timers) {
+                toCheck.addAll(timers.values());
+            }
+            long now = System.nanoTime();
+            for (Timer timer : toCheck) {
+                timer.check(now);
+            }
+            toCheck.clear();
+        }
+    }
+
+    /** The timer of a single thread, which runs one trial at a time. */
+    public static final class Timer {
+        private static final int IDLE = 0;
+        private static final int RUNNING = 1;
+        private static final int EXPIRED = 2;
+        private static final int HUNG = 3;
+
+        private final WeakReference<Thread> thread;
+
+        private int state = IDLE;
+        private long startNanos;
+        private long limitMillis;
+        private long elapsedMillis;
+
+        /** Set by the watchdog when the run times out; read on every trace event. */
+        private volatile boolean expired;
+
+        private Timer(Thread thread) {
+            this.thread = new WeakReference<>(thread);
+        }
+
+        /**
+         * Starts timing a run on the owning thread.
+         *
+         * @param limitMillis the time limit of the run; if not positive,
+         *                    the run is not timed
+         */
+        public void start(long limitMillis) {
+            if (limitMillis <= 0) {
+                return;
+            }
+            ensureStarted();
+            synchronized (this) {
+                this.limitMillis = limitMillis;
+                this.startNanos = System.nanoTime();
+                this.expired = false;
+                this.state = RUNNING;
+            }
+        }
+
+        /**
+         * Stops timing the current run, if any.
+         *
+         * <p>This also clears the interrupt status of the owning thread, so
+         * that an interrupt meant for a run does not leak into the next.</p>
+         *
+         * @return <tt>true</tt> if the run timed out
+         */
+        public boolean stop() {
+            int previous;
+            synchronized (this) {
+                previous = state;
+                if (previous != IDLE) {
+                    elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+                }
+                state = IDLE;
+                expired = false;
+            }
+            if (previous >= EXPIRED) {
+                Thread.interrupted();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns the duration of the last run, as measured by {@link #stop()}.
+         *
+         * @return the duration of the last timed run, in milliseconds
+         */
+        public synchronized long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Returns the time limit of the last timed run.
+         *
+         * @return the time limit of the last timed run, in milliseconds
+         */
+        public synchronized long getLimitMillis() {
+            return limitMillis;
+        }
+
+        /**
+         * Throws a {@link TimeoutException} if the current run has timed out.
+         *
+         * @throws TimeoutException if the current run has timed out
+         */
+        public void checkExpired() throws TimeoutException {
+            if (expired) {
+                throw new TimeoutException((System.nanoTime() - startNanos) / 1_000_000, limitMillis);
+            }
+        }
+
+        private synchronized void check(long now) {
+            long elapsed = (now - startNanos) / 1_000_000;
+            Thread t = thread.get();
+            if (t == null) {
+                return;
+            }
+            if (state == RUNNING && elapsed > limitMillis) {
+                state = EXPIRED;
+                expired = true;
+                t.interrupt();
+            } else if (state == EXPIRED && elapsed > limitMillis + HANG_GRACE_MILLIS) {
+                state = HUNG;
+                System.err.println("Run on thread " + t.getName() + " has not ended " +
+                        elapsed + " ms after it started (limit " + limitMillis + " ms)");
+                if (HALT_ON_HANG) {
+                    Runtime.getRuntime().halt(HALT_EXIT_STATUS);
+                }
+            }
+        }
+    }
+}
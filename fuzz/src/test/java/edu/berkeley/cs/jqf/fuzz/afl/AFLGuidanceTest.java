@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.afl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AFLGuidanceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File input, fromProxy, toProxy;
+
+    private AFLGuidance runOnce(File sharedMap) throws IOException {
+        return runOnce(sharedMap, new byte[]{'R', 'E', 'A', 'D'});
+    }
+
+    private AFLGuidance runOnce(File sharedMap, byte[] hello) throws IOException {
+        input = folder.newFile();
+        fromProxy = folder.newFile();
+        toProxy = folder.newFile();
+        Files.write(fromProxy.toPath(), hello);
+
+        AFLGuidance guidance = new AFLGuidance(input, fromProxy, toProxy, sharedMap);
+        Assert.assertTrue(guidance.hasInput());
+        try (InputStream in = guidance.getInput()) {
+            guidance.incrementTraceBits(42);
+            guidance.incrementTraceBits(42);
+            guidance.handleResult(Result.FAILURE, null);
+        }
+        return guidance;
+    }
+
+    @Test
+    public void sendsStatusAndTraceBitsThroughPipe() throws IOException {
+        runOnce(null);
+
+        ByteBuffer sent = ByteBuffer.wrap(Files.readAllBytes(toProxy.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        Assert.assertEquals(4 + AFLGuidance.COVERAGE_MAP_SIZE, sent.capacity());
+        Assert.assertEquals(6, sent.getInt(0));
+        Assert.assertEquals(1, sent.get(4));
+        Assert.assertEquals(2, sent.get(4 + 42));
+    }
+
+    @Test
+    public void sendsSparseTraceBitsToNewerProxy() throws IOException {
+        runOnce(null, AFLGuidance.HELLO_V2);
+
+        ByteBuffer sent = ByteBuffer.wrap(Files.readAllBytes(toProxy.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        Assert.assertEquals(4 + 4 + 2 * 3, sent.capacity());
+        Assert.assertEquals(6 | AFLGuidance.SPARSE_FEEDBACK, sent.getInt());
+        Assert.assertEquals(2, sent.getInt());
+        Assert.assertEquals(0, sent.getShort());
+        Assert.assertEquals(1, sent.get());
+        Assert.assertEquals(42, sent.getShort());
+        Assert.assertEquals(2, sent.get());
+    }
+
+    @Test
+    public void sendsOnlyStatusThroughPipeWithSharedMap() throws IOException {
+        File sharedMap = new File(folder.getRoot(), "map");
+        runOnce(sharedMap);
+
+        ByteBuffer sent = ByteBuffer.wrap(Files.readAllBytes(toProxy.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        Assert.assertEquals(4, sent.capacity());
+        Assert.assertEquals(6, sent.getInt(0));
+
+        byte[] map = Files.readAllBytes(sharedMap.toPath());
+        Assert.assertEquals(AFLGuidance.SHARED_MAP_SIZE, map.length);
+        Assert.assertEquals(1, map[0]);
+        Assert.assertEquals(2, map[42]);
+        Assert.assertEquals(0, map[43]);
+    }
+
+    @Test
+    public void servesForwardedInputsFromBuffer() throws IOException {
+        input = new File(folder.getRoot(), "does-not-exist");
+        fromProxy = folder.newFile();
+        toProxy = folder.newFile();
+        ByteBuffer messages = ByteBuffer.allocate(2 * 8 + 5000 + 3).order(ByteOrder.LITTLE_ENDIAN);
+        messages.put(AFLGuidance.HELLO_V2_INPUT).putInt(5000).put(new byte[5000]);
+        messages.put(AFLGuidance.HELLO_V2_INPUT).putInt(3).put(new byte[]{7, 8, 9});
+        Files.write(fromProxy.toPath(), messages.array());
+
+        AFLGuidance guidance = new AFLGuidance(input, fromProxy, toProxy, null);
+
+        Assert.assertTrue(guidance.hasInput());
+        try (InputStream in = guidance.getInput()) {
+            Assert.assertEquals(5000, in.skip(Long.MAX_VALUE));
+            guidance.handleResult(Result.SUCCESS, null);
+        }
+
+        Assert.assertTrue(guidance.hasInput());
+        try (InputStream in = guidance.getInput()) {
+            Assert.assertEquals(7, in.read());
+            Assert.assertEquals(8, in.read());
+            Assert.assertEquals(9, in.read());
+            Assert.assertEquals(-1, in.read());
+            guidance.handleResult(Result.SUCCESS, null);
+        }
+
+        Assert.assertFalse(guidance.hasInput());
+    }
+
+    @Test
+    public void resetsTraceBitsBetweenRuns() throws IOException {
+        input = folder.newFile();
+        fromProxy = folder.newFile();
+        toProxy = folder.newFile();
+        Files.write(fromProxy.toPath(), new byte[]{'R', 'E', 'A', 'D', 'R', 'E', 'A', 'D'});
+
+        AFLGuidance guidance = new AFLGuidance(input, fromProxy, toProxy, null);
+        for (int index : new int[]{42, 7}) {
+            Assert.assertTrue(guidance.hasInput());
+            try (InputStream in = guidance.getInput()) {
+                guidance.incrementTraceBits(index);
+                guidance.handleResult(Result.SUCCESS, null);
+            }
+        }
+
+        byte[] sent = Files.readAllBytes(toProxy.toPath());
+        int secondMap = 4 + AFLGuidance.COVERAGE_MAP_SIZE + 4;
+        Assert.assertEquals(secondMap + AFLGuidance.COVERAGE_MAP_SIZE, sent.length);
+        Assert.assertEquals(1, sent[secondMap]);
+        Assert.assertEquals(0, sent[secondMap + 42]);
+        Assert.assertEquals(1, sent[secondMap + 7]);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.util.BitSet;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.generator.Size;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(JUnitQuickcheck.class)
+public class ExecutionIndexTrieTest {
+
+    @Property
+    public void internRoundTrips(int @Size(min=2, max=40)[] v) {
+        assumeTrue(v.length % 2 == 0);
+        ExecutionIndexTrie trie = new ExecutionIndexTrie();
+        ExecutionIndex ei = new ExecutionIndex(v);
+        int node = trie.intern(ei);
+        assertEquals(node, trie.intern(new ExecutionIndex(v.clone())));
+        assertEquals(ei, trie.getExecutionIndex(node));
+    }
+
+    @Property
+    public void contextsMatchExecutionContexts(@InRange(minInt=1, maxInt=3) int @Size(min=2, max=8)[] v1,
+                                               @InRange(minInt=1, maxInt=3) int @Size(min=2, max=8)[] v2) {
+        assumeTrue(v1.length % 2 == 0 && v2.length % 2 == 0);
+        ExecutionIndexTrie trie = new ExecutionIndexTrie();
+        ExecutionIndex e1 = new ExecutionIndex(v1);
+        ExecutionIndex e2 = new ExecutionIndex(v2);
+        boolean sameContext = new ExecutionContext(e1).equals(new ExecutionContext(e2));
+        assertEquals(sameContext, trie.getContext(trie.intern(e1)) == trie.getContext(trie.intern(e2)));
+    }
+
+    @Test
+    public void childIsStable() {
+        ExecutionIndexTrie trie = new ExecutionIndexTrie();
+        int a = trie.child(ExecutionIndexTrie.ROOT, 7, 1);
+        int b = trie.child(a, 9, 2);
+        assertEquals(a, trie.child(ExecutionIndexTrie.ROOT, 7, 1));
+        assertEquals(b, trie.child(a, 9, 2));
+        assertNotEquals(b, trie.child(a, 9, 3));
+        assertEquals(4, trie.size());
+    }
+
+    @Test
+    public void compactKeepsLiveNodesAndPrefixes() {
+        ExecutionIndexTrie trie = new ExecutionIndexTrie();
+        int[] nodes = new int[10_000];
+        for (int i = 0; i < nodes.length; i++) {
+            int parent = trie.child(ExecutionIndexTrie.ROOT, i % 7, 1);
+            nodes[i] = trie.child(parent, 42, i);
+        }
+        int contexts = trie.getContextCount();
+
+        // Keep every 100th execution index
+        BitSet live = new BitSet();
+        for (int i = 0; i < nodes.length; i += 100) {
+            live.set(nodes[i]);
+        }
+        int[] remap = trie.compact(live);
+
+        // 100 live leaves plus their 7 distinct parents plus the root
+        assertEquals(108, trie.size());
+        assertEquals(contexts, trie.getContextCount());
+        for (int i = 0; i < nodes.length; i++) {
+            if (i % 100 == 0) {
+                int node = remap[nodes[i]];
+                assertEquals(new ExecutionIndex(new int[]{i % 7, 1, 42, i}), trie.getExecutionIndex(node));
+                assertEquals(node, trie.child(trie.child(ExecutionIndexTrie.ROOT, i % 7, 1), 42, i));
+            } else {
+                assertEquals(-1, remap[nodes[i]]);
+            }
+        }
+    }
+}
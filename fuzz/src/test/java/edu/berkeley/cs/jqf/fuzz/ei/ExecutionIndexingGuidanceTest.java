@@ -28,23 +28,39 @@
  */
 package edu.berkeley.cs.jqf.fuzz.ei;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Random;
+import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.Input;
-import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance.InputLocation;
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import janala.logger.inst.INVOKESTATIC;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -52,6 +68,9 @@ public class ExecutionIndexingGuidanceTest {
 
     private static Random r;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private ExecutionIndex e1 = new ExecutionIndex(new int[]{1,1});
     private ExecutionIndex e2 = new ExecutionIndex(new int[]{1,1,3,4}); // Same EC as e4/e6
     private ExecutionIndex e3 = new ExecutionIndex(new int[]{1,1,2,1});
@@ -121,6 +140,223 @@ public class ExecutionIndexingGuidanceTest {
 
     }
 
+    @Test
+    public void testGcKeepsRequestOrder() {
+        Input input = new Input();
+        input.setValueAtKey(e1, 200);
+        input.setValueAtKey(e2, 7);
+        input.setValueAtKey(e3, 255);
+
+        // Request in a different order than insertion, skipping e1
+        assertEquals(255, input.getOrGenerateFresh(e3, r));
+        int k4 = input.getOrGenerateFresh(e4, r);
+        assertEquals(7, input.getOrGenerateFresh(e2, r));
+        input.gc();
+
+        assertEquals(3, input.size());
+        assertEquals(e3, input.getKeyAtOffset(0));
+        assertEquals(e4, input.getKeyAtOffset(1));
+        assertEquals(e2, input.getKeyAtOffset(2));
+        assertEquals(255, input.getValueAtOffset(0));
+        assertEquals(k4, input.getValueAtOffset(1));
+        assertEquals(7, input.getValueAtOffset(2));
+        assertNull(input.getValueAtKey(e1));
+    }
+
+    @Test
+    public void testCloneOfLargeInput() {
+        Input input = new Input();
+        int[] values = new int[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = input.getOrGenerateFresh(new ExecutionIndex(new int[]{0, i}), r);
+        }
+        input.gc();
+
+        Input clone = new Input(input);
+        for (int i = values.length - 1; i >= 0; i--) {
+            assertEquals(values[i], clone.getOrGenerateFresh(new ExecutionIndex(new int[]{0, i}), r));
+        }
+        clone.gc();
+        assertEquals(values.length, clone.size());
+        assertEquals(new ExecutionIndex(new int[]{0, 0}), clone.getKeyAtOffset(values.length - 1));
+    }
+
+    @Test
+    public void testBlockDeleteAndInsert() {
+        Input input = new Input();
+        for (int i = 0; i < 10; i++) {
+            input.setValueAtKey(new ExecutionIndex(new int[]{0, i}), i);
+            input.getOrGenerateFresh(new ExecutionIndex(new int[]{0, i}), r);
+        }
+        input.gc();
+
+        // Delete [2, 5) and insert {42, 43} at offset 1
+        Input child = new Input(input);
+        child.deleteBlock(2, 3);
+        child.insertBlock(1, new byte[]{42, 43});
+        int[] expected = {0, 42, 43, 1, 5, 6, 7};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], child.getOrGenerateFresh(new ExecutionIndex(new int[]{0, i}), r));
+        }
+        child.gc();
+        assertEquals(expected.length, child.size());
+
+        // The parent is unchanged
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, input.getValueAtOffset(i));
+        }
+    }
+
+    @Test
+    public void testAflMutationsKeepSize() {
+        Input input = new Input();
+        for (int i = 0; i < 100; i++) {
+            input.getOrGenerateFresh(new ExecutionIndex(new int[]{0, i}), r);
+        }
+        input.gc();
+
+        for (int trial = 0; trial < 1000; trial++) {
+            Input child = new Input(input);
+            int offset = r.nextInt(child.size());
+            int length = Math.min(1 + r.nextInt(8), child.size() - offset);
+            child.mutateAfl(r, offset, length);
+            assertThat(child.size(), greaterThanOrEqualTo(input.size() - length));
+            assertThat(child.size(), greaterThan(0));
+        }
+    }
+
+    @Test
+    public void testEnergySchedulerPrefersProductiveParents() {
+        List<Input> queue = new ArrayList<>();
+        for (int k = 0; k < 3; k++) {
+            Input input = new Input();
+            for (int i = 0; i < 10; i++) {
+                input.getOrGenerateFresh(new ExecutionIndex(new int[]{k, i}), r);
+            }
+            input.gc();
+            queue.add(input);
+        }
+        queue.get(0).recordSelection(50, 10); // Productive
+        queue.get(1).recordSelection(50, 0);  // Unproductive
+        // queue.get(2) has never been selected
+
+        Scheduler scheduler = new EnergyScheduler();
+        int[] counts = new int[queue.size()];
+        for (int trial = 0; trial < 10000; trial++) {
+            counts[scheduler.selectParent(queue, 0, r)]++;
+        }
+        assertThat(counts[0], greaterThan(counts[1]));
+        assertThat(counts[2], greaterThan(counts[0]));
+        assertEquals(50, scheduler.getTargetChildren(queue.get(0), 10));
+    }
+
+    @Test
+    public void testSeedsAreNotCountedAsOffspring() throws IOException {
+        File seedA = folder.newFile("a");
+        File seedB = folder.newFile("b");
+        Files.write(seedA.toPath(), new byte[]{1});
+        Files.write(seedB.toPath(), new byte[]{2});
+        ExecutionIndexingGuidance guidance = new ExecutionIndexingGuidance("test", null,
+                folder.newFolder("out"), seedA, seedB);
+
+        // Produce one child per parent, and remember the queue
+        List<List<Input>> queues = new ArrayList<>();
+        guidance.setScheduler(new Scheduler() {
+            @Override
+            public int selectParent(List<Input> savedInputs, int current, Random random) {
+                queues.add(savedInputs);
+                return 0;
+            }
+
+            @Override
+            public int getTargetChildren(Input parent, int maxCoverage) {
+                return 1;
+            }
+        });
+        Consumer<TraceEvent> callback = guidance.generateCallBack(Thread.currentThread());
+
+        runWithCall(guidance, callback, 1); // Seed A is saved
+        runWithCall(guidance, callback, 2); // Seed B adds coverage and is saved too
+        runWithCall(guidance, callback, 1); // The only child of seed A adds nothing
+
+        // Selecting the next parent records that seed A's child was not saved
+        guidance.getInput();
+        assertEquals(1, queues.size());
+        Input parent = queues.get(0).get(0);
+        assertEquals(2, queues.get(0).size());
+        assertEquals(0.0, parent.getRecentYield(), 0.0);
+    }
+
+    // Runs the next input of the guidance, covering a single call
+    private static void runWithCall(ExecutionIndexingGuidance guidance,
+                                    Consumer<TraceEvent> callback, int iid) throws IOException {
+        InputStream in = guidance.getInput();
+        callback.accept(new CallEvent(iid, null, 0, new INVOKESTATIC(iid, 0, "Foo", "bar", "()V")));
+        in.read();
+        guidance.handleResult(Result.SUCCESS, null);
+    }
+
+    @Test
+    public void testFileWriterIsClosedWhenFuzzingStops() throws IOException {
+        int before = countIoThreads();
+        ExecutionIndexingGuidance guidance = new ExecutionIndexingGuidance("test", Duration.ZERO,
+                folder.newFolder("out"));
+        assertEquals(before + 1, countIoThreads());
+        assertFalse(guidance.hasInput());
+        assertEquals(before, countIoThreads());
+        assertFalse(guidance.hasInput()); // Does not fail on the closed writer
+    }
+
+    private static int countIoThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("jqf-io")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testRoundRobinScheduler() {
+        List<Input> queue = Arrays.asList(new Input(), new Input(), new Input());
+        Scheduler scheduler = new RoundRobinScheduler();
+        assertEquals(1, scheduler.selectParent(queue, 0, r));
+        assertEquals(2, scheduler.selectParent(queue, 1, r));
+        assertEquals(0, scheduler.selectParent(queue, 2, r));
+    }
+
+    @Test
+    public void testSpliceIndex() {
+        ExecutionIndexTrie trie = new ExecutionIndexTrie();
+        Input input = new Input(trie);
+        for (ExecutionIndex e : new ExecutionIndex[]{e1, e2, e3, e4, e5}) {
+            input.getOrGenerateFresh(e, r);
+        }
+        input.gc();
+
+        SpliceIndex spliceIndex = new SpliceIndex(trie, Arrays.asList(input));
+        int ec = trie.getContext(trie.intern(e6)); // Same EC as e2 and e4
+        assertEquals(0, spliceIndex.size(ec));
+
+        spliceIndex.add(input);
+        spliceIndex.add(input); // No duplicates
+        assertTrue(spliceIndex.contains(input));
+        assertEquals(2, spliceIndex.size(ec));
+        assertEquals(1, spliceIndex.get(ec, 0).getOffset());
+        assertEquals(3, spliceIndex.get(ec, 1).getOffset());
+        assertEquals(1, spliceIndex.size(trie.getContext(trie.intern(e1))));
+
+        BitSet removed = new BitSet();
+        removed.set(input.getId());
+        spliceIndex.removeAll(removed);
+        assertFalse(spliceIndex.contains(input));
+        assertEquals(0, spliceIndex.size(ec));
+
+        spliceIndex.add(input);
+        assertEquals(2, spliceIndex.size(ec));
+    }
+
     @Test
     public void testExecutionContexts() {
         assertEquals(new ExecutionContext(e2), new ExecutionContext(e4));
@@ -135,13 +371,14 @@ public class ExecutionIndexingGuidanceTest {
     //@Test - argh: we cannot configure static properties for tests
     // (need to change how config is handled in ExecutionIndexingGuidance)
     public void testSplice() {
-        Input srcInput = new Input();
+        ExecutionIndexTrie trie = new ExecutionIndexTrie();
+        Input srcInput = new Input(trie);
         srcInput.setValueAtKey(e1, 23);
         srcInput.setValueAtKey(e2, 46);
         srcInput.setValueAtKey(e3, 69);
         srcInput.setValueAtKey(e4, 92);
 
-        Input baseInput = new Input();
+        Input baseInput = new Input(trie);
         baseInput.setValueAtKey(e3, 12);
         baseInput.setValueAtKey(e4, 24);
         baseInput.setValueAtKey(e5, 36);
@@ -160,14 +397,10 @@ public class ExecutionIndexingGuidanceTest {
         baseInput.gc();
 
 
-        // Map EC of e2 (= EC of e4 or EC of e6) to locations in srcInput
-        Map<ExecutionContext, ArrayList<InputLocation>>
-                ecToInputLoc = new HashMap<>();
-        ecToInputLoc.put(new ExecutionContext(e2),
-                new ArrayList<>(Arrays.asList(new InputLocation[]{
-                        new InputLocation(srcInput, 1), // e2
-                        new InputLocation(srcInput, 3), // e4
-                })));
+        // Index srcInput, which maps EC of e2 (= EC of e4 or EC of e6) to
+        // locations 1 (e2) and 3 (e4)
+        SpliceIndex spliceIndex = new SpliceIndex(trie, Arrays.asList(srcInput));
+        spliceIndex.add(srcInput);
 
         Random mockRandom = Mockito.mock(Random.class);
         when(mockRandom.nextBoolean())
@@ -177,7 +410,7 @@ public class ExecutionIndexingGuidanceTest {
                 .thenReturn(1)   // Pick target offset as e4
                 .thenReturn(0);  // Pick first input location
 
-        Input fuzzedInput = baseInput.fuzz(mockRandom, ecToInputLoc);
+        Input fuzzedInput = baseInput.fuzz(mockRandom, spliceIndex);
 
         assertEquals(12, fuzzedInput.getOrGenerateFresh(e3, r));
         assertEquals(46, fuzzedInput.getOrGenerateFresh(e4, r));
@@ -28,12 +28,19 @@
  */
 package edu.berkeley.cs.jqf.fuzz.guidance;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.fuzz.random.NoGuidance;
 import edu.berkeley.cs.jqf.fuzz.Fuzz;
 import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
 import edu.berkeley.cs.jqf.fuzz.JQF;
+import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 import org.junit.Assert;
 import org.junit.Assume;
@@ -75,6 +82,26 @@ public class GuidanceTest {
         public void expectedException(int x) throws NullPointerException {
             throw new NullPointerException();
         }
+
+        @Fuzz
+        public void sleep(int x) throws InterruptedException {
+            Thread.sleep(60_000);
+        }
+
+        static boolean spunOnce = false;
+
+        /** Spins in the first run only, emitting the probes of instrumented code by hand. */
+        @Fuzz
+        public void spinOnce(int x) {
+            SingleSnoop.METHOD_BEGIN(GuidanceTestFuzzer.class.getName().replace('.', '/'), "spinOnce", "(I)V");
+            boolean spin = !spunOnce;
+            spunOnce = true;
+            while (spin) {
+                SingleSnoop.IFEQ(1, 1, 0);
+            }
+            SingleSnoop.IFEQ(2, 2, 0);
+            SingleSnoop.RETURN(3, 3);
+        }
     }
 
     @Spy
@@ -120,4 +147,55 @@ public class GuidanceTest {
         GuidedFuzzing.run(GuidanceTestFuzzer.class, "expectedException", guidance, null);
         Mockito.verify(guidance).handleResult(Result.SUCCESS, null);
     }
+
+    @Test(timeout = 30_000)
+    public void testTimeoutInterruptsBlockedRun() {
+        Mockito.doReturn(200L).when(guidance).getSingleRunTimeoutMillis();
+        GuidedFuzzing.run(GuidanceTestFuzzer.class, "sleep", guidance, null);
+        Mockito.verify(guidance).handleResult(
+                ArgumentMatchers.eq(Result.TIMEOUT),
+                ArgumentMatchers.isA(TimeoutException.class));
+        Assert.assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test(timeout = 30_000)
+    public void testTimeoutAbortsSpinningRunAndTracingResumes() throws InterruptedException {
+        List<TraceEvent> events = Collections.synchronizedList(new ArrayList<>());
+        Guidance guidance = Mockito.spy(new NoGuidance(2, null));
+        Mockito.doReturn(200L).when(guidance).getSingleRunTimeoutMillis();
+        Mockito.doReturn((Consumer<TraceEvent>) events::add).when(guidance).generateCallBack(ArgumentMatchers.any());
+
+        // Tracers keep the callback of the first run on their thread, so use a fresh one
+        Thread fuzzer = new Thread(() -> GuidedFuzzing.run(GuidanceTestFuzzer.class, "spinOnce", guidance, null));
+        fuzzer.start();
+        fuzzer.join();
+
+        Mockito.verify(guidance).handleResult(
+                ArgumentMatchers.eq(Result.TIMEOUT),
+                ArgumentMatchers.isA(TimeoutException.class));
+        Mockito.verify(guidance).handleResult(Result.SUCCESS, null);
+
+        // The second run is traced from the entry point, as if it were the first
+        int size = events.size();
+        Assert.assertTrue(size > 3);
+        TraceEvent call = events.get(size - 3);
+        Assert.assertTrue(call instanceof CallEvent);
+        Assert.assertEquals("", call.getContainingClass());
+        Assert.assertTrue(events.get(size - 2) instanceof BranchEvent);
+        Assert.assertEquals(2, events.get(size - 2).getIid());
+        Assert.assertTrue(events.get(size - 1) instanceof ReturnEvent);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMultiThreadedRequiresThreadSafeGuidance() {
+        GuidedFuzzing.run(GuidanceTestFuzzer.class, "success", guidance, null, 2);
+    }
+
+    @Test
+    public void testMultiThreaded() {
+        Mockito.doReturn(true).when(guidance).isThreadSafe();
+        GuidedFuzzing.run(GuidanceTestFuzzer.class, "success", guidance, null, 2);
+        Mockito.verify(guidance, Mockito.atLeastOnce()).handleResult(Result.SUCCESS, null);
+        Assert.assertEquals(1, GuidedFuzzing.getNumThreads());
+    }
 }
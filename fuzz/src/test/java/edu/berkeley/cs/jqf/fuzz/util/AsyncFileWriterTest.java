@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AsyncFileWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void flushWritesEverythingInOrder() throws IOException {
+        File log = folder.newFile("log");
+        File data = new File(folder.getRoot(), "data");
+        AsyncFileWriter writer = new AsyncFileWriter(Long.MAX_VALUE);
+        try {
+            for (int i = 0; i < 10000; i++) {
+                writer.appendLine(log, Integer.toString(i));
+            }
+            writer.write(data, new byte[]{1, 2, 3});
+            writer.write(data, new byte[]{4, 5});
+            writer.flush();
+
+            List<String> lines = Files.readAllLines(log.toPath());
+            Assert.assertEquals(10000, lines.size());
+            Assert.assertEquals("0", lines.get(0));
+            Assert.assertEquals("9999", lines.get(9999));
+            Assert.assertArrayEquals(new byte[]{4, 5}, Files.readAllBytes(data.toPath()));
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void closeFlushesAndRejectsWrites() throws IOException {
+        File log = folder.newFile("log");
+        AsyncFileWriter writer = new AsyncFileWriter(Long.MAX_VALUE);
+        writer.appendLine(log, "a");
+        writer.appendLine(log, "b");
+        writer.close();
+        Assert.assertEquals(Arrays.asList("a", "b"), Files.readAllLines(log.toPath()));
+
+        // Flushing or closing again is harmless
+        writer.flush();
+        writer.close();
+
+        try {
+            writer.appendLine(log, "c");
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void errorsAreReportedToCaller() throws IOException {
+        File missing = new File(new File(folder.getRoot(), "no-such-dir"), "file");
+        AsyncFileWriter writer = new AsyncFileWriter(Long.MAX_VALUE);
+        writer.write(missing, new byte[]{1});
+        try {
+            writer.flush();
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            writer.close();
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
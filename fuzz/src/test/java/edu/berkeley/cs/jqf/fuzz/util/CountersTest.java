@@ -61,6 +61,21 @@ public class CountersTest {
         assertEquals(keys.length, sum);
     }
 
+    @Property
+    public void incrementWorksWithPowerOfTwoSize(int[] keys, @InRange(minInt=1, maxInt=16) int log2Size) {
+        Counter counter = new Counter(1 << log2Size);
+        for (int key : keys) {
+            int before = counter.get(key);
+            int after = counter.increment(key);
+            assertEquals(before+1, after);
+        }
+        int sum = 0;
+        for (int count : counter.getNonZeroValues()) {
+            sum += count;
+        }
+        assertEquals(keys.length, sum);
+    }
+
     @Property
     public void incrementDeltaWorks(int[] keys, int delta) {
         Counter counter = new Counter(COUNTER_SIZE);
@@ -28,6 +28,9 @@
  */
 package edu.berkeley.cs.jqf.fuzz.util;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReadEvent;
@@ -79,11 +82,81 @@ public class CoverageTest {
         Assert.assertEquals(5, c.getNonZeroCount());
     }
 
+    @Test
+    public void coverageCountsEdgeMapEntries() {
+        Coverage c = new Coverage();
+        c.addEdgeCount(0, 1);
+        c.addEdgeCount(42, 3);
+        c.addEdgeCount(12345, 200); // Unsigned 8-bit counts
+        Assert.assertEquals(3, c.getNonZeroCount());
+
+        // Adding the same counts again does not cover anything new
+        Coverage total = Coverage.exact();
+        total.updateBits(c);
+        Assert.assertFalse(total.updateBits(c));
+    }
+
+    @Test
+    public void coverageGrowsAndKeepsKeys() {
+        Coverage small = Coverage.exact();
+        Coverage large = Coverage.exact();
+        int n = small.size() * 2;
+        for (int i = 0; i < n; i++) {
+            large.handleEvent(callEvent(i));
+        }
+        small.handleEvent(callEvent(0));
+        Assert.assertEquals(n, large.getNonZeroCount());
+        Assert.assertTrue(large.size() > small.size());
+
+        // Merging and diffing work across maps of different sizes
+        Coverage total = new Coverage(small);
+        IntList newCoverage = new IntList();
+        large.computeNewCoverage(total, newCoverage);
+        Assert.assertEquals(n - 1, newCoverage.size());
+        Assert.assertTrue(total.updateBits(large));
+        Assert.assertEquals(n, total.getNonZeroCount());
+        large.computeNewCoverage(total, newCoverage);
+        Assert.assertTrue(newCoverage.isEmpty());
+        Assert.assertTrue(total.getCovered().containsAll(small.getCovered()));
+    }
+
+    @Test
+    public void runCoverageIsSnapshottedByKey() {
+        Coverage run = new Coverage();
+        for (int i = 0; i < 100; i++) {
+            run.handleEvent(branchEvent(i, i % 3));
+        }
+        Coverage snapshot = new Coverage(run);
+        Assert.assertEquals(run.getNonZeroCount(), snapshot.getNonZeroCount());
+        Assert.assertTrue(snapshot.size() < run.size());
+        Assert.assertTrue(snapshot.getCovered().containsAll(run.getCovered()));
+
+        // The snapshot is unaffected when the run map is reused
+        run.clear();
+        Assert.assertEquals(0, run.getNonZeroCount());
+        Assert.assertEquals(100, snapshot.getNonZeroCount());
+        IntList newCoverage = new IntList();
+        snapshot.computeNewCoverage(run, newCoverage);
+        Assert.assertEquals(100, newCoverage.size());
+    }
+
+    @Test
+    public void forEachCoveredVisitsCoveredKeys() {
+        Coverage c = new Coverage();
+        for (int i = 0; i < 100; i++) {
+            c.handleEvent(branchEvent(i, i % 3));
+        }
+        Set<Object> keys = new HashSet<>();
+        c.forEachCovered(keys::add);
+        Assert.assertEquals(c.getNonZeroCount(), keys.size());
+        Assert.assertTrue(keys.containsAll(c.getCovered()));
+    }
+
     @Test
     public void testCoverageUpdateBits1() {
         Coverage c1 = new Coverage();
         Coverage c2 = new Coverage();
-        Coverage total = new Coverage();
+        Coverage total = Coverage.exact();
         TraceEvent[] baseEvents = { callEvent(1), callEvent(2), branchEvent(3, 1) };
         TraceEvent[] newEvents = { callEvent(4) };
 
@@ -107,7 +180,7 @@ public class CoverageTest {
     public void testCoverageUpdateBits2() {
         Coverage c1 = new Coverage();
         Coverage c2 = new Coverage();
-        Coverage total = new Coverage();
+        Coverage total = Coverage.exact();
         TraceEvent[] baseEvents = { callEvent(1), callEvent(1), callEvent(2), branchEvent(3, 1) };
         TraceEvent[] newEvents = { callEvent(1) };
 
@@ -132,7 +205,7 @@ public class CoverageTest {
     public void testCoverageUpdateBits3() {
         Coverage c1 = new Coverage();
         Coverage c2 = new Coverage();
-        Coverage total = new Coverage();
+        Coverage total = Coverage.exact();
         TraceEvent[] baseEvents = { callEvent(1), callEvent(1), callEvent(1), callEvent(2), branchEvent(3, 1) };
         TraceEvent[] newEvents = { };
 
@@ -158,7 +231,7 @@ public class CoverageTest {
     public void testCoverageUpdateBits4() {
         Coverage c1 = new Coverage();
         Coverage c2 = new Coverage();
-        Coverage total = new Coverage();
+        Coverage total = Coverage.exact();
         TraceEvent[] baseEvents = { callEvent(1), callEvent(2), branchEvent(3, 1) };
         TraceEvent[] newEvents = { callEvent(1), callEvent(1) };
 
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(JUnitQuickcheck.class)
+public class GrowableCounterTest {
+
+    private static final int INITIAL_SIZE = 7;
+
+    private static final int MAX_LOAD_PERCENT = 50;
+
+    @Property
+    public void countsAreExactAcrossGrowth(int[] keys) {
+        GrowableCounter counter = new GrowableCounter(INITIAL_SIZE, MAX_LOAD_PERCENT);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int key : keys) {
+            int after = counter.increment(key);
+            expected.merge(key, 1, Integer::sum);
+            assertEquals((int) expected.get(key), after);
+        }
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), counter.get(e.getKey()));
+        }
+        assertEquals(expected.size(), counter.getNonZeroSize());
+        assertEquals(expected.keySet(), new HashSet<>(counter.getNonZeroKeys()));
+        assertThat(counter.getNonZeroSize() * 100, lessThanOrEqualTo(counter.capacity() * MAX_LOAD_PERCENT));
+    }
+
+    @Property
+    public void clearResetsCountsButKeepsCapacity(int[] keys) {
+        GrowableCounter counter = new GrowableCounter(INITIAL_SIZE, MAX_LOAD_PERCENT);
+        for (int key : keys) {
+            counter.increment(key);
+        }
+        int capacity = counter.capacity();
+        counter.clear();
+        assertEquals(0, counter.getNonZeroSize());
+        assertEquals(capacity, counter.capacity());
+        for (int key : keys) {
+            assertEquals(0, counter.get(key));
+        }
+    }
+
+    @Property
+    public void copyIsIndependent(int[] keys, int extraKey) {
+        GrowableCounter counter = new GrowableCounter(INITIAL_SIZE, MAX_LOAD_PERCENT);
+        for (int key : keys) {
+            counter.increment(key);
+        }
+        GrowableCounter copy = new GrowableCounter(counter);
+        int before = counter.get(extraKey);
+        copy.increment(extraKey);
+        assertEquals(before, counter.get(extraKey));
+        assertEquals(before + 1, copy.get(extraKey));
+    }
+
+    @Property
+    public void copyIsCompactAndEqual(int[] keys) {
+        GrowableCounter counter = new GrowableCounter(1021, MAX_LOAD_PERCENT);
+        for (int key : keys) {
+            counter.increment(key);
+        }
+        GrowableCounter copy = new GrowableCounter(counter);
+        assertEquals(counter.getNonZeroSize(), copy.getNonZeroSize());
+        for (int key : keys) {
+            assertEquals(counter.get(key), copy.get(key));
+        }
+        assertThat(copy.getNonZeroSize() * 100, lessThanOrEqualTo(copy.capacity() * MAX_LOAD_PERCENT));
+        assertThat(copy.capacity(), lessThanOrEqualTo(Math.max(counter.capacity(), 2 * keys.length + 3)));
+    }
+
+    @Property
+    public void powerOfTwoTablesStayPowerOfTwo(int[] keys) {
+        GrowableCounter counter = new GrowableCounter(8, MAX_LOAD_PERCENT);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int key : keys) {
+            counter.increment(key);
+            expected.merge(key, 1, Integer::sum);
+        }
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), counter.get(e.getKey()));
+        }
+        assertEquals(1, Integer.bitCount(counter.capacity()));
+
+        GrowableCounter copy = new GrowableCounter(counter);
+        assertEquals(1, Integer.bitCount(copy.capacity()));
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), copy.get(e.getKey()));
+        }
+    }
+
+    @Property
+    public void copyOfDirectCounterKeepsKeysAndCounts(int[] keys) {
+        DirectCounter direct = new DirectCounter(64);
+        for (int key : keys) {
+            direct.increment(key);
+        }
+        GrowableCounter copy = new GrowableCounter(direct, MAX_LOAD_PERCENT);
+        assertEquals(direct.getNonZeroSize(), copy.getNonZeroSize());
+        IntList indices = direct.getNonZeroIndices();
+        for (int i = 0; i < indices.size(); i++) {
+            int idx = indices.get(i);
+            assertEquals(direct.getAtIndex(idx), copy.get(direct.keyAtIndex(idx)));
+        }
+        assertThat(copy.getNonZeroSize() * 100, lessThanOrEqualTo(copy.capacity() * MAX_LOAD_PERCENT));
+    }
+}
@@ -28,6 +28,7 @@
  */
 package edu.berkeley.cs.jqf.fuzz.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 
@@ -126,6 +127,26 @@ public class NonZeroCachingCountersTest {
     }
 
 
+    @Property
+    public void primitiveIterationMatchesCollections(int[] keys) {
+        Counter counter = new NonZeroCachingCounter(COUNTER_SIZE);
+        for (int key : keys) {
+            counter.increment(key);
+        }
+
+        IntList indices = new IntList();
+        IntList values = new IntList();
+        counter.forEachNonZeroIndex(indices::add);
+        counter.forEachNonZeroValue(values::add);
+        assertEquals(new ArrayList<>(counter.getNonZeroIndices()), indices.boxed());
+        assertEquals(new ArrayList<>(counter.getNonZeroValues()), values.boxed());
+
+        counter.clear();
+        IntList afterClear = new IntList();
+        counter.forEachNonZeroIndex(afterClear::add);
+        assertTrue(afterClear.isEmpty());
+    }
+
     @Property
     public void nonZeroSizeIsAccurate(int[] keys, int delta) {
         Counter counter1 = new Counter(COUNTER_SIZE);
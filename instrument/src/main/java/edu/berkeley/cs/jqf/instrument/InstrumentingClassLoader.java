@@ -28,8 +28,6 @@
  */
 package edu.berkeley.cs.jqf.instrument;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,15 +36,26 @@ import java.lang.instrument.IllegalClassFormatException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.Arrays;
 
 import janala.instrument.SnoopInstructionTransformer;
 
 /**
+ * A class loader that instruments classes loaded from its URLs.
+ *
+ * <p>This loader is registered as parallel-capable, so distinct classes
+ * are loaded, instrumented and defined concurrently; the JVM only serializes
+ * loading of the same class name.</p>
+ *
  * @author Rohan Padhye
  */
 public class InstrumentingClassLoader extends URLClassLoader {
 
-    private ClassFileTransformer transformer = new SnoopInstructionTransformer();
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private final ClassFileTransformer transformer = new SnoopInstructionTransformer();
 
     public InstrumentingClassLoader(URL[] urls, ClassLoader parent) {
         super(urls, parent);
@@ -76,14 +85,7 @@ public class InstrumentingClassLoader extends URLClassLoader {
             if (in == null) {
                 throw new ClassNotFoundException("Cannot find class " + name);
             }
-            BufferedInputStream buf = new BufferedInputStream(in);
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            int b;
-            while ((b = buf.read()) != -1) {
-                baos.write(b);
-            }
-            bytes = baos.toByteArray();
+            bytes = readFully(in);
         } catch (IOException e) {
             throw new ClassNotFoundException("I/O exception while loading class.", e);
         }
@@ -107,4 +109,18 @@ public class InstrumentingClassLoader extends URLClassLoader {
                 0, bytes.length);
     }
 
+    /** Reads a stream in bulk; class files are usually read in one or two chunks. */
+    private static byte[] readFully(InputStream in) throws IOException {
+        byte[] buf = new byte[Math.max(in.available(), 8192)];
+        int len = 0;
+        int n;
+        while ((n = in.read(buf, len, buf.length - len)) != -1) {
+            len += n;
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+        return Arrays.copyOf(buf, len);
+    }
+
 }
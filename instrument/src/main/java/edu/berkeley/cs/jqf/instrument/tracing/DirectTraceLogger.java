@@ -0,0 +1,708 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+/**
+ * A trace logger that passes the operands of each instruction directly
+ * to the thread's tracer, without allocating instruction objects.
+ *
+ * <p>Instructions that the tracer does not act on, such as loads,
+ * stores and arithmetic, are dropped without being looked at. The
+ * remaining ones are handled by the primitive methods of
+ * {@link ThreadTracer}, which in this mode also reuses its trace events
+ * and the handlers of traced calls. Together, this means that the
+ * tracing path allocates nothing per instruction, other than when the
+ * tracer's call stack first grows to a new depth.</p>
+ *
+ * <p>The catch is that each {@link edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent}
+ * is only valid while the guidance's callback is handling it; see
+ * {@link ThreadTracer#ThreadTracer(Thread, String, java.util.function.Consumer, boolean)}.
+ * This logger must therefore not be used with guidances that keep
+ * events around, such as the AFL performance guidance.</p>
+ *
+ * <p>This logger is enabled by setting the system property
+ * <tt>jqf.tracing.RECYCLE_EVENTS</tt> to <tt>true</tt>.</p>
+ */
+class DirectTraceLogger extends TraceLogger {
+
+    DirectTraceLogger() {
+        super(true);
+    }
+
+    @Override
+    public void LOOKUPSWITCH(int iid, int mid, int dflt, int[] keys, int[] labels) {
+        ThreadTracer t = tracer.get();
+        t.lookupSwitch(iid, mid, keys);
+    }
+
+    @Override
+    public void TABLESWITCH(int iid, int mid, int min, int max, int dflt, int[] labels) {
+        ThreadTracer t = tracer.get();
+        t.tableSwitch(iid, mid, min, max);
+    }
+
+    @Override
+    public void IFEQ(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IFNE(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IFLT(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IFGE(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IFGT(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IFLE(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPEQ(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPNE(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPLT(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPGE(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPGT(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPLE(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IF_ACMPEQ(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IF_ACMPNE(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IFNULL(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void IFNONNULL(int iid, int mid, int label) {
+        ThreadTracer t = tracer.get();
+        t.branch(iid, mid);
+    }
+
+    @Override
+    public void INVOKEVIRTUAL(int iid, int mid, String owner, String name, String desc) {
+        ThreadTracer t = tracer.get();
+        t.invoke(iid, mid, owner, name, desc);
+    }
+
+    @Override
+    public void INVOKESPECIAL(int iid, int mid, String owner, String name, String desc) {
+        ThreadTracer t = tracer.get();
+        t.invoke(iid, mid, owner, name, desc);
+    }
+
+    @Override
+    public void INVOKESTATIC(int iid, int mid, String owner, String name, String desc) {
+        ThreadTracer t = tracer.get();
+        t.invoke(iid, mid, owner, name, desc);
+    }
+
+    @Override
+    public void INVOKEINTERFACE(int iid, int mid, String owner, String name, String desc) {
+        ThreadTracer t = tracer.get();
+        t.invoke(iid, mid, owner, name, desc);
+    }
+
+    @Override
+    public void HEAPLOAD(int iid, int mid, int objectId, String field) {
+        ThreadTracer t = tracer.get();
+        t.heapLoad(iid, mid, objectId, field);
+    }
+
+    @Override
+    public void NEW(int iid, int mid, String type, int cIdx) {
+        ThreadTracer t = tracer.get();
+        t.newObject(iid, mid);
+    }
+
+    @Override
+    public void NEWARRAY(int iid, int mid) {
+        ThreadTracer t = tracer.get();
+        t.newArray(iid, mid);
+    }
+
+    @Override
+    public void IRETURN(int iid, int mid) {
+        ThreadTracer t = tracer.get();
+        t.returnOrThrow(iid, mid);
+    }
+
+    @Override
+    public void LRETURN(int iid, int mid) {
+        ThreadTracer t = tracer.get();
+        t.returnOrThrow(iid, mid);
+    }
+
+    @Override
+    public void FRETURN(int iid, int mid) {
+        ThreadTracer t = tracer.get();
+        t.returnOrThrow(iid, mid);
+    }
+
+    @Override
+    public void DRETURN(int iid, int mid) {
+        ThreadTracer t = tracer.get();
+        t.returnOrThrow(iid, mid);
+    }
+
+    @Override
+    public void ARETURN(int iid, int mid) {
+        ThreadTracer t = tracer.get();
+        t.returnOrThrow(iid, mid);
+    }
+
+    @Override
+    public void RETURN(int iid, int mid) {
+        ThreadTracer t = tracer.get();
+        t.returnOrThrow(iid, mid);
+    }
+
+    @Override
+    public void GETVALUE_boolean(boolean v) {
+        ThreadTracer t = tracer.get();
+        t.getValueBoolean(v);
+    }
+
+    @Override
+    public void GETVALUE_int(int v) {
+        ThreadTracer t = tracer.get();
+        t.getValueInt(v);
+    }
+
+    @Override
+    public void METHOD_BEGIN(String owner, String name, String desc) {
+        ThreadTracer t = tracer.get();
+        t.methodBegin(owner, name, desc);
+    }
+
+    @Override
+    public void METHOD_THROW() {
+        ThreadTracer t = tracer.get();
+        t.returnOrThrow(-1, -1);
+    }
+
+    @Override
+    public void INVOKEMETHOD_EXCEPTION() {
+        ThreadTracer t = tracer.get();
+        t.invokeException();
+    }
+
+    @Override
+    public void INVOKEMETHOD_END() {
+        ThreadTracer t = tracer.get();
+        t.invokeEnd();
+    }
+
+    @Override
+    public void SPECIAL(int i) {
+        ThreadTracer t = tracer.get();
+        t.special(i);
+    }
+
+    // Instructions below do not affect tracing
+
+    @Override
+    public void LDC(int iid, int mid, int c) { }
+
+    @Override
+    public void LDC(int iid, int mid, long c) { }
+
+    @Override
+    public void LDC(int iid, int mid, float c) { }
+
+    @Override
+    public void LDC(int iid, int mid, double c) { }
+
+    @Override
+    public void LDC(int iid, int mid, String c) { }
+
+    @Override
+    public void LDC(int iid, int mid, Object c) { }
+
+    @Override
+    public void IINC(int iid, int mid, int var, int increment) { }
+
+    @Override
+    public void MULTIANEWARRAY(int iid, int mid, String desc, int dims) { }
+
+    @Override
+    public void GOTO(int iid, int mid, int label) { }
+
+    @Override
+    public void JSR(int iid, int mid, int label) { }
+
+    @Override
+    public void GETSTATIC(int iid, int mid, int cIdx, int fIdx, String desc) { }
+
+    @Override
+    public void PUTSTATIC(int iid, int mid, int cIdx, int fIdx, String desc) { }
+
+    @Override
+    public void GETFIELD(int iid, int mid, int cIdx, int fIdx, String desc) { }
+
+    @Override
+    public void PUTFIELD(int iid, int mid, int cIdx, int fIdx, String desc) { }
+
+    @Override
+    public void ANEWARRAY(int iid, int mid, String type) { }
+
+    @Override
+    public void CHECKCAST(int iid, int mid, String type) { }
+
+    @Override
+    public void INSTANCEOF(int iid, int mid, String type) { }
+
+    @Override
+    public void BIPUSH(int iid, int mid, int value) { }
+
+    @Override
+    public void SIPUSH(int iid, int mid, int value) { }
+
+    @Override
+    public void ILOAD(int iid, int mid, int var) { }
+
+    @Override
+    public void LLOAD(int iid, int mid, int var) { }
+
+    @Override
+    public void FLOAD(int iid, int mid, int var) { }
+
+    @Override
+    public void DLOAD(int iid, int mid, int var) { }
+
+    @Override
+    public void ALOAD(int iid, int mid, int var) { }
+
+    @Override
+    public void ISTORE(int iid, int mid, int var) { }
+
+    @Override
+    public void LSTORE(int iid, int mid, int var) { }
+
+    @Override
+    public void FSTORE(int iid, int mid, int var) { }
+
+    @Override
+    public void DSTORE(int iid, int mid, int var) { }
+
+    @Override
+    public void ASTORE(int iid, int mid, int var) { }
+
+    @Override
+    public void RET(int iid, int mid, int var) { }
+
+    @Override
+    public void NOP(int iid, int mid) { }
+
+    @Override
+    public void ACONST_NULL(int iid, int mid) { }
+
+    @Override
+    public void ICONST_M1(int iid, int mid) { }
+
+    @Override
+    public void ICONST_0(int iid, int mid) { }
+
+    @Override
+    public void ICONST_1(int iid, int mid) { }
+
+    @Override
+    public void ICONST_2(int iid, int mid) { }
+
+    @Override
+    public void ICONST_3(int iid, int mid) { }
+
+    @Override
+    public void ICONST_4(int iid, int mid) { }
+
+    @Override
+    public void ICONST_5(int iid, int mid) { }
+
+    @Override
+    public void LCONST_0(int iid, int mid) { }
+
+    @Override
+    public void LCONST_1(int iid, int mid) { }
+
+    @Override
+    public void FCONST_0(int iid, int mid) { }
+
+    @Override
+    public void FCONST_1(int iid, int mid) { }
+
+    @Override
+    public void FCONST_2(int iid, int mid) { }
+
+    @Override
+    public void DCONST_0(int iid, int mid) { }
+
+    @Override
+    public void DCONST_1(int iid, int mid) { }
+
+    @Override
+    public void IALOAD(int iid, int mid) { }
+
+    @Override
+    public void LALOAD(int iid, int mid) { }
+
+    @Override
+    public void FALOAD(int iid, int mid) { }
+
+    @Override
+    public void DALOAD(int iid, int mid) { }
+
+    @Override
+    public void AALOAD(int iid, int mid) { }
+
+    @Override
+    public void BALOAD(int iid, int mid) { }
+
+    @Override
+    public void CALOAD(int iid, int mid) { }
+
+    @Override
+    public void SALOAD(int iid, int mid) { }
+
+    @Override
+    public void IASTORE(int iid, int mid) { }
+
+    @Override
+    public void LASTORE(int iid, int mid) { }
+
+    @Override
+    public void FASTORE(int iid, int mid) { }
+
+    @Override
+    public void DASTORE(int iid, int mid) { }
+
+    @Override
+    public void AASTORE(int iid, int mid) { }
+
+    @Override
+    public void BASTORE(int iid, int mid) { }
+
+    @Override
+    public void CASTORE(int iid, int mid) { }
+
+    @Override
+    public void SASTORE(int iid, int mid) { }
+
+    @Override
+    public void POP(int iid, int mid) { }
+
+    @Override
+    public void POP2(int iid, int mid) { }
+
+    @Override
+    public void DUP(int iid, int mid) { }
+
+    @Override
+    public void DUP_X1(int iid, int mid) { }
+
+    @Override
+    public void DUP_X2(int iid, int mid) { }
+
+    @Override
+    public void DUP2(int iid, int mid) { }
+
+    @Override
+    public void DUP2_X1(int iid, int mid) { }
+
+    @Override
+    public void DUP2_X2(int iid, int mid) { }
+
+    @Override
+    public void SWAP(int iid, int mid) { }
+
+    @Override
+    public void IADD(int iid, int mid) { }
+
+    @Override
+    public void LADD(int iid, int mid) { }
+
+    @Override
+    public void FADD(int iid, int mid) { }
+
+    @Override
+    public void DADD(int iid, int mid) { }
+
+    @Override
+    public void ISUB(int iid, int mid) { }
+
+    @Override
+    public void LSUB(int iid, int mid) { }
+
+    @Override
+    public void FSUB(int iid, int mid) { }
+
+    @Override
+    public void DSUB(int iid, int mid) { }
+
+    @Override
+    public void IMUL(int iid, int mid) { }
+
+    @Override
+    public void LMUL(int iid, int mid) { }
+
+    @Override
+    public void FMUL(int iid, int mid) { }
+
+    @Override
+    public void DMUL(int iid, int mid) { }
+
+    @Override
+    public void IDIV(int iid, int mid) { }
+
+    @Override
+    public void LDIV(int iid, int mid) { }
+
+    @Override
+    public void FDIV(int iid, int mid) { }
+
+    @Override
+    public void DDIV(int iid, int mid) { }
+
+    @Override
+    public void IREM(int iid, int mid) { }
+
+    @Override
+    public void LREM(int iid, int mid) { }
+
+    @Override
+    public void FREM(int iid, int mid) { }
+
+    @Override
+    public void DREM(int iid, int mid) { }
+
+    @Override
+    public void INEG(int iid, int mid) { }
+
+    @Override
+    public void LNEG(int iid, int mid) { }
+
+    @Override
+    public void FNEG(int iid, int mid) { }
+
+    @Override
+    public void DNEG(int iid, int mid) { }
+
+    @Override
+    public void ISHL(int iid, int mid) { }
+
+    @Override
+    public void LSHL(int iid, int mid) { }
+
+    @Override
+    public void ISHR(int iid, int mid) { }
+
+    @Override
+    public void LSHR(int iid, int mid) { }
+
+    @Override
+    public void IUSHR(int iid, int mid) { }
+
+    @Override
+    public void LUSHR(int iid, int mid) { }
+
+    @Override
+    public void IAND(int iid, int mid) { }
+
+    @Override
+    public void LAND(int iid, int mid) { }
+
+    @Override
+    public void IOR(int iid, int mid) { }
+
+    @Override
+    public void LOR(int iid, int mid) { }
+
+    @Override
+    public void IXOR(int iid, int mid) { }
+
+    @Override
+    public void LXOR(int iid, int mid) { }
+
+    @Override
+    public void I2L(int iid, int mid) { }
+
+    @Override
+    public void I2F(int iid, int mid) { }
+
+    @Override
+    public void I2D(int iid, int mid) { }
+
+    @Override
+    public void L2I(int iid, int mid) { }
+
+    @Override
+    public void L2F(int iid, int mid) { }
+
+    @Override
+    public void L2D(int iid, int mid) { }
+
+    @Override
+    public void F2I(int iid, int mid) { }
+
+    @Override
+    public void F2L(int iid, int mid) { }
+
+    @Override
+    public void F2D(int iid, int mid) { }
+
+    @Override
+    public void D2I(int iid, int mid) { }
+
+    @Override
+    public void D2L(int iid, int mid) { }
+
+    @Override
+    public void D2F(int iid, int mid) { }
+
+    @Override
+    public void I2B(int iid, int mid) { }
+
+    @Override
+    public void I2C(int iid, int mid) { }
+
+    @Override
+    public void I2S(int iid, int mid) { }
+
+    @Override
+    public void LCMP(int iid, int mid) { }
+
+    @Override
+    public void FCMPL(int iid, int mid) { }
+
+    @Override
+    public void FCMPG(int iid, int mid) { }
+
+    @Override
+    public void DCMPL(int iid, int mid) { }
+
+    @Override
+    public void DCMPG(int iid, int mid) { }
+
+    @Override
+    public void ARRAYLENGTH(int iid, int mid) { }
+
+    @Override
+    public void ATHROW(int iid, int mid) { }
+
+    @Override
+    public void MONITORENTER(int iid, int mid) { }
+
+    @Override
+    public void MONITOREXIT(int iid, int mid) { }
+
+    @Override
+    public void GETVALUE_double(double v) { }
+
+    @Override
+    public void GETVALUE_long(long v) { }
+
+    @Override
+    public void GETVALUE_Object(Object v) { }
+
+    @Override
+    public void GETVALUE_byte(byte v) { }
+
+    @Override
+    public void GETVALUE_char(char v) { }
+
+    @Override
+    public void GETVALUE_float(float v) { }
+
+    @Override
+    public void GETVALUE_short(short v) { }
+
+    @Override
+    public void GETVALUE_void() { }
+
+    @Override
+    public void MAKE_SYMBOLIC() { }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.Arrays;
+
+import janala.instrument.Config;
+
+/**
+ * An AFL-style edge-coverage map that is updated directly by
+ * instrumented code.
+ *
+ * <p>When classes are instrumented with the <tt>edgemap</tt> profile
+ * (i.e. <tt>janala.profile=edgemap</tt>), no trace events are generated.
+ * Instead, the instrumentation inlines code at every method entry
+ * and at every arm of every branch or switch, which performs the
+ * equivalent of AFL's <tt>counts[cur ^ prev]++; prev = cur &gt;&gt; 1</tt>,
+ * where <tt>cur</tt> is a location ID fixed at instrumentation time.
+ * When an entry goes from zero to non-zero, the inlined code also
+ * records its index via {@link #touch(int)}, so that guidances can
+ * collect the counts after each run with {@link #drain(CountConsumer)}
+ * at a cost proportional to the number of edges covered, rather than
+ * to the size of the map.</p>
+ *
+ * <p>The counts are global and unsynchronized, so, as in AFL, they are
+ * approximate when multiple threads execute instrumented code.</p>
+ */
+public final class EdgeMap {
+
+    /** The number of entries in the map; must be a power of two. */
+    public static final int SIZE = 1 << 16;
+
+    /** The internal name of this class, referenced by instrumented code. */
+    public static final String INTERNAL_NAME = "edu/berkeley/cs/jqf/instrument/tracing/EdgeMap";
+
+    /** The 8-bit hit counts for each edge (overflows wrap around, as in AFL). */
+    public static final byte[] counts = new byte[SIZE];
+
+    /** The location ID of the last block, shifted right by one. */
+    public static int prevLocation;
+
+    /** Indexes of the entries that became non-zero since the last reset, possibly repeated. */
+    private static final int[] touched = new int[SIZE];
+
+    /** The number of entries in {@link #touched}, or -1 if the whole map must be scanned. */
+    private static int numTouched = 0;
+
+    /** A receiver of the non-zero counts of the map. */
+    public interface CountConsumer {
+        /**
+         * Receives the count of an entry.
+         *
+         * @param index the index of the entry
+         * @param count its 8-bit hit count, which is not zero
+         */
+        void accept(int index, int count);
+    }
+
+    private EdgeMap() {}
+
+    /**
+     * Returns whether instrumented classes update this map
+     * instead of emitting trace events.
+     *
+     * @return <tt>true</tt> iff the <tt>edgemap</tt> instrumentation profile is active
+     */
+    public static boolean isEnabled() {
+        return Config.instance.edgeMapOnly;
+    }
+
+    /**
+     * Records that an entry has become non-zero; called by instrumented code.
+     *
+     * <p>An entry whose count wraps around is recorded again.</p>
+     *
+     * @param index the index of the entry
+     */
+    public static synchronized void touch(int index) {
+        if (numTouched >= 0) {
+            if (numTouched < SIZE) {
+                touched[numTouched++] = index;
+            } else {
+                numTouched = -1;
+            }
+        }
+    }
+
+    /**
+     * Passes each non-zero count to a consumer, once per entry, and then
+     * resets the map.
+     *
+     * @param consumer the receiver of the counts
+     */
+    public static synchronized void drain(CountConsumer consumer) {
+        if (numTouched < 0) {
+            for (int i = 0; i < SIZE; i++) {
+                if (counts[i] != 0) {
+                    consumer.accept(i, counts[i] & 0xFF);
+                }
+            }
+        } else {
+            for (int k = 0; k < numTouched; k++) {
+                int i = touched[k];
+                int count = counts[i] & 0xFF;
+                if (count != 0) {
+                    // Clear as we go, so that repeated indexes are only reported once
+                    counts[i] = 0;
+                    consumer.accept(i, count);
+                }
+            }
+        }
+        reset();
+    }
+
+    /** Clears all counts and the previous location. */
+    public static synchronized void reset() {
+        if (numTouched < 0) {
+            Arrays.fill(counts, (byte) 0);
+        } else {
+            for (int k = 0; k < numTouched; k++) {
+                counts[touched[k]] = 0;
+            }
+        }
+        numTouched = 0;
+        prevLocation = 0;
+    }
+}
@@ -30,7 +30,9 @@
 package edu.berkeley.cs.jqf.instrument.tracing;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
 import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.instrument.tracing.events.AllocEvent;
@@ -39,6 +41,7 @@ import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReadEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEventPool;
 import janala.logger.inst.*;
 
 /**
@@ -50,6 +53,13 @@ import janala.logger.inst.*;
  * {@link TraceEvent} instances, which are then emitted to be processed
  * by the guidance-provided callback.</p>
  *
+ * <p>Instructions can be consumed either as {@link Instruction} objects
+ * or through primitive methods such as {@link #branch(int, int)}, which
+ * take the operands of the instruction directly. A tracer that recycles
+ * events allocates nothing per instruction on the latter path; see
+ * {@link #ThreadTracer(Thread, String, Consumer, boolean)} for what this
+ * means for the callback.</p>
+ *
  * @author Rohan Padhye
  */
 public class ThreadTracer {
@@ -57,11 +67,19 @@ public class ThreadTracer {
     protected final String entryPointClass;
     protected final String entryPointMethod;
     protected final Consumer<TraceEvent> callback;
-    private final Deque<IVisitor> handlers = new ArrayDeque<>();
+    private final Deque<Handler> handlers = new ArrayDeque<>();
 
     // Values set by GETVALUE_* instructions inserted by Janala
     private final Values values = new Values();
 
+    // Handlers for the outermost frame and for untraced calls, which are stateless
+    private final Handler baseHandler = new BaseHandler();
+    private final Handler matchingNullHandler = new MatchingNullHandler();
+
+    // Reused events and per-depth call handlers, or null if these are allocated afresh
+    private final TraceEventPool eventPool;
+    private final List<TraceEventGeneratingHandler> callHandlers;
+
     // Whether to instrument generators
     private final boolean traceGenerators;
 
@@ -81,6 +99,27 @@ public class ThreadTracer {
      * @param callback the callback to invoke whenever a trace event is emitted
      */
     protected ThreadTracer(Thread tracee, String entryPoint, Consumer<TraceEvent> callback) {
+        this(tracee, entryPoint, callback, false);
+    }
+
+    /**
+     * Creates a new tracer that will process instructions executed by an application
+     * thread, optionally recycling trace events.
+     *
+     * <p>If <tt>recycleEvents</tt> is set, then each event passed to the
+     * callback, as well as the {@link MemberRef}s that it refers to, is
+     * only valid until the callback returns. The tracer overwrites them
+     * when emitting later events, so a callback that needs an event
+     * afterwards must copy the information it needs. Otherwise, every
+     * event is a new object that the callback may retain.</p>
+     *
+     * @param tracee the thread to trace
+     * @param entryPoint the outermost method call to trace (formatted as fq-class#method)
+     * @param callback the callback to invoke whenever a trace event is emitted
+     * @param recycleEvents whether to reuse events instead of allocating them
+     */
+    protected ThreadTracer(Thread tracee, String entryPoint, Consumer<TraceEvent> callback,
+                           boolean recycleEvents) {
         this.tracee = tracee;
         if (entryPoint != null) {
             int separator = entryPoint.indexOf('#');
@@ -95,20 +134,23 @@ public class ThreadTracer {
         }
         this.traceGenerators = Boolean.getBoolean("jqf.traceGenerators");
         this.callback = callback;
-        this.handlers.push(new BaseHandler());
+        this.eventPool = recycleEvents ? new TraceEventPool() : null;
+        this.callHandlers = recycleEvents ? new ArrayList<>() : null;
+        this.handlers.push(baseHandler);
     }
 
     /**
      * Spawns a thread tracer for the given thread.
      *
      * @param thread the thread to trace
+     * @param recycleEvents whether the tracer should reuse events instead of allocating them
      * @return a tracer for the given thread
      */
-    protected static ThreadTracer spawn(Thread thread) {
+    protected static ThreadTracer spawn(Thread thread, boolean recycleEvents) {
         String entryPoint = SingleSnoop.entryPoints.get(thread);
         Consumer<TraceEvent> callback = SingleSnoop.callbackGenerator.apply(thread);
         ThreadTracer t =
-                new ThreadTracer(thread, entryPoint, callback);
+                new ThreadTracer(thread, entryPoint, callback, recycleEvents);
         return t;
     }
 
@@ -121,6 +163,70 @@ public class ThreadTracer {
         callback.accept(e);
     }
 
+    private void emitCall(int iid, MemberRef containingMethod, int lineNumber, MemberRef invokedMethod) {
+        emit(eventPool != null ?
+                eventPool.call(iid, containingMethod, lineNumber, invokedMethod) :
+                new CallEvent(iid, containingMethod, lineNumber, invokedMethod));
+    }
+
+    private void emitReturn(int iid, MemberRef containingMethod, int lineNumber) {
+        emit(eventPool != null ?
+                eventPool.ret(iid, containingMethod, lineNumber) :
+                new ReturnEvent(iid, containingMethod, lineNumber));
+    }
+
+    private void emitBranch(int iid, MemberRef containingMethod, int lineNumber, int arm) {
+        emit(eventPool != null ?
+                eventPool.branch(iid, containingMethod, lineNumber, arm) :
+                new BranchEvent(iid, containingMethod, lineNumber, arm));
+    }
+
+    private void emitRead(int iid, MemberRef containingMethod, int lineNumber, int objectId, String field) {
+        emit(eventPool != null ?
+                eventPool.read(iid, containingMethod, lineNumber, objectId, field) :
+                new ReadEvent(iid, containingMethod, lineNumber, objectId, field));
+    }
+
+    private void emitAlloc(int iid, MemberRef containingMethod, int lineNumber, int size) {
+        emit(eventPool != null ?
+                eventPool.alloc(iid, containingMethod, lineNumber, size) :
+                new AllocEvent(iid, containingMethod, lineNumber, size));
+    }
+
+    /**
+     * Returns a handler for a traced call, reusing the one previously
+     * used at the same depth if events are recycled.
+     *
+     * <p>Reuse is safe because at most one traced call per depth is
+     * active at any time.</p>
+     */
+    private TraceEventGeneratingHandler callHandler(String owner, String name, String desc, int depth) {
+        TraceEventGeneratingHandler handler;
+        if (callHandlers == null) {
+            handler = new TraceEventGeneratingHandler();
+        } else {
+            while (callHandlers.size() <= depth) {
+                callHandlers.add(new TraceEventGeneratingHandler());
+            }
+            handler = callHandlers.get(depth);
+        }
+        handler.enter(owner, name, desc, depth);
+        return handler;
+    }
+
+    /**
+     * Discards the stack of active calls, so that the next instruction
+     * is handled as if the thread had just started.
+     *
+     * <p>This recovers from a run that was aborted by an exception
+     * thrown from the callback, which may leave behind the handlers of
+     * calls that never returned.</p>
+     */
+    protected final void reset() {
+        handlers.clear();
+        handlers.push(baseHandler);
+    }
+
     /**
      * Handles tracing of a single bytecode instruction.
      *
@@ -131,6 +237,76 @@ public class ThreadTracer {
         ins.visit(handlers.peek());
     }
 
+    /** Handles the start of a method, like {@link METHOD_BEGIN}. */
+    final void methodBegin(String owner, String name, String desc) {
+        handlers.peek().methodBegin(owner, name, desc);
+    }
+
+    /** Handles a method invocation, like an {@link InvokeInstruction}. */
+    final void invoke(int iid, int mid, String owner, String name, String desc) {
+        handlers.peek().invoke(iid, mid, owner, name, desc);
+    }
+
+    /** Handles the normal end of an invocation, like {@link INVOKEMETHOD_END}. */
+    final void invokeEnd() {
+        handlers.peek().invokeEnd();
+    }
+
+    /** Handles the exceptional end of an invocation, like {@link INVOKEMETHOD_EXCEPTION}. */
+    final void invokeException() {
+        handlers.peek().invokeException();
+    }
+
+    /** Handles a marker instruction, like {@link SPECIAL}. */
+    final void special(int i) {
+        handlers.peek().special(i);
+    }
+
+    /** Handles an <tt>int</tt> operand, like {@link GETVALUE_int}. */
+    final void getValueInt(int v) {
+        handlers.peek().getValueInt(v);
+    }
+
+    /** Handles a <tt>boolean</tt> operand, like {@link GETVALUE_boolean}. */
+    final void getValueBoolean(boolean v) {
+        handlers.peek().getValueBoolean(v);
+    }
+
+    /** Handles a conditional jump, like {@link ConditionalBranch}. */
+    final void branch(int iid, int mid) {
+        handlers.peek().branch(iid, mid);
+    }
+
+    /** Handles a {@link TABLESWITCH}. */
+    final void tableSwitch(int iid, int mid, int min, int max) {
+        handlers.peek().tableSwitch(iid, mid, min, max);
+    }
+
+    /** Handles a {@link LOOKUPSWITCH}. */
+    final void lookupSwitch(int iid, int mid, int[] keys) {
+        handlers.peek().lookupSwitch(iid, mid, keys);
+    }
+
+    /** Handles a field or array read, like {@link HEAPLOAD}. */
+    final void heapLoad(int iid, int mid, int objectId, String field) {
+        handlers.peek().heapLoad(iid, mid, objectId, field);
+    }
+
+    /** Handles an object allocation, like {@link NEW}. */
+    final void newObject(int iid, int mid) {
+        handlers.peek().newObject(iid, mid);
+    }
+
+    /** Handles an array allocation, like {@link NEWARRAY}. */
+    final void newArray(int iid, int mid) {
+        handlers.peek().newArray(iid, mid);
+    }
+
+    /** Handles a method exit, like a return instruction or {@link METHOD_THROW}. */
+    final void returnOrThrow(int iid, int mid) {
+        handlers.peek().returnOrThrow(iid, mid);
+    }
+
 
     private static boolean isReturnOrMethodThrow(Instruction inst) {
         return  inst instanceof ARETURN ||
@@ -163,40 +339,153 @@ public class ThreadTracer {
         private Object objectValue;
         private short shortValue;
     }
-    
-    private static boolean sameNameDesc(MemberRef m1, MemberRef m2) {
-        return m1 != null && m2 != null &&
-                m1.getName().equals(m2.getName()) &&
-                m1.getDesc().equals(m2.getDesc());
-    }
 
 
 
-    class BaseHandler extends ControlFlowInstructionVisitor {
+    /**
+     * A handler for instructions within a particular frame.
+     *
+     * <p>Instructions are handled by the primitive methods of this class,
+     * which do nothing by default. Instruction objects are visited by
+     * passing their operands to these methods.</p>
+     */
+    abstract class Handler extends ControlFlowInstructionVisitor {
+        void methodBegin(String owner, String name, String desc) { }
+        void invoke(int iid, int mid, String owner, String name, String desc) { }
+        void invokeEnd() { }
+        void invokeException() { }
+        void special(int i) { }
+        void getValueInt(int v) { }
+        void getValueBoolean(boolean v) { }
+        void branch(int iid, int mid) { }
+        void tableSwitch(int iid, int mid, int min, int max) { }
+        void lookupSwitch(int iid, int mid, int[] keys) { }
+        void heapLoad(int iid, int mid, int objectId, String field) { }
+        void newObject(int iid, int mid) { }
+        void newArray(int iid, int mid) { }
+        void returnOrThrow(int iid, int mid) { }
+
         @Override
-        public void visitMETHOD_BEGIN(METHOD_BEGIN begin) {
+        public final void visitMETHOD_BEGIN(METHOD_BEGIN begin) {
+            methodBegin(begin.owner, begin.name, begin.desc);
+        }
+
+        @Override
+        public final void visitInvokeInstruction(InvokeInstruction ins) {
+            Instruction inst = (Instruction) ins;
+            invoke(inst.iid, inst.mid, ins.getOwner(), ins.getName(), ins.getDesc());
+        }
+
+        @Override
+        public final void visitINVOKEMETHOD_END(INVOKEMETHOD_END ins) {
+            invokeEnd();
+        }
+
+        @Override
+        public final void visitINVOKEMETHOD_EXCEPTION(INVOKEMETHOD_EXCEPTION ins) {
+            invokeException();
+        }
+
+        @Override
+        public final void visitSPECIAL(SPECIAL special) {
+            special(special.i);
+        }
+
+        @Override
+        public final void visitGETVALUE_int(GETVALUE_int gv) {
+            getValueInt(gv.v);
+        }
+
+        @Override
+        public final void visitGETVALUE_boolean(GETVALUE_boolean gv) {
+            getValueBoolean(gv.v);
+        }
+
+        @Override
+        public final void visitConditionalBranch(Instruction ins) {
+            branch(ins.iid, ins.mid);
+        }
+
+        @Override
+        public final void visitTABLESWITCH(TABLESWITCH tableSwitch) {
+            tableSwitch(tableSwitch.iid, tableSwitch.mid, tableSwitch.min, tableSwitch.max);
+        }
+
+        @Override
+        public final void visitLOOKUPSWITCH(LOOKUPSWITCH lookupSwitch) {
+            lookupSwitch(lookupSwitch.iid, lookupSwitch.mid, lookupSwitch.keys);
+        }
+
+        @Override
+        public final void visitHEAPLOAD(HEAPLOAD heapload) {
+            heapLoad(heapload.iid, heapload.mid, heapload.objectId, heapload.field);
+        }
+
+        @Override
+        public final void visitNEW(NEW newInst) {
+            newObject(newInst.iid, newInst.mid);
+        }
+
+        @Override
+        public final void visitNEWARRAY(NEWARRAY newArray) {
+            newArray(newArray.iid, newArray.mid);
+        }
+
+        @Override
+        public final void visitReturnOrMethodThrow(Instruction ins) {
+            returnOrThrow(ins.iid, ins.mid);
+        }
+    }
+
+    class BaseHandler extends Handler {
+        @Override
+        void methodBegin(String clazz, String method, String desc) {
             // Try to match the top-level call with the entry point
-            String clazz = begin.getOwner();
-            String method = begin.getName();
             if ((clazz.equals(entryPointClass) && method.equals(entryPointMethod)) ||
                     (traceGenerators && clazz.endsWith("Generator") && method.equals("generate")) ) {
-                emit(new CallEvent(0, null, 0, begin));
-                handlers.push(new TraceEventGeneratingHandler(begin, 0));
+                TraceEventGeneratingHandler callee = callHandler(clazz, method, desc, 0);
+                emitCall(0, null, 0, callee);
+                handlers.push(callee);
             } else {
                 // Ignore all top-level calls that are not the entry point
-                handlers.push(new MatchingNullHandler());
+                handlers.push(matchingNullHandler);
             }
         }
     }
 
-    class TraceEventGeneratingHandler extends ControlFlowInstructionVisitor {
+    /**
+     * A handler for a traced call, which also serves as the reference
+     * to the called method in the events that it emits.
+     */
+    class TraceEventGeneratingHandler extends Handler implements MemberRef {
 
-        private final int depth;
-        private final MemberRef method;
-        TraceEventGeneratingHandler(METHOD_BEGIN begin, int depth) {
+        private int depth;
+        private String owner;
+        private String name;
+        private String desc;
+
+        void enter(String owner, String name, String desc, int depth) {
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
             this.depth = depth;
-            this.method = begin;
-            //logger.log(tabs() + begin);
+            this.hasInvokeTarget = false;
+            this.invokingSuperOrThis = false;
+        }
+
+        @Override
+        public String getOwner() {
+            return owner;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getDesc() {
+            return desc;
         }
 
         private String tabs() {
@@ -207,38 +496,46 @@ public class ThreadTracer {
             return sb.toString();
         }
 
-        private MemberRef invokeTarget = null;
+        // The invocation target, copied from the invoke instruction so that it need not be retained
+        private boolean hasInvokeTarget = false;
+        private int invokeIid;
+        private int invokeMid;
+        private String invokeName;
+        private String invokeDesc;
         private boolean invokingSuperOrThis = false;
 
+        private boolean invokeTargetMatches(String name, String desc) {
+            return hasInvokeTarget && invokeName.equals(name) && invokeDesc.equals(desc);
+        }
+
         @Override
-        public void visitMETHOD_BEGIN(METHOD_BEGIN begin) {
-            if (!MATCH_CALLEE_NAMES || sameNameDesc(begin, this.invokeTarget)) {
+        void methodBegin(String owner, String name, String desc) {
+            if (!MATCH_CALLEE_NAMES || invokeTargetMatches(name, desc)) {
                 // Trace continues with callee
-                int invokerIid = invokeTarget != null ? ((Instruction) invokeTarget).iid : -1;
-                int invokerMid = invokeTarget != null ? ((Instruction) invokeTarget).mid : -1;
-                emit(new CallEvent(invokerIid, this.method, invokerMid, begin));
-                handlers.push(new TraceEventGeneratingHandler(begin, depth+1));
+                int invokerIid = hasInvokeTarget ? invokeIid : -1;
+                int invokerMid = hasInvokeTarget ? invokeMid : -1;
+                TraceEventGeneratingHandler callee = callHandler(owner, name, desc, depth+1);
+                emitCall(invokerIid, this, invokerMid, callee);
+                handlers.push(callee);
             } else {
                 // Class loading or static initializer
-                handlers.push(new MatchingNullHandler());
+                handlers.push(matchingNullHandler);
             }
-
-            super.visitMETHOD_BEGIN(begin);
         }
 
         @Override
-        public void visitINVOKEMETHOD_EXCEPTION(INVOKEMETHOD_EXCEPTION ins) {
-            if (this.invokeTarget == null) {
+        void invokeException() {
+            if (!this.hasInvokeTarget) {
                 throw new RuntimeException("Unexpected INVOKEMETHOD_EXCEPTION");
             } else {
                 // Unset the invocation target for the rest of the instruction stream
-                this.invokeTarget = null;
+                this.hasInvokeTarget = false;
                 // Handle end of super() or this() call
                 if (invokingSuperOrThis) {
                     while (true) { // will break when outer caller of <init> found
-                        emit(new ReturnEvent(-1, this.method, -1));
+                        emitReturn(-1, this, -1);
                         handlers.pop();
-                        IVisitor handler = handlers.peek();
+                        Handler handler = handlers.peek();
                         // We should not reach the BaseHandler without finding
                         // the TraceEventGeneratingHandler who called the outer <init>().
                         assert (handler instanceof TraceEventGeneratingHandler);
@@ -248,101 +545,83 @@ public class ThreadTracer {
                             continue;
                         } else {
                             // Found caller of new()
-                            assert(traceEventGeneratingHandler.invokeTarget.getName().startsWith("<init>"));
+                            assert(traceEventGeneratingHandler.invokeName.startsWith("<init>"));
                             // Let this handler (now top-of-stack) process the instruction
-                            ins.visit(traceEventGeneratingHandler);
+                            traceEventGeneratingHandler.invokeException();
                             break;
                         }
                     }
                 }
             }
-
-            super.visitINVOKEMETHOD_EXCEPTION(ins);
         }
 
         @Override
-        public void visitINVOKEMETHOD_END(INVOKEMETHOD_END ins) {
-            if (this.invokeTarget == null) {
+        void invokeEnd() {
+            if (!this.hasInvokeTarget) {
                 throw new RuntimeException("Unexpected INVOKEMETHOD_EXCEPTION");
             } else {
                 // Unset the invocation target for the rest of the instruction stream
-                this.invokeTarget = null;
+                this.hasInvokeTarget = false;
                 // Handle end of super() or this() call
                 if (invokingSuperOrThis) {
                     // For normal end, simply unset the flag
                     this.invokingSuperOrThis = false;
                 }
             }
-
-            super.visitINVOKEMETHOD_END(ins);
         }
 
         @Override
-        public void visitSPECIAL(SPECIAL special) {
+        void special(int i) {
             // Handle marker that says calling super() or this()
-            if (special.i == SPECIAL.CALLING_SUPER_OR_THIS) {
+            if (i == SPECIAL.CALLING_SUPER_OR_THIS) {
                 this.invokingSuperOrThis = true;
             }
-            return; // Do not process SPECIAL instructions further
         }
 
         @Override
-        public void visitInvokeInstruction(InvokeInstruction ins) {
+        void invoke(int iid, int mid, String owner, String name, String desc) {
             // Remember invocation target until METHOD_BEGIN or INVOKEMETHOD_END/INVOKEMETHOD_EXCEPTION
-            this.invokeTarget = ins;
-
-            super.visitInvokeInstruction(ins);
+            this.hasInvokeTarget = true;
+            this.invokeIid = iid;
+            this.invokeMid = mid;
+            this.invokeName = name;
+            this.invokeDesc = desc;
         }
 
         @Override
-        public void visitGETVALUE_int(GETVALUE_int gv) {
-            values.intValue = gv.v;
-
-            super.visitGETVALUE_int(gv);
+        void getValueInt(int v) {
+            values.intValue = v;
         }
 
         @Override
-        public void visitGETVALUE_boolean(GETVALUE_boolean gv) {
-            values.booleanValue = gv.v;
-
-            super.visitGETVALUE_boolean(gv);
+        void getValueBoolean(boolean v) {
+            values.booleanValue = v;
         }
 
         @Override
-        public void visitConditionalBranch(Instruction ins) {
-            int iid = ins.iid;
-            int lineNum = ins.mid;
+        void branch(int iid, int lineNum) {
             // The branch taken-or-not would have been set by a previous
             // GETVALUE instruction
             boolean taken = values.booleanValue;
-            emit(new BranchEvent(iid, this.method, lineNum, taken ? 1 : 0));
-
-            super.visitConditionalBranch(ins);
+            emitBranch(iid, this, lineNum, taken ? 1 : 0);
         }
 
         @Override
-        public void visitTABLESWITCH(TABLESWITCH tableSwitch) {
-            int iid = tableSwitch.iid;
-            int lineNum = tableSwitch.mid;
+        void tableSwitch(int iid, int lineNum, int min, int max) {
             int value = values.intValue;
-            int numCases = tableSwitch.labels.length;
+            int numCases = max - min + 1; // labels may be null
             // Compute arm index or else default
             int arm = -1;
             if (value >= 0 && value < numCases) {
                 arm = value;
             }
             // Emit a branch instruction corresponding to the arm
-            emit(new BranchEvent(iid, this.method, lineNum, arm));
-
-            super.visitTABLESWITCH(tableSwitch);
+            emitBranch(iid, this, lineNum, arm);
         }
 
         @Override
-        public void visitLOOKUPSWITCH(LOOKUPSWITCH lookupSwitch) {
-            int iid = lookupSwitch.iid;
-            int lineNum = lookupSwitch.mid;
+        void lookupSwitch(int iid, int lineNum, int[] cases) {
             int value = values.intValue;
-            int[] cases = lookupSwitch.keys;
             // Compute arm index or else default
             int arm = -1;
             for (int i = 0; i < cases.length; i++) {
@@ -352,63 +631,45 @@ public class ThreadTracer {
                 }
             }
             // Emit a branch instruction corresponding to the arm
-            emit(new BranchEvent(iid, this.method, lineNum, arm));
-
-            super.visitLOOKUPSWITCH(lookupSwitch);
+            emitBranch(iid, this, lineNum, arm);
         }
 
         @Override
-        public void visitHEAPLOAD(HEAPLOAD heapload) {
-            int iid = heapload.iid;
-            int lineNum = heapload.mid;
-            int objectId = heapload.objectId;
-            String field = heapload.field;
+        void heapLoad(int iid, int lineNum, int objectId, String field) {
             // Log the object access (unless it was a NPE)
             if (objectId != 0) {
-                emit(new ReadEvent(iid, this.method, lineNum, objectId, field));
+                emitRead(iid, this, lineNum, objectId, field);
             }
-
-            super.visitHEAPLOAD(heapload);
         }
 
         @Override
-        public void visitNEW(NEW newInst) {
-            int iid = newInst.iid;
-            int lineNum = newInst.mid;
-            emit(new AllocEvent(iid, this.method, lineNum, 1));
-
-            super.visitNEW(newInst);
+        void newObject(int iid, int lineNum) {
+            emitAlloc(iid, this, lineNum, 1);
         }
 
         @Override
-        public void visitNEWARRAY(NEWARRAY newArray) {
-            int iid = newArray.iid;
-            int lineNum = newArray.mid;
+        void newArray(int iid, int lineNum) {
             int size = values.intValue;
-            emit(new AllocEvent(iid, this.method, lineNum, size));
-
-            super.visitNEWARRAY(newArray);
+            emitAlloc(iid, this, lineNum, size);
         }
 
         @Override
-        public void visitReturnOrMethodThrow(Instruction ins) {
-            emit(new ReturnEvent(ins.iid, this.method, ins.mid));
+        void returnOrThrow(int iid, int lineNum) {
+            emitReturn(iid, this, lineNum);
             handlers.pop();
-
-            super.visitReturnOrMethodThrow(ins);
         }
 
     }
 
-    class MatchingNullHandler extends ControlFlowInstructionVisitor {
+    class MatchingNullHandler extends Handler {
 
         @Override
-        public void visitMETHOD_BEGIN(METHOD_BEGIN begin) {
-            handlers.push(new MatchingNullHandler());
+        void methodBegin(String owner, String name, String desc) {
+            handlers.push(matchingNullHandler);
         }
 
         @Override
-        public void visitReturnOrMethodThrow(Instruction ins) {
+        void returnOrThrow(int iid, int mid) {
             handlers.pop();
         }
     }
@@ -35,12 +35,29 @@ import janala.logger.inst.Instruction;
 /** @author Rohan Padhye */
 class TraceLogger extends AbstractLogger {
 
-    private final ThreadLocal<ThreadTracer> tracer
-            = ThreadLocal.withInitial(() -> ThreadTracer.spawn(Thread.currentThread()));
+    protected final ThreadLocal<ThreadTracer> tracer;
+
+    TraceLogger() {
+        this(false);
+    }
+
+    /**
+     * Creates a logger whose per-thread tracers optionally recycle events.
+     *
+     * @param recycleEvents whether tracers should reuse events instead of allocating them
+     */
+    TraceLogger(boolean recycleEvents) {
+        this.tracer = ThreadLocal.withInitial(() -> ThreadTracer.spawn(Thread.currentThread(), recycleEvents));
+    }
 
     @Override
     protected void log(Instruction instruction) {
         tracer.get().consume(instruction);
     }
 
+    /** Discards the tracing state of the current thread. */
+    void reset() {
+        tracer.get().reset();
+    }
+
 }
@@ -44,13 +44,18 @@ public class AllocEvent extends TraceEvent {
      * size 1, whereas arrays of the form new T[N] are considered allocations
      * of size N.
      */
-    private final int size;
+    private int size;
 
     public AllocEvent(int iid, MemberRef containingMethod, int lineNumber, int size) {
         super(iid, containingMethod, lineNumber);
         this.size = size;
     }
 
+    void reset(int iid, MemberRef containingMethod, int lineNumber, int size) {
+        reset(iid, containingMethod, lineNumber);
+        this.size = size;
+    }
+
     public int getSize() {
         return size;
     }
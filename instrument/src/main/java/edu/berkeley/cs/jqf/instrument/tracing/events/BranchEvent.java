@@ -42,13 +42,18 @@ public class BranchEvent extends TraceEvent {
      * switch-cases, the arm is the index of the case
      * statement (default arm = -1)
      */
-    protected final int arm;
+    protected int arm;
 
     public BranchEvent(int iid, MemberRef containingMethod, int lineNumber, int arm) {
         super(iid, containingMethod, lineNumber);
         this.arm = arm;
     }
 
+    void reset(int iid, MemberRef containingMethod, int lineNumber, int arm) {
+        reset(iid, containingMethod, lineNumber);
+        this.arm = arm;
+    }
+
     public int getArm() {
         return arm;
     }
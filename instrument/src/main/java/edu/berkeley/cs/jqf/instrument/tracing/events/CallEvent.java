@@ -34,16 +34,24 @@ import janala.logger.inst.MemberRef;
  * @author Rohan Padhye
  */
 public class CallEvent extends TraceEvent {
-    protected final MemberRef invokedMethod;
-    private final String str;
+    protected MemberRef invokedMethod;
+    private String str; // Computed lazily
 
     public CallEvent(int iid, MemberRef containingMethod, int lineNumber, MemberRef invokedMethod) {
         super(iid, containingMethod, lineNumber);
         this.invokedMethod = invokedMethod;
-        this.str = invokedMethod.getOwner() + "#" + invokedMethod.getName() + invokedMethod.getDesc();
+    }
+
+    void reset(int iid, MemberRef containingMethod, int lineNumber, MemberRef invokedMethod) {
+        reset(iid, containingMethod, lineNumber);
+        this.invokedMethod = invokedMethod;
+        this.str = null;
     }
 
     public String getInvokedMethodName() {
+        if (str == null) {
+            str = invokedMethod.getOwner() + "#" + invokedMethod.getName() + invokedMethod.getDesc();
+        }
         return str;
     }
 
@@ -34,8 +34,8 @@ import janala.logger.inst.MemberRef;
  * @author Rohan Padhye
  */
 public class ReadEvent extends TraceEvent {
-    protected final int objectId;
-    protected final String field;
+    protected int objectId;
+    protected String field;
 
     public ReadEvent(int iid, MemberRef containingMethod, int lineNumber, int objectId, String field) {
         super(iid, containingMethod, lineNumber);
@@ -43,6 +43,12 @@ public class ReadEvent extends TraceEvent {
         this.field = field;
     }
 
+    void reset(int iid, MemberRef containingMethod, int lineNumber, int objectId, String field) {
+        reset(iid, containingMethod, lineNumber);
+        this.objectId = objectId;
+        this.field = field;
+    }
+
     public int getObjectId() {
         return objectId;
     }
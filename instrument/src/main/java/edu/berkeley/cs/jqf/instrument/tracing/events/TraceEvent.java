@@ -38,9 +38,10 @@ import janala.logger.inst.MemberRef;
  */
 public abstract class TraceEvent {
 
-    protected final int iid;
-    protected final MemberRef containingMethod;
-    protected final int lineNumber;
+    // Not final, so that a {@link TraceEventPool} can recycle instances
+    protected int iid;
+    protected MemberRef containingMethod;
+    protected int lineNumber;
 
     public TraceEvent(int iid, MemberRef method, int lineNumber) {
         this.iid = iid;
@@ -48,6 +49,12 @@ public abstract class TraceEvent {
         this.lineNumber = lineNumber;
     }
 
+    void reset(int iid, MemberRef method, int lineNumber) {
+        this.iid = iid;
+        this.containingMethod = method;
+        this.lineNumber = lineNumber;
+    }
+
     public int getIid() {
         return iid;
     }
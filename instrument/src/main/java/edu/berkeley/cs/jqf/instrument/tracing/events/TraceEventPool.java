@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing.events;
+
+import janala.logger.inst.MemberRef;
+
+/**
+ * A set of trace events that are reused instead of allocated afresh.
+ *
+ * <p>Each factory method overwrites and returns the same instance of
+ * its event type. An event obtained from a pool is therefore only valid
+ * until the next event of the same type is obtained from it; consumers
+ * that need an event after that must copy the information they need.</p>
+ *
+ * <p>A pool is not thread-safe; each thread should use its own.</p>
+ */
+public final class TraceEventPool {
+    private final CallEvent callEvent = new CallEvent(0, null, 0, null);
+    private final ReturnEvent returnEvent = new ReturnEvent(0, null, 0);
+    private final BranchEvent branchEvent = new BranchEvent(0, null, 0, 0);
+    private final ReadEvent readEvent = new ReadEvent(0, null, 0, 0, null);
+    private final AllocEvent allocEvent = new AllocEvent(0, null, 0, 0);
+
+    public CallEvent call(int iid, MemberRef containingMethod, int lineNumber, MemberRef invokedMethod) {
+        callEvent.reset(iid, containingMethod, lineNumber, invokedMethod);
+        return callEvent;
+    }
+
+    public ReturnEvent ret(int iid, MemberRef containingMethod, int lineNumber) {
+        returnEvent.reset(iid, containingMethod, lineNumber);
+        return returnEvent;
+    }
+
+    public BranchEvent branch(int iid, MemberRef containingMethod, int lineNumber, int arm) {
+        branchEvent.reset(iid, containingMethod, lineNumber, arm);
+        return branchEvent;
+    }
+
+    public ReadEvent read(int iid, MemberRef containingMethod, int lineNumber, int objectId, String field) {
+        readEvent.reset(iid, containingMethod, lineNumber, objectId, field);
+        return readEvent;
+    }
+
+    public AllocEvent alloc(int iid, MemberRef containingMethod, int lineNumber, int size) {
+        allocEvent.reset(iid, containingMethod, lineNumber, size);
+        return allocEvent;
+    }
+}
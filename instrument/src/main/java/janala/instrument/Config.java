@@ -5,19 +5,35 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 
-class Config {
+public class Config {
   // System properties
   public static final String propFile = System.getProperty("janala.conf", "janala.conf");
 
   public static final Config instance = new Config();
 
+  /** The instrumentation profile that emits every supported probe. */
+  public static final String PROFILE_FULL = "full";
+
+  /** The instrumentation profile that emits only the probes needed for control-flow coverage. */
+  public static final String PROFILE_COVERAGE = "coverage";
+
+  /** The instrumentation profile that updates an edge map inline instead of emitting probes. */
+  public static final String PROFILE_EDGE_MAP = "edgemap";
+
   public final boolean verbose;
+  public final String profile;
+  public final boolean coverageOnly;
+  public final boolean edgeMapOnly;
   public final String analysisClass;
   public final String[] excludeInst;
   public final String[] includeInst;
   public final boolean instrumentHeapLoad;
   public final boolean instrumentAlloc;
   public final String instrumentationCacheDir;
+  public final int iidBits;
+
+  /** A string that identifies every setting that affects the instrumented bytecode. */
+  public final String fingerprint;
 
   private Config() {
       // Read properties from the conf file
@@ -34,13 +50,24 @@ class Config {
 
       verbose = Boolean.parseBoolean(properties.getProperty("janala.verbose", "false"));
 
+      profile = properties.getProperty("janala.profile", PROFILE_FULL);
+      if (!profile.equals(PROFILE_FULL) && !profile.equals(PROFILE_COVERAGE) &&
+              !profile.equals(PROFILE_EDGE_MAP)) {
+          throw new IllegalArgumentException("Unknown instrumentation profile: " + profile);
+      }
+      edgeMapOnly = profile.equals(PROFILE_EDGE_MAP);
+      coverageOnly = edgeMapOnly || profile.equals(PROFILE_COVERAGE);
+
       analysisClass =
               properties.getProperty("janala.snoopClass", "edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop")
                       .replace('.', '/');
 
 
-      instrumentHeapLoad = Boolean.parseBoolean(properties.getProperty("janala.instrumentHeapLoad", "false"));
-      instrumentAlloc = Boolean.parseBoolean(properties.getProperty("janala.instrumentAlloc", "false"));
+      // The coverage profile never emits heap-load or allocation probes
+      instrumentHeapLoad = !coverageOnly &&
+              Boolean.parseBoolean(properties.getProperty("janala.instrumentHeapLoad", "false"));
+      instrumentAlloc = !coverageOnly &&
+              Boolean.parseBoolean(properties.getProperty("janala.instrumentAlloc", "false"));
 
       String excludeInstStr = properties.getProperty("janala.excludes", "");
       if (excludeInstStr.length() > 0) {
@@ -58,5 +85,26 @@ class Config {
 
       instrumentationCacheDir = properties.getProperty("janala.instrumentationCacheDir");
 
+      // Instruction IDs are ints; the default of 31 bits keeps them non-negative
+      iidBits = checkIidBits(Integer.parseInt(properties.getProperty("janala.iidBits", "31")));
+
+      fingerprint = "profile=" + profile + ";analysisClass=" + analysisClass +
+              ";instrumentHeapLoad=" + instrumentHeapLoad + ";instrumentAlloc=" + instrumentAlloc +
+              ";iidBits=" + iidBits;
+
+  }
+
+  /**
+   * Checks that a number of bits is a valid width for instruction IDs.
+   *
+   * @param iidBits the number of bits in an instruction ID
+   * @return <tt>iidBits</tt>
+   * @throws IllegalArgumentException if <tt>iidBits</tt> is not between 16 and 32
+   */
+  static int checkIidBits(int iidBits) {
+      if (iidBits < 16 || iidBits > 32) {
+          throw new IllegalArgumentException("janala.iidBits must be between 16 and 32: " + iidBits);
+      }
+      return iidBits;
   }
 }
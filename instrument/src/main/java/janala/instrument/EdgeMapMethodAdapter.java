@@ -0,0 +1,142 @@
+package janala.instrument;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.instrument.tracing.EdgeMap;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A method adapter for the <tt>edgemap</tt> instrumentation profile.
+ *
+ * <p>Instead of calling into the snoop class, this adapter inlines an
+ * AFL-style update of {@link EdgeMap} at every method entry and at every
+ * arm of every conditional branch and switch. Branch and switch arms are
+ * routed through small trampolines that are emitted at the end of the
+ * method, so that the fall-through path does not need an extra jump.</p>
+ */
+public class EdgeMapMethodAdapter extends MethodVisitor implements Opcodes {
+
+  private static final int ENTRY_ARM = -2;
+
+  private final GlobalStateForInstrumentation instrumentationState;
+
+  /** Trampolines to emit at the end of the method: (label, location, target). */
+  private final List<Trampoline> trampolines = new ArrayList<>();
+
+  private static class Trampoline {
+    final Label label = new Label();
+    final int location;
+    final Label target;
+
+    Trampoline(int location, Label target) {
+      this.location = location;
+      this.target = target;
+    }
+  }
+
+  public EdgeMapMethodAdapter(MethodVisitor mv, GlobalStateForInstrumentation instrumentationState) {
+    super(ASM5, mv);
+    this.instrumentationState = instrumentationState;
+  }
+
+  /** Maps an instruction ID and arm to a location in the edge map. */
+  static int location(int iid, int arm) {
+    int h = iid * 31 + arm;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h & (EdgeMap.SIZE - 1);
+  }
+
+  /**
+   * Inline <tt>if (counts[location ^ prevLocation]++ == 0) touch(location ^ prevLocation);
+   * prevLocation = location &gt;&gt; 1;</tt>.
+   */
+  private void addEdgeUpdate(int location) {
+    Label updated = new Label();
+    mv.visitFieldInsn(GETSTATIC, EdgeMap.INTERNAL_NAME, "counts", "[B");
+    Utils.addBipushInsn(mv, location);
+    mv.visitFieldInsn(GETSTATIC, EdgeMap.INTERNAL_NAME, "prevLocation", "I");
+    mv.visitInsn(IXOR);
+    mv.visitInsn(DUP2);
+    mv.visitInsn(BALOAD);
+    mv.visitInsn(DUP_X2);
+    mv.visitInsn(ICONST_1);
+    mv.visitInsn(IADD);
+    mv.visitInsn(I2B);
+    mv.visitInsn(BASTORE);
+    // Only the first hit of an edge (in a run) leaves the fast path
+    mv.visitJumpInsn(IFNE, updated);
+    Utils.addBipushInsn(mv, location);
+    mv.visitFieldInsn(GETSTATIC, EdgeMap.INTERNAL_NAME, "prevLocation", "I");
+    mv.visitInsn(IXOR);
+    mv.visitMethodInsn(INVOKESTATIC, EdgeMap.INTERNAL_NAME, "touch", "(I)V", false);
+    mv.visitLabel(updated);
+    Utils.addBipushInsn(mv, location >> 1);
+    mv.visitFieldInsn(PUTSTATIC, EdgeMap.INTERNAL_NAME, "prevLocation", "I");
+  }
+
+  /** Returns a label that updates the edge map before jumping to <tt>target</tt>. */
+  private Label addTrampoline(int location, Label target) {
+    Trampoline t = new Trampoline(location, target);
+    trampolines.add(t);
+    return t.label;
+  }
+
+  @Override
+  public void visitCode() {
+    instrumentationState.incMid();
+    mv.visitCode();
+    addEdgeUpdate(location(instrumentationState.incAndGetId(), ENTRY_ARM));
+  }
+
+  @Override
+  public void visitJumpInsn(int opcode, Label label) {
+    switch (opcode) {
+      case GOTO:
+      case JSR:
+        mv.visitJumpInsn(opcode, label);
+        break;
+      default: {
+        // Conditional jump: branch taken goes via a trampoline, fall-through is updated inline
+        int iid = instrumentationState.incAndGetId();
+        mv.visitJumpInsn(opcode, addTrampoline(location(iid, 1), label));
+        addEdgeUpdate(location(iid, 0));
+      }
+    }
+  }
+
+  @Override
+  public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+    int iid = instrumentationState.incAndGetId();
+    Label[] arms = new Label[labels.length];
+    for (int i = 0; i < labels.length; i++) {
+      arms[i] = addTrampoline(location(iid, i), labels[i]);
+    }
+    mv.visitTableSwitchInsn(min, max, addTrampoline(location(iid, -1), dflt), arms);
+  }
+
+  @Override
+  public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+    int iid = instrumentationState.incAndGetId();
+    Label[] arms = new Label[labels.length];
+    for (int i = 0; i < labels.length; i++) {
+      arms[i] = addTrampoline(location(iid, i), labels[i]);
+    }
+    mv.visitLookupSwitchInsn(addTrampoline(location(iid, -1), dflt), keys, arms);
+  }
+
+  @Override
+  public void visitMaxs(int maxStack, int maxLocals) {
+    // Emit trampolines after the last instruction; they are only reachable via jumps
+    for (Trampoline t : trampolines) {
+      mv.visitLabel(t.label);
+      addEdgeUpdate(t.location);
+      mv.visitJumpInsn(GOTO, t.target);
+    }
+    mv.visitMaxs(maxStack + 5, maxLocals);
+  }
+}
@@ -1,27 +1,93 @@
 package janala.instrument;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /** An object to keep track of (classId, methodId, instructionId) tuples during
- instrumentation. */
+ instrumentation.
+
+ Instances are not thread-safe; each class being instrumented should get its own
+ instance (see {@link SnoopInstructionTransformer#instrument}). The IDs depend only
+ on the class name and the order of instructions within it.
+
+ An instruction ID is a stable hash of the class name, the index of the method
+ within the class and the index of the instruction within the method, truncated
+ to <tt>janala.iidBits</tt> bits. IDs are never reused within a class; the rare
+ collision across classes is left to chance, as with any hashed coverage map.
+ A class with more instructions than there are IDs cannot be instrumented. */
 public class GlobalStateForInstrumentation {
+  /** The number of bits in an instruction ID. */
+  public static final int IID_BITS = Config.instance.iidBits;
+
+  /** A shared instance for single-threaded callers. */
   public static GlobalStateForInstrumentation instance = new GlobalStateForInstrumentation();
+
+  private final int iidMask;
+
+  /** The number of distinct IDs that can be issued, excluding 0 and -1. */
+  private final long idSpace;
+
+  /** The number of hashed probes for a free ID before falling back to a linear scan. */
+  private static final int MAX_HASHED_PROBES = 64;
+
   private int iid = 0;
   private int mid = 0;
   private int cid = 0;
+  private long classHash = 0;
+  private String className = null;
+  private int id = 0;
 
-  // When one gets the id, she gets the result of merging all three ids.
-  // NOTE: Beaware of truncation errors.
-  private final static int CBITS = 10;  // CID occupies the upper 10 bits
-  private final static int MBITS = 10;  // MID occupies the next 10 bits
-  private final static int IBITS = 32 - CBITS - MBITS;  // MID occupies the remaining 12 bits
+  /** IDs issued for the current class, to resolve collisions deterministically. */
+  private final Set<Integer> issued = new HashSet<>();
 
+  public GlobalStateForInstrumentation() {
+    this(IID_BITS);
+  }
+
+  /**
+   * Creates a state that issues instruction IDs of the given width.
+   *
+   * @param iidBits the number of bits in an instruction ID (16 to 32);
+   *                with 32 bits, IDs may be negative
+   */
+  GlobalStateForInstrumentation(int iidBits) {
+    this.iidMask = (int) ((1L << Config.checkIidBits(iidBits)) - 1);
+    this.idSpace = iidBits == 32 ? (1L << 32) - 2 : (1L << iidBits) - 1;
+  }
+
+  /**
+   * Issues the ID of the next instruction in the current method.
+   *
+   * @return an ID that is unique within the current class
+   * @throws IllegalStateException if every ID of <tt>janala.iidBits</tt>
+   *         bits has already been issued in the current class
+   */
   public int incAndGetId() {
+    if (issued.size() >= idSpace) {
+      throw new IllegalStateException("Class " + className + " has more than " + idSpace +
+          " instructions, which do not fit in janala.iidBits=" + Integer.bitCount(iidMask) +
+          "; use a larger value");
+    }
     iid++;
-    validate(iid, IBITS);
-    return getId();
+    long h = mix(classHash ^ mix(((long) mid << 32) | iid));
+    int candidate = (int) h & iidMask;
+    // Probe (deterministically) until we find an ID not yet used in this class
+    int probes = 0;
+    while (candidate == 0 || candidate == -1 || !issued.add(candidate)) {
+      if (++probes < MAX_HASHED_PROBES) {
+        h = mix(h + 1);
+        candidate = (int) h & iidMask;
+      } else {
+        // The space is nearly full; scan for a free ID, which must exist
+        candidate = (candidate + 1) & iidMask;
+      }
+    }
+    id = candidate;
+    return id;
   }
 
   public int getId() {
-    return (cid << (32 - CBITS)) + (mid << (32 - CBITS - MBITS)) + iid;
+    return id;
   }
 
   public int getMid() {
@@ -30,7 +96,6 @@ public class GlobalStateForInstrumentation {
 
   public void incMid() {
     this.mid++;
-    validate(mid, MBITS);
     this.iid = 0;
   }
 
@@ -38,17 +103,33 @@ public class GlobalStateForInstrumentation {
     return cid;
   }
 
-  public void setCid(int cid) {
-    cid = Math.abs(cid) % CBITS;
-    validate(cid, CBITS);
+  /**
+   * Starts a new class.
+   *
+   * @param cname the internal name of the class
+   */
+  public void setClass(String cname) {
+    long h = 0xcbf29ce484222325L; // FNV-1a
+    for (int i = 0; i < cname.length(); i++) {
+      h ^= cname.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    this.classHash = mix(h);
+    this.className = cname;
+    this.cid = (int) (classHash >>> 32);
     this.iid = 0;
     this.mid = 0;
-    this.cid = cid;
+    this.id = 0;
+    this.issued.clear();
   }
 
-  private void validate(int id, int bits) {
-    if (id < 0 || id >= (1 << bits)) {
-      throw new IllegalArgumentException("Invalid instruction ID range");
-    }
+  /** The 64-bit finalizer of MurmurHash3. */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
   }
 }
@@ -0,0 +1,166 @@
+package janala.instrument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A content-addressed on-disk cache of instrumented classes.
+ *
+ * <p>Each entry is keyed by a SHA-256 digest of the class name, the original
+ * class bytes, the instrumentation settings in {@link Config}, and the version
+ * of the instrumenter itself (see {@link #VERSION}). Hence, entries never need
+ * to be validated against the original bytes, and a cache directory can be
+ * shared across configurations and JQF versions.</p>
+ *
+ * <p>Entries are stored as <tt>DIR/ab/cdef....class</tt>, where <tt>abcdef...</tt>
+ * is the hex-encoded key. Files are written to a temporary file and atomically
+ * renamed, so that multiple JVMs (or threads) can populate the same
+ * directory concurrently.</p>
+ */
+public class InstrumentationCache {
+
+  /** Classes whose bytecode determines the output of the instrumentation. */
+  private static final String[] INSTRUMENTER_CLASSES = {
+      "janala/instrument/SnoopInstructionTransformer.class",
+      "janala/instrument/SnoopInstructionClassAdapter.class",
+      "janala/instrument/SnoopInstructionMethodAdapter.class",
+      "janala/instrument/EdgeMapMethodAdapter.class",
+      "janala/instrument/GlobalStateForInstrumentation.class",
+      "janala/instrument/SafeClassWriter.class",
+      "janala/instrument/Utils.class"
+  };
+
+  /**
+   * The version of the instrumenter, which is the JQF version (if known)
+   * followed by a digest of the instrumenter's own class files, so that
+   * development builds do not reuse stale entries.
+   */
+  public static final String VERSION = computeVersion();
+
+  private final File dir;
+
+  public InstrumentationCache(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Computes the cache key for a class.
+   *
+   * @param cname the internal name of the class
+   * @param original the original (uninstrumented) bytes of the class
+   * @return a hex-encoded key that uniquely identifies the instrumented bytes
+   */
+  public static String key(String cname, byte[] original) {
+    MessageDigest md = newDigest();
+    md.update(VERSION.getBytes(StandardCharsets.UTF_8));
+    md.update((byte) 0);
+    md.update(Config.instance.fingerprint.getBytes(StandardCharsets.UTF_8));
+    md.update((byte) 0);
+    md.update(cname.getBytes(StandardCharsets.UTF_8));
+    md.update((byte) 0);
+    md.update(original);
+    return toHex(md.digest());
+  }
+
+  /**
+   * Checks whether an entry exists for a key.
+   *
+   * @param key a key returned by {@link #key(String, byte[])}
+   * @return whether the instrumented bytes are cached
+   */
+  public boolean contains(String key) {
+    return fileFor(key).exists();
+  }
+
+  /**
+   * Looks up the instrumented bytes for a key.
+   *
+   * @param key a key returned by {@link #key(String, byte[])}
+   * @return the instrumented bytes, or <tt>null</tt> if not cached
+   * @throws IOException if the cache entry exists but could not be read
+   */
+  public byte[] load(String key) throws IOException {
+    File file = fileFor(key);
+    if (file.exists()) {
+      return Files.readAllBytes(file.toPath());
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Stores instrumented bytes for a key.
+   *
+   * @param key a key returned by {@link #key(String, byte[])}
+   * @param instrumented the instrumented bytes
+   * @throws IOException if the entry could not be written
+   */
+  public void store(String key, byte[] instrumented) throws IOException {
+    File file = fileFor(key);
+    File parent = file.getParentFile();
+    parent.mkdirs();
+    File tmp = File.createTempFile(key, ".tmp", parent);
+    try {
+      try (FileOutputStream out = new FileOutputStream(tmp)) {
+        out.write(instrumented);
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  private File fileFor(String key) {
+    return new File(new File(dir, key.substring(0, 2)), key.substring(2) + ".class");
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("SHA-256 is required by every Java platform", e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  private static String computeVersion() {
+    String version = InstrumentationCache.class.getPackage() != null ?
+        InstrumentationCache.class.getPackage().getImplementationVersion() : null;
+    MessageDigest md = newDigest();
+    ClassLoader loader = InstrumentationCache.class.getClassLoader();
+    for (String resource : INSTRUMENTER_CLASSES) {
+      try (InputStream in = loader != null ?
+          loader.getResourceAsStream(resource) : ClassLoader.getSystemResourceAsStream(resource)) {
+        if (in != null) {
+          ByteArrayOutputStream buf = new ByteArrayOutputStream();
+          byte[] chunk = new byte[8192];
+          int n;
+          while ((n = in.read(chunk)) != -1) {
+            buf.write(chunk, 0, n);
+          }
+          md.update(buf.toByteArray());
+        }
+      } catch (IOException e) {
+        // Ignore; the version string is just less precise
+      }
+    }
+    return (version != null ? version : "unknown") + "-" + toHex(md.digest()).substring(0, 16);
+  }
+}
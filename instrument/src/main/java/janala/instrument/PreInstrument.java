@@ -0,0 +1,197 @@
+package janala.instrument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Instruments every class on a classpath ahead of time, in parallel, and
+ * stores the results in the {@link InstrumentationCache} given by
+ * <tt>janala.instrumentationCacheDir</tt>.
+ *
+ * <p>A subsequent run with the same cache directory and the same
+ * instrumentation settings then only has to hash each class when it is
+ * loaded, instead of running ASM on it.</p>
+ *
+ * <p>Usage: <tt>java -Djanala.instrumentationCacheDir=DIR janala.instrument.PreInstrument CLASSPATH [THREADS]</tt></p>
+ */
+public class PreInstrument {
+
+  private static final String CLASS_SUFFIX = ".class";
+
+  private final InstrumentationCache cache;
+  private final ClassLoader loader;
+  private final AtomicInteger numInstrumented = new AtomicInteger();
+  private final AtomicInteger numCached = new AtomicInteger();
+  private final AtomicInteger numFailed = new AtomicInteger();
+
+  public PreInstrument(InstrumentationCache cache, ClassLoader loader) {
+    this.cache = cache;
+    this.loader = loader;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: java " + PreInstrument.class.getName() + " CLASSPATH [THREADS]");
+      System.exit(1);
+    }
+    String instDir = Config.instance.instrumentationCacheDir;
+    if (instDir == null) {
+      System.err.println("janala.instrumentationCacheDir must be set");
+      System.exit(1);
+    }
+
+    String[] classpath = args[0].split(File.pathSeparator);
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) :
+        Runtime.getRuntime().availableProcessors();
+
+    ClassLoader loader = new URLClassLoader(toURLs(classpath));
+    PreInstrument preInstrument = new PreInstrument(new InstrumentationCache(new File(instDir)), loader);
+
+    long startTime = System.currentTimeMillis();
+    preInstrument.run(classpath, threads);
+    long elapsed = System.currentTimeMillis() - startTime;
+
+    System.out.println(String.format("Instrumented %d classes (%d already cached, %d failed) " +
+            "using %d threads in %.1fs",
+        preInstrument.numInstrumented.get(), preInstrument.numCached.get(),
+        preInstrument.numFailed.get(), threads, elapsed / 1000.0));
+  }
+
+  /**
+   * Instruments all classes in the given classpath entries.
+   *
+   * @param classpath directories or JAR files
+   * @param threads the number of worker threads
+   * @throws IOException if a classpath entry could not be read
+   * @throws InterruptedException if interrupted while waiting for workers
+   */
+  public void run(String[] classpath, int threads) throws IOException, InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      for (String entry : classpath) {
+        File file = new File(entry);
+        if (file.isDirectory()) {
+          submitDirectory(executor, futures, file, "");
+        } else if (file.isFile() && entry.endsWith(".jar")) {
+          submitJar(executor, futures, file);
+        }
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          // Failures are counted by the task itself
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void submitDirectory(ExecutorService executor, List<Future<?>> futures,
+                               File dir, String prefix) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (final File child : children) {
+      String name = prefix + child.getName();
+      if (child.isDirectory()) {
+        submitDirectory(executor, futures, child, name + "/");
+      } else if (isClassFile(name)) {
+        final String cname = name.substring(0, name.length() - CLASS_SUFFIX.length());
+        futures.add(executor.submit(() -> {
+          try {
+            instrument(cname, Files.readAllBytes(child.toPath()));
+          } catch (IOException e) {
+            numFailed.incrementAndGet();
+          }
+        }));
+      }
+    }
+  }
+
+  private void submitJar(ExecutorService executor, List<Future<?>> futures,
+                         File file) throws IOException {
+    // The JAR is read sequentially; only the instrumentation is parallel
+    try (JarFile jar = new JarFile(file)) {
+      Enumeration<JarEntry> entries = jar.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (!entry.isDirectory() && isClassFile(name)) {
+          final String cname = name.substring(0, name.length() - CLASS_SUFFIX.length());
+          final byte[] bytes;
+          try (InputStream in = jar.getInputStream(entry)) {
+            bytes = readFully(in);
+          }
+          futures.add(executor.submit(() -> instrument(cname, bytes)));
+        }
+      }
+    }
+  }
+
+  private void instrument(String cname, byte[] original) {
+    if (SnoopInstructionTransformer.shouldExclude(cname)) {
+      return;
+    }
+    String key = InstrumentationCache.key(cname, original);
+    if (cache.contains(key)) {
+      numCached.incrementAndGet();
+      return;
+    }
+    try {
+      // Each class gets fresh ID state, so workers do not share anything mutable
+      byte[] instrumented = SnoopInstructionTransformer.instrument(loader, cname, original,
+          new GlobalStateForInstrumentation());
+      cache.store(key, instrumented);
+      numInstrumented.incrementAndGet();
+    } catch (Throwable e) {
+      numFailed.incrementAndGet();
+      if (Config.instance.verbose) {
+        System.err.println("[JANALA] Error instrumenting class " + cname);
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static boolean isClassFile(String name) {
+    return name.endsWith(CLASS_SUFFIX) && !name.startsWith("META-INF/")
+        && !name.endsWith("module-info.class");
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    int n;
+    while ((n = in.read(buf)) != -1) {
+      out.write(buf, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  private static URL[] toURLs(String[] classpath) throws MalformedURLException {
+    URL[] urls = new URL[classpath.length];
+    for (int i = 0; i < classpath.length; i++) {
+      urls[i] = new File(classpath[i]).toURI().toURL();
+    }
+    return urls;
+  }
+}
@@ -8,11 +8,18 @@ import org.objectweb.asm.Opcodes;
 
 public class SnoopInstructionClassAdapter extends ClassVisitor {
   private final String className;
+  private final GlobalStateForInstrumentation instrumentationState;
   private String superName;
 
   public SnoopInstructionClassAdapter(ClassVisitor cv, String className) {
+    this(cv, className, GlobalStateForInstrumentation.instance);
+  }
+
+  public SnoopInstructionClassAdapter(ClassVisitor cv, String className,
+      GlobalStateForInstrumentation instrumentationState) {
     super(Opcodes.ASM5, cv);
     this.className = className;
+    this.instrumentationState = instrumentationState;
   }
 
   @Override
@@ -32,8 +39,11 @@ public class SnoopInstructionClassAdapter extends ClassVisitor {
       String signature, String[] exceptions) {
     MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
     if (mv != null) {
+      if (Config.instance.edgeMapOnly) {
+        return new EdgeMapMethodAdapter(mv, instrumentationState);
+      }
       return new SnoopInstructionMethodAdapter(mv, className, name, desc, superName,
-          GlobalStateForInstrumentation.instance);
+          instrumentationState);
     }
     return null;
   }
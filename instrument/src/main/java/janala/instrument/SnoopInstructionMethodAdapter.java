@@ -955,6 +955,28 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
 
 
 
+  /**
+   * Push an array of switch target label IDs onto the stack.
+   *
+   * <p>The labels are not needed to compute which arm of a switch was taken,
+   * so the coverage profile pushes <tt>null</tt> instead of allocating
+   * an array on every execution of the switch.</p>
+   */
+  private void addLabelArray(Label[] labels) {
+    if (Config.instance.coverageOnly) {
+      mv.visitInsn(ACONST_NULL);
+      return;
+    }
+    addBipushInsn(mv, labels.length);
+    mv.visitIntInsn(NEWARRAY, T_INT);
+    for (int i = 0; i < labels.length; i++) {
+      mv.visitInsn(DUP);
+      addBipushInsn(mv, i);
+      addBipushInsn(mv, getLabelNum(labels[i]));
+      mv.visitInsn(IASTORE);
+    }
+  }
+
   @Override
   public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
     // Save operand value
@@ -966,14 +988,7 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
     addBipushInsn(mv, max);
     addBipushInsn(mv, getLabelNum(dflt));
 
-    addBipushInsn(mv, labels.length);
-    mv.visitIntInsn(NEWARRAY, T_INT);
-    for (int i = 0; i < labels.length; i++) {
-      mv.visitInsn(DUP);
-      addBipushInsn(mv, i);
-      addBipushInsn(mv, getLabelNum(labels[i]));
-      mv.visitInsn(IASTORE);
-    }
+    addLabelArray(labels);
 
     mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "TABLESWITCH", "(IIIII[I)V", false);
     mv.visitTableSwitchInsn(min, max, dflt, labels);
@@ -997,14 +1012,7 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
       mv.visitInsn(IASTORE);
     }
 
-    addBipushInsn(mv, labels.length);
-    mv.visitIntInsn(NEWARRAY, T_INT);
-    for (int i = 0; i < labels.length; i++) {
-      mv.visitInsn(DUP);
-      addBipushInsn(mv, i);
-      addBipushInsn(mv, getLabelNum(labels[i]));
-      mv.visitInsn(IASTORE);
-    }
+    addLabelArray(labels);
 
     mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "LOOKUPSWITCH", "(III[I[I)V", false);
     mv.visitLookupSwitchInsn(dflt, keys, labels);
@@ -1,16 +1,13 @@
 package janala.instrument;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
-import java.nio.file.Files;
 import java.security.ProtectionDomain;
-import java.util.Arrays;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -58,12 +55,14 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
     Class.forName("java.util.LinkedList$ListItr");
     Class.forName("java.util.TreeMap");
     Class.forName("java.util.TreeMap$Entry");
+    Class.forName("java.util.concurrent.ConcurrentHashMap");
+    Class.forName("java.util.concurrent.ConcurrentHashMap$Node");
     Class.forName("java.util.zip.ZipFile");
     Class.forName("java.util.jar.JarFile");
   }
 
   /** packages that should be exluded from the instrumentation */
-  private static boolean shouldExclude(String cname) {
+  static boolean shouldExclude(String cname) {
     for (String e : banned) {
       if (cname.startsWith(e)) {
         return true;
@@ -82,79 +81,71 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
     return false;
   }
 
-  static Map<String, byte[]> instrumentedBytes = new TreeMap<>();
-
+  /** Instrumented bytes of classes seen by this JVM, keyed by {@link InstrumentationCache#key}. */
+  static Map<String, byte[]> instrumentedBytes = new ConcurrentHashMap<>();
+
+  /** The persistent cache, if <tt>janala.instrumentationCacheDir</tt> is set. */
+  private static final InstrumentationCache diskCache =
+      instDir != null ? new InstrumentationCache(new File(instDir)) : null;
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This method is not synchronized. Each class is instrumented with its
+   * own {@link GlobalStateForInstrumentation}, and the caches tolerate
+   * concurrent access, so that parallel-capable class loaders can define
+   * classes concurrently. Two threads racing on the same class produce
+   * identical bytes, so either result can be used.</p>
+   */
   @Override
-  synchronized public byte[] transform(ClassLoader loader, String cname, Class<?> classBeingRedefined,
+  public byte[] transform(ClassLoader loader, String cname, Class<?> classBeingRedefined,
       ProtectionDomain d, byte[] cbuf)
     throws IllegalClassFormatException {
 
     boolean toInstrument = !shouldExclude(cname);
 
     if (toInstrument) {
-      print("[JANALA] ");
-      if (classBeingRedefined != null) {
-        print("* ");
-      }
-      print("Instrumenting: " + cname + "... ");
-      GlobalStateForInstrumentation.instance.setCid(cname.hashCode());
-
-      if (instrumentedBytes.containsKey(cname)) {
-        println(" Found in fast-cache!");
-        return instrumentedBytes.get(cname);
+      String prefix = verbose ? "[JANALA] " + (classBeingRedefined != null ? "* " : "") +
+          "Instrumenting: " + cname + "... " : null;
+
+      String key = InstrumentationCache.key(cname, cbuf);
+      byte[] cached = instrumentedBytes.get(key);
+      if (cached != null) {
+        println(prefix + " Found in fast-cache!");
+        return cached;
       }
 
-      if (instDir != null) {
-        File cachedFile = new File(instDir + "/" + cname + ".instrumented.class");
-        File referenceFile = new File(instDir + "/" + cname + ".original.class");
-        if (cachedFile.exists() && referenceFile.exists()) {
-          try {
-            byte[] origBytes = Files.readAllBytes(referenceFile.toPath());
-            if (Arrays.equals(cbuf, origBytes)) {
-              byte[] instBytes = Files.readAllBytes(cachedFile.toPath());
-              println(" Found in disk-cache!");
-              instrumentedBytes.put(cname, instBytes);
-              return instBytes;
-            }
-          } catch (IOException e) {
-            print(" <cache error> ");
+      if (diskCache != null) {
+        try {
+          cached = diskCache.load(key);
+          if (cached != null) {
+            println(prefix + " Found in disk-cache!");
+            instrumentedBytes.put(key, cached);
+            return cached;
           }
+        } catch (IOException e) {
+          prefix = prefix + " <cache error> ";
         }
       }
 
-
-      ClassReader cr = new ClassReader(cbuf);
-      ClassWriter cw = new SafeClassWriter(cr,  loader,
-              ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-      ClassVisitor cv = new SnoopInstructionClassAdapter(cw, cname);
-
+      byte[] ret;
       try {
-        cr.accept(cv, 0);
+        ret = instrument(loader, cname, cbuf, new GlobalStateForInstrumentation());
       } catch (Throwable e) {
-        System.err.println("\n[JANALA] Error instrumenting class " + cname);
+        System.err.println("\n[JANALA] Error instrumenting class " + cname + ": " + e);
         if (verbose) {
           e.printStackTrace();
         }
         return null;
       }
 
-      byte[] ret = cw.toByteArray();
-      println("Done!");
-      instrumentedBytes.put(cname, ret);
+      println(prefix + "Done!");
+      instrumentedBytes.put(key, ret);
 
-      if (instDir != null) {
+      if (diskCache != null) {
         try {
-          File cachedFile = new File(instDir + "/" + cname + ".instrumented.class");
-          File referenceFile = new File(instDir + "/" + cname + ".original.class");
-          File parent = new File(cachedFile.getParent());
-          parent.mkdirs();
-          try(FileOutputStream out = new FileOutputStream(cachedFile)) {
-            out.write(ret);
-          }
-          try(FileOutputStream out = new FileOutputStream(referenceFile)) {
-            out.write(cbuf);
-          }
-        } catch(Exception e) {
+          diskCache.store(key, ret);
+        } catch (IOException e) {
           e.printStackTrace();
         }
       }
@@ -164,10 +155,27 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
     }
   }
 
-  private static void print(String str) {
-    if (verbose) {
-      System.out.print(str);
-    }
+  /**
+   * Instruments a single class.
+   *
+   * <p>The result depends only on the class name, the original bytes and
+   * the {@link Config}, which is what makes it safe to cache across runs.</p>
+   *
+   * @param loader the loader used to resolve common super-classes
+   * @param cname the internal name of the class
+   * @param cbuf the original bytes of the class
+   * @param state the ID generator; must not be used concurrently
+   * @return the instrumented bytes
+   */
+  static byte[] instrument(ClassLoader loader, String cname, byte[] cbuf,
+                           GlobalStateForInstrumentation state) {
+    state.setClass(cname);
+    ClassReader cr = new ClassReader(cbuf);
+    ClassWriter cw = new SafeClassWriter(cr,  loader,
+            ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+    ClassVisitor cv = new SnoopInstructionClassAdapter(cw, cname, state);
+    cr.accept(cv, 0);
+    return cw.toByteArray();
   }
 
   private static void println(String line) {
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EdgeMapTest {
+
+    /** Does what instrumented code does for a hit of an edge. */
+    private static void hit(int index, int times) {
+        for (int i = 0; i < times; i++) {
+            if (EdgeMap.counts[index]++ == 0) {
+                EdgeMap.touch(index);
+            }
+        }
+    }
+
+    private static Map<Integer, Integer> drain() {
+        Map<Integer, Integer> drained = new HashMap<>();
+        EdgeMap.drain((index, count) ->
+                Assert.assertNull("Reported twice: " + index, drained.put(index, count)));
+        return drained;
+    }
+
+    private static void assertCleared() {
+        for (byte count : EdgeMap.counts) {
+            Assert.assertEquals(0, count);
+        }
+    }
+
+    @After
+    public void reset() {
+        EdgeMap.reset();
+    }
+
+    @Test
+    public void drainReportsEachEntryOnceAndClears() {
+        hit(7, 1);
+        hit(42, 256 + 3); // Wraps around, so it is touched twice
+        hit(12345, 200);
+        hit(99, 256); // Wraps around to zero, as in AFL
+
+        Map<Integer, Integer> drained = drain();
+        Assert.assertEquals(3, drained.size());
+        Assert.assertEquals(1, (int) drained.get(7));
+        Assert.assertEquals(3, (int) drained.get(42));
+        Assert.assertEquals(200, (int) drained.get(12345));
+        assertCleared();
+        Assert.assertTrue(drain().isEmpty());
+    }
+
+    @Test
+    public void drainScansWholeMapAfterOverflow() {
+        // Every wrap-around touches again, so a hot edge can overflow the list
+        hit(5, 256 * EdgeMap.SIZE + 1);
+        hit(6, 2);
+
+        Map<Integer, Integer> drained = drain();
+        Assert.assertEquals(2, drained.size());
+        Assert.assertEquals(1, (int) drained.get(5));
+        Assert.assertEquals(2, (int) drained.get(6));
+        assertCleared();
+
+        // Tracking resumes after the map has been cleared
+        hit(8, 1);
+        Assert.assertEquals(1, drain().size());
+    }
+
+    @Test
+    public void resetClearsTouchedEntries() {
+        hit(3, 10);
+        EdgeMap.prevLocation = 17;
+        EdgeMap.reset();
+        assertCleared();
+        Assert.assertEquals(0, EdgeMap.prevLocation);
+        Assert.assertTrue(drain().isEmpty());
+    }
+}
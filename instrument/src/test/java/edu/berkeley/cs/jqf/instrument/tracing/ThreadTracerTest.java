@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import janala.logger.inst.GETVALUE_boolean;
+import janala.logger.inst.GETVALUE_int;
+import janala.logger.inst.IFEQ;
+import janala.logger.inst.INVOKEMETHOD_END;
+import janala.logger.inst.INVOKEVIRTUAL;
+import janala.logger.inst.IRETURN;
+import janala.logger.inst.METHOD_BEGIN;
+import janala.logger.inst.RETURN;
+import janala.logger.inst.TABLESWITCH;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadTracerTest {
+
+    private static final String ENTRY_POINT = "Foo#bar";
+
+    private static String describe(TraceEvent e) {
+        return e + " in " + e.getContainingClass() + "#" + e.getContainingMethodName();
+    }
+
+    /** Traces <tt>bar()</tt> calling <tt>baz(int)</tt>, which branches twice, using instruction objects. */
+    private static void consumeInstructions(ThreadTracer t) {
+        t.consume(new METHOD_BEGIN("Foo", "bar", "()V"));
+        t.consume(new INVOKEVIRTUAL(5, 10, "Foo", "baz", "(I)I"));
+        t.consume(new METHOD_BEGIN("Foo", "baz", "(I)I"));
+        t.consume(new GETVALUE_boolean(true));
+        t.consume(new IFEQ(7, 11, 0));
+        t.consume(new GETVALUE_int(2));
+        t.consume(new TABLESWITCH(8, 12, 0, 3, 0, null));
+        t.consume(new IRETURN(9, 13));
+        t.consume(new INVOKEMETHOD_END());
+        t.consume(new RETURN(6, 14));
+    }
+
+    /** Traces the same as {@link #consumeInstructions(ThreadTracer)} through the primitive methods. */
+    private static void consumePrimitives(ThreadTracer t) {
+        t.methodBegin("Foo", "bar", "()V");
+        t.invoke(5, 10, "Foo", "baz", "(I)I");
+        t.methodBegin("Foo", "baz", "(I)I");
+        t.getValueBoolean(true);
+        t.branch(7, 11);
+        t.getValueInt(2);
+        t.tableSwitch(8, 12, 0, 3);
+        t.returnOrThrow(9, 13);
+        t.invokeEnd();
+        t.returnOrThrow(6, 14);
+    }
+
+    @Test
+    public void primitivesWithRecyclingMatchInstructions() {
+        List<String> expected = new ArrayList<>();
+        consumeInstructions(new ThreadTracer(null, ENTRY_POINT, (e) -> expected.add(describe(e))));
+        Assert.assertEquals(6, expected.size());
+        Assert.assertEquals("CALL(5,10,Foo#baz(I)I) in Foo#bar", expected.get(1));
+        Assert.assertEquals("BRANCH(7,1,11) in Foo#baz", expected.get(2));
+
+        List<String> actual = new ArrayList<>();
+        consumePrimitives(new ThreadTracer(null, ENTRY_POINT, (e) -> actual.add(describe(e)), true));
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void recyclingReusesEvents() {
+        List<TraceEvent> events = new ArrayList<>();
+        ThreadTracer t = new ThreadTracer(null, ENTRY_POINT, events::add, true);
+        consumePrimitives(t);
+        consumePrimitives(t);
+        Assert.assertEquals(12, events.size());
+        // Both branches and the switch of both traces share one event, which holds the latest
+        Assert.assertSame(events.get(2), events.get(9));
+        Assert.assertSame(events.get(2), events.get(3));
+        Assert.assertEquals(8, events.get(2).getIid());
+    }
+
+    @Test
+    public void withoutRecyclingEventsAreDistinct() {
+        List<TraceEvent> events = new ArrayList<>();
+        consumePrimitives(new ThreadTracer(null, ENTRY_POINT, events::add));
+        Assert.assertEquals(6, events.size());
+        Assert.assertNotSame(events.get(2), events.get(3));
+        Assert.assertEquals(7, events.get(2).getIid());
+        Assert.assertEquals("Foo", events.get(2).getContainingClass());
+    }
+}
@@ -0,0 +1,109 @@
+package janala.instrument;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GlobalStateForInstrumentationTest {
+
+  /** Issues IDs for every instruction of a class with the given shape. */
+  private static int[] instrumentClass(GlobalStateForInstrumentation state, String cname,
+                                       int numMethods, int instructionsPerMethod) {
+    int[] ids = new int[numMethods * instructionsPerMethod];
+    state.setClass(cname);
+    for (int m = 0; m < numMethods; m++) {
+      state.incMid();
+      for (int i = 0; i < instructionsPerMethod; i++) {
+        ids[m * instructionsPerMethod + i] = state.incAndGetId();
+      }
+    }
+    return ids;
+  }
+
+  @Test
+  public void idsAreStableAcrossRuns() {
+    // IDs are stored in cached instrumented classes, so they must never depend on the JVM run
+    int[] ids = instrumentClass(new GlobalStateForInstrumentation(31), "java/lang/Object", 1, 3);
+    Assert.assertArrayEquals(new int[] {1587903651, 872266572, 813911771}, ids);
+  }
+
+  @Test
+  public void idsDoNotDependOnClassLoadOrder() {
+    GlobalStateForInstrumentation first = new GlobalStateForInstrumentation(31);
+    int[] a1 = instrumentClass(first, "a/A", 3, 50);
+    int[] b1 = instrumentClass(first, "b/B", 5, 20);
+
+    GlobalStateForInstrumentation second = new GlobalStateForInstrumentation(31);
+    int[] b2 = instrumentClass(second, "b/B", 5, 20);
+    int[] a2 = instrumentClass(second, "a/A", 3, 50);
+
+    Assert.assertArrayEquals(a1, a2);
+    Assert.assertArrayEquals(b1, b2);
+  }
+
+  @Test
+  public void idsAreUniqueWithinClass() {
+    // With 16 bits, 20000 hashed IDs are bound to collide unless they are re-probed
+    int[] ids = instrumentClass(new GlobalStateForInstrumentation(16), "big/Class", 100, 200);
+    Set<Integer> unique = new HashSet<>();
+    for (int id : ids) {
+      Assert.assertTrue("Duplicate ID " + id, unique.add(id));
+      Assert.assertTrue(id > 0 && id < (1 << 16));
+    }
+  }
+
+  @Test
+  public void exhaustedIdSpaceFailsInsteadOfSpinning() {
+    // With 16 bits, there are exactly 2^16 - 1 non-zero IDs
+    GlobalStateForInstrumentation state = new GlobalStateForInstrumentation(16);
+    int[] ids = instrumentClass(state, "huge/Class", 1, (1 << 16) - 1);
+    Set<Integer> unique = new HashSet<>();
+    for (int id : ids) {
+      Assert.assertTrue("Duplicate ID " + id, unique.add(id));
+    }
+    try {
+      state.incAndGetId();
+      Assert.fail("Issued more IDs than fit in 16 bits");
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("huge/Class"));
+    }
+
+    // The next class starts afresh
+    Assert.assertEquals(10, instrumentClass(state, "small/Class", 1, 10).length);
+  }
+
+  @Test
+  public void idsFitInThirtyOneBits() {
+    for (int id : instrumentClass(new GlobalStateForInstrumentation(31), "c/C", 10, 1000)) {
+      Assert.assertTrue(id > 0);
+    }
+  }
+
+  @Test
+  public void idsMayBeNegativeWithThirtyTwoBits() {
+    boolean sawNegative = false;
+    for (int id : instrumentClass(new GlobalStateForInstrumentation(32), "c/C", 10, 1000)) {
+      // Zero and -1 stand for "no instruction" in trace events
+      Assert.assertNotEquals(0, id);
+      Assert.assertNotEquals(-1, id);
+      sawNegative |= id < 0;
+    }
+    Assert.assertTrue(sawNegative);
+  }
+
+  @Test
+  public void iidBitsAreBounded() {
+    Assert.assertEquals(16, Config.checkIidBits(16));
+    Assert.assertEquals(32, Config.checkIidBits(32));
+    for (int bits : new int[] {15, 33}) {
+      try {
+        new GlobalStateForInstrumentation(bits);
+        Assert.fail("Accepted " + bits + " bits");
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+}
@@ -32,9 +32,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.time.Duration;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
@@ -116,6 +121,20 @@ public class FuzzGoal extends AbstractMojo {
     @Parameter(property="includes")
     private String includes;
 
+    /**
+     * The instrumentation profile to use.
+     *
+     * <p>The profile <tt>full</tt> (the default) emits every supported
+     * probe, whereas <tt>coverage</tt> emits only the probes needed to
+     * track branches, switches, method calls and exceptions, which
+     * is all that coverage-guided fuzzing requires. The profile
+     * <tt>edgemap</tt> emits no trace events at all and instead updates
+     * an AFL-style edge map inline; it is much faster but only
+     * supports fuzzing without execution indexing.</p>
+     */
+    @Parameter(property="instrumentationProfile")
+    private String instrumentationProfile;
+
     /**
      * The duration of time for which to run fuzzing.
      *
@@ -129,6 +148,18 @@ public class FuzzGoal extends AbstractMojo {
     @Parameter(property="time")
     private String time;
 
+    /**
+     * The time limit for a single run, in milliseconds.
+     *
+     * <p>Runs that take longer are interrupted and aborted at their
+     * next trace event, and counted as timeouts instead of failures.
+     * Runs stuck in uninstrumented code are only reported; set
+     * <tt>jqf.TIMEOUT_HALT</tt> to halt the JVM instead. If not
+     * provided, runs are not timed.</p>
+     */
+    @Parameter(property="timeout")
+    private Long timeout;
+
     /**
      * The name of the output directory where fuzzing results will
      * be stored.
@@ -142,6 +173,29 @@ public class FuzzGoal extends AbstractMojo {
     @Parameter(property="out")
     private String outputDirectory;
 
+    /**
+     * The number of threads that execute trials concurrently.
+     *
+     * <p>All threads share the same coverage and queue of saved inputs.
+     * Multi-threaded fuzzing is not supported with the <tt>edgemap</tt>
+     * instrumentation profile.</p>
+     */
+    @Parameter(property="threads", defaultValue="1")
+    private int threads;
+
+    /**
+     * The number of fuzzing processes to run as an ensemble.
+     *
+     * <p>If greater than one, each process <em>i</em> writes its
+     * results to the sub-directory <tt>fuzzer-<em>i</em></tt> of the
+     * output directory, and periodically imports the inputs saved
+     * by the other processes, keeping those that add coverage locally.
+     * Process 0 runs inside Maven; the others are forked JVMs whose
+     * console output goes to <tt>fuzzer-<em>i</em>.log</tt>.</p>
+     */
+    @Parameter(property="processes", defaultValue="1")
+    private int processes;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         ClassLoader loader;
@@ -157,6 +211,12 @@ public class FuzzGoal extends AbstractMojo {
         if (includes != null) {
             System.setProperty("janala.includes", includes);
         }
+        if (instrumentationProfile != null) {
+            System.setProperty("janala.profile", instrumentationProfile);
+        }
+        if (timeout != null) {
+            System.setProperty("jqf.TIMEOUT", timeout.toString());
+        }
 
         Duration duration = null;
         if (time != null && !time.isEmpty()) {
@@ -171,8 +231,13 @@ public class FuzzGoal extends AbstractMojo {
             outputDirectory = "fuzz-results" + File.separator + testClassName + File.separator + testMethod;
         }
 
+        if (processes < 1) {
+            throw new MojoExecutionException("Invalid number of processes: " + processes);
+        }
+
+        List<String> classpathElements;
         try {
-            List<String> classpathElements = project.getTestClasspathElements();
+            classpathElements = project.getTestClasspathElements();
 
             loader = new InstrumentingClassLoader(
                     classpathElements.toArray(new String[0]),
@@ -181,27 +246,134 @@ public class FuzzGoal extends AbstractMojo {
             throw new MojoExecutionException("Could not get project classpath", e);
         }
 
+        File resultsDir = new File(target, outputDirectory);
+        File[] instanceDirs = new File[processes];
+        if (processes == 1) {
+            instanceDirs[0] = resultsDir;
+        } else {
+            for (int i = 0; i < processes; i++) {
+                instanceDirs[i] = new File(resultsDir, "fuzzer-" + i);
+            }
+        }
+
         try {
-            File resultsDir = new File(target, outputDirectory);
             String targetName = testClassName + "#" + testMethod;
-            guidance = new ExecutionIndexingGuidance(targetName, duration, resultsDir);
+            ExecutionIndexingGuidance eiGuidance =
+                    new ExecutionIndexingGuidance(targetName, duration, instanceDirs[0]);
+            for (int i = 1; i < processes; i++) {
+                eiGuidance.addPeer(instanceDirs[i]);
+            }
+            guidance = eiGuidance;
         } catch (IOException e) {
             throw new MojoExecutionException("Could not create output directory", e);
         }
 
+        // Fork the other members of the ensemble, if any
+        List<Process> children = new ArrayList<>();
+        Thread killChildren = new Thread(() -> children.forEach(Process::destroy));
+        Runtime.getRuntime().addShutdownHook(killChildren);
+        boolean childFailed = false;
         try {
-            result = GuidedFuzzing.run(testClassName, testMethod, loader, guidance, out);
-        } catch (ClassNotFoundException e) {
-            throw new MojoExecutionException("Could not load test class", e);
-        } catch (IllegalArgumentException e) {
-            throw new MojoExecutionException("Bad request", e);
-        } catch (RuntimeException e) {
-            throw new MojoExecutionException("Internal error", e);
+            for (int i = 1; i < processes; i++) {
+                children.add(launchProcess(i, instanceDirs, duration, classpathElements));
+                log.info("Started fuzzer-" + i + "; output in " + instanceDirs[i]);
+            }
+
+            try {
+                result = GuidedFuzzing.run(testClassName, testMethod, loader, guidance, out, threads);
+            } catch (ClassNotFoundException e) {
+                throw new MojoExecutionException("Could not load test class", e);
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException("Bad request", e);
+            } catch (RuntimeException e) {
+                throw new MojoExecutionException("Internal error", e);
+            }
+
+            // With a time limit, the other processes finish at about the same time
+            for (int i = 0; i < children.size(); i++) {
+                Process child = children.get(i);
+                if (duration != null && waitFor(child)) {
+                    if (child.exitValue() != 0) {
+                        log.error("fuzzer-" + (i+1) + " exited with status " + child.exitValue());
+                        childFailed = true;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not launch fuzzing process", e);
+        } finally {
+            children.forEach(Process::destroy);
+            Runtime.getRuntime().removeShutdownHook(killChildren);
         }
 
-        if (!result.wasSuccessful()) {
+        if (!result.wasSuccessful() || childFailed) {
             throw new MojoFailureException("Fuzzing revealed errors. " +
                 "Use mvn jqf:repro to reproduce failing test case.");
         }
     }
+
+    private Process launchProcess(int id, File[] instanceDirs, Duration duration,
+                                  List<String> testClasspath) throws IOException {
+        String javaBin = System.getProperty("java.home") + File.separator +
+                "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>();
+        command.add(javaBin);
+        command.add("-ea");
+
+        // Forward the instrumentation and guidance settings
+        for (Map.Entry<Object, Object> e : System.getProperties().entrySet()) {
+            String key = e.getKey().toString();
+            if (key.startsWith("janala.") || key.startsWith("jqf.")) {
+                command.add("-D" + key + "=" + e.getValue());
+            }
+        }
+
+        StringBuilder peers = new StringBuilder();
+        for (int j = 0; j < instanceDirs.length; j++) {
+            if (j != id) {
+                if (peers.length() > 0) {
+                    peers.append(File.pathSeparator);
+                }
+                peers.append(instanceDirs[j].getAbsolutePath());
+            }
+        }
+        command.add("-Djqf.ei.SYNC_DIRS=" + peers);
+        command.add("-Djqf.ei.THREADS=" + threads);
+
+        command.add("-cp");
+        command.add(getPluginClasspath());
+        command.add(FuzzProcess.class.getName());
+        command.add(testClassName);
+        command.add(testMethod);
+        command.add(instanceDirs[id].getAbsolutePath());
+        command.add(Long.toString(duration == null ? -1 : duration.getSeconds()));
+        command.add(String.join(File.pathSeparator, testClasspath));
+
+        instanceDirs[id].mkdirs();
+        File logFile = new File(instanceDirs[id].getParentFile(), "fuzzer-" + id + ".log");
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile)
+                .start();
+    }
+
+    private String getPluginClasspath() {
+        ClassLoader pluginLoader = getClass().getClassLoader();
+        if (!(pluginLoader instanceof URLClassLoader)) {
+            return System.getProperty("java.class.path");
+        }
+        List<String> paths = new ArrayList<>();
+        for (URL url : ((URLClassLoader) pluginLoader).getURLs()) {
+            paths.add(url.getPath());
+        }
+        return String.join(File.pathSeparator, paths);
+    }
+
+    private static boolean waitFor(Process process) {
+        try {
+            return process.waitFor(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.plugin;
+
+import java.io.File;
+import java.time.Duration;
+
+import edu.berkeley.cs.jqf.fuzz.ei.ExecutionIndexingGuidance;
+import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
+import edu.berkeley.cs.jqf.instrument.InstrumentingClassLoader;
+import org.junit.runner.Result;
+
+/**
+ * Entry point for the additional fuzzing processes launched by
+ * {@link FuzzGoal} when more than one process is requested.
+ *
+ * <p>Each process loads the test class with its own instrumenting
+ * class loader and fuzzes it with an {@link ExecutionIndexingGuidance},
+ * whose peers are given by the <tt>jqf.ei.SYNC_DIRS</tt> property.</p>
+ *
+ * <p>Usage: <tt>java edu.berkeley.cs.jqf.plugin.FuzzProcess TEST_CLASS
+ * TEST_METHOD OUTPUT_DIR DURATION_SECONDS TEST_CLASSPATH</tt>, where
+ * a negative duration means no time limit.</p>
+ */
+public class FuzzProcess {
+
+    public static void main(String[] args) {
+        if (args.length != 5) {
+            System.err.println("Usage: java " + FuzzProcess.class.getName() +
+                    " TEST_CLASS TEST_METHOD OUTPUT_DIR DURATION_SECONDS TEST_CLASSPATH");
+            System.exit(1);
+        }
+
+        String testClassName = args[0];
+        String testMethod = args[1];
+        File outputDirectory = new File(args[2]);
+        long seconds = Long.parseLong(args[3]);
+        Duration duration = seconds < 0 ? null : Duration.ofSeconds(seconds);
+        String[] classpath = args[4].split(File.pathSeparator);
+
+        try {
+            ClassLoader loader = new InstrumentingClassLoader(classpath,
+                    FuzzProcess.class.getClassLoader());
+            String targetName = testClassName + "#" + testMethod;
+            ExecutionIndexingGuidance guidance =
+                    new ExecutionIndexingGuidance(targetName, duration, outputDirectory);
+            int numThreads = Integer.getInteger("jqf.ei.THREADS", 1);
+            Result result = GuidedFuzzing.run(testClassName, testMethod, loader,
+                    guidance, System.out, numThreads);
+            System.exit(result.wasSuccessful() ? 0 : 3);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+}
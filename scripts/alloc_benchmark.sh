@@ -0,0 +1,33 @@
+#!/bin/bash
+
+# Measures bytes allocated per trial by the tracing path, with and without
+# allocation-free tracing (jqf.tracing.RECYCLE_EVENTS).
+#
+# Usage: alloc_benchmark.sh BENCHMARK_CLASS_SUFFIX TEST_METHOD [NUM_TRIALS]
+# Example: alloc_benchmark.sh jdk.SortTest mergeSort 2000
+
+# Figure out script absolute path
+pushd `dirname $0` > /dev/null
+SCRIPT_DIR=`pwd`
+popd > /dev/null
+
+ROOT_DIR=`dirname $SCRIPT_DIR`
+
+if [ "$#" -lt 2 ]; then
+  echo "Usage: $0 BENCHMARK_CLASS_SUFFIX TEST_METHOD [NUM_TRIALS]" >&2
+  exit 1
+fi
+
+class="$1"
+method="$2"
+trials="${3:-1000}"
+
+export CLASSPATH="$ROOT_DIR/examples/target/classes/:$ROOT_DIR/examples/target/test-classes/:$ROOT_DIR/examples/target/dependency/*"
+BASE_JVM_OPTS="$JVM_OPTS -Djqf.logAllocations=true"
+
+for recycle in false true; do
+  echo -n "RECYCLE_EVENTS=$recycle: "
+  JVM_OPTS="$BASE_JVM_OPTS -Djqf.tracing.RECYCLE_EVENTS=$recycle" \
+    "$ROOT_DIR/bin/jqf-random" edu.berkeley.cs.jqf.examples."$class" "$method" "$trials" 2>/dev/null \
+    | grep "^Allocated"
+done
@@ -34,6 +34,16 @@ else
   JAVAAGENT="-javaagent:${INST_JAR}"
 fi
 
+# Instrumentation profile (can be set using env var; e.g. "coverage")
+if [ -n "$JQF_INSTRUMENTATION_PROFILE" ]; then
+  export JVM_OPTS="$JVM_OPTS -Djanala.profile=$JQF_INSTRUMENTATION_PROFILE"
+fi
+
+# Persistent instrumentation cache (can be set using env var; see bin/jqf-preinstrument)
+if [ -n "$JQF_INSTRUMENTATION_CACHE" ]; then
+  export JVM_OPTS="$JVM_OPTS -Djanala.instrumentationCacheDir=$JQF_INSTRUMENTATION_CACHE"
+fi
+
 # Must match callee names, since JDK could be instrumented
 export JVM_OPTS="$JVM_OPTS -Djqf.tracing.MATCH_CALLEE_NAMES=true"
 
@@ -43,7 +53,7 @@ if [ -n "$JAVA_HOME" ]; then
 else
     java="java"
 fi
-"$java" -ea \
+exec "$java" -ea \
   -Xbootclasspath/a:"$INST_CLASSPATH" \
   ${JAVAAGENT} \
   -Djanala.conf="${SCRIPT_DIR}/janala.conf" \